@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.util.concurrent.RejectedExecutionException;
+
+
+/**
+ * A task which a Dispatcher accepted but may be unable to run, for example
+ * because the thread pool refused it after it had been queued.
+ */
+interface Abortable {
+  /**
+   * Gives up on the task without running it, rejecting whatever it would
+   * have resolved.
+   *
+   * @param reason non-null reason the task can't be run
+   */
+  void abort(RejectedExecutionException reason);
+}
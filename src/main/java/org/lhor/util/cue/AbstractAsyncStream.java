@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.util.Optional;
+
+
+/**
+ * The operators shared by every AsyncStream implementation, which only need
+ * to provide {@link AsyncStream#next()}.
+ *
+ * @param <T> the type of values in the stream
+ */
+abstract class AbstractAsyncStream<T> implements AsyncStream<T> {
+  protected final Cue cue;
+
+  protected AbstractAsyncStream(Cue cue) {
+    if (cue == null) {
+      throw new NullPointerException("cue");
+    }
+    this.cue = cue;
+  }
+
+  @Override
+  public <O> AsyncStream<O> map(Callback<T, O> callback) {
+    if (callback == null) {
+      throw new NullPointerException("callback");
+    }
+    return new MappedAsyncStream<>(cue, this, callback);
+  }
+
+  @Override
+  public AsyncStream<T> filter(Callback<T, Boolean> predicate) {
+    if (predicate == null) {
+      throw new NullPointerException("predicate");
+    }
+    return new FilteredAsyncStream<>(cue, this, predicate);
+  }
+
+  @Override
+  public <O> AsyncStream<O> flatMapConcurrent(Callback<T, AsyncStream<O>> callback, int concurrency) {
+    if (callback == null) {
+      throw new NullPointerException("callback");
+    } else if (concurrency < 1) {
+      throw new IllegalArgumentException("concurrency must be at least 1: " + concurrency);
+    }
+    return new FlatMappedAsyncStream<>(cue, this, callback, concurrency);
+  }
+
+  @Override
+  public AsyncStream<T> buffer(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("size must be at least 1: " + size);
+    }
+    return new BufferedAsyncStream<>(cue, this, size);
+  }
+
+  @Override
+  public <A> Promise<A> reduce(A identity, Accumulator<A, T> accumulator) {
+    if (accumulator == null) {
+      throw new NullPointerException("accumulator");
+    }
+    Deferred<A> deferred = cue.defer();
+    fold(deferred, identity, accumulator);
+    return deferred.promise();
+  }
+
+  @Override
+  public Promise<Void> forEach(VoidCallback<T> callback) {
+    if (callback == null) {
+      throw new NullPointerException("callback");
+    }
+    return reduce(null, (ignored, value) -> {
+      callback.call(value);
+      return null;
+    });
+  }
+
+  // Each step is requested from the previous step's callback, so the chain
+  // never grows the stack no matter how long the stream is
+  private <A> void fold(Deferred<A> deferred, A partial, Accumulator<A, T> accumulator) {
+    PromiseImpl.observe(next(), value -> {
+      if (!value.isPresent()) {
+        deferred.resolve(partial);
+        return;
+      }
+      A result;
+      try {
+        result = accumulator.call(partial, value.get());
+      } catch (Exception e) {
+        deferred.reject(e);
+        return;
+      }
+      fold(deferred, result, accumulator);
+    }, deferred::reject);
+  }
+
+  /**
+   * Wraps a value produced by a source or callback, ending the stream with a
+   * NullPointerException if the value was null.
+   */
+  protected static <T> Optional<T> present(T value) {
+    if (value == null) {
+      throw new NullPointerException("AsyncStream values must not be null");
+    }
+    return Optional.of(value);
+  }
+}
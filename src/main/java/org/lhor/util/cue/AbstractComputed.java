@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Keeps track of the Computeds depending on a value, to mark them stale when
+ * it changes.
+ *
+ * @param <T> the type of the value
+ */
+@ThreadSafe
+abstract class AbstractComputed<T> implements Computed<T> {
+  @GuardedBy("this")
+  private final List<ComputedImpl<?>> dependents = new ArrayList<>();
+
+  synchronized void addDependent(ComputedImpl<?> dependent) {
+    dependents.add(dependent);
+  }
+
+  /**
+   * @return a copy of the dependents, to be invalidated outside this lock
+   */
+  synchronized List<ComputedImpl<?>> dependents() {
+    return new ArrayList<>(dependents);
+  }
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+/**
+ * A callback which folds a value into a partial result, producing the new
+ * partial result.
+ *
+ * @param <A> partial result type
+ * @param <I> input value type
+ */
+@FunctionalInterface
+public interface Accumulator<A, I> {
+  A call(A partial, I value) throws Exception;
+}
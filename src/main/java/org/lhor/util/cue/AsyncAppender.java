@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Appends records to a file, resolving each record's Promise once the record
+ * is durable, with group commit.
+ * <p>
+ * A dedicated thread does the writing. Whenever it is idle it takes every
+ * record appended so far, writes them all with one gathering write, and
+ * forces the file to disk once. Records appended while it is forcing wait
+ * for the next round, so under load each force covers however many records
+ * arrived during the previous one, rather than each record paying for a
+ * force of its own.
+ * </p>
+ * <p>
+ * If a write or force fails, the records in that round and every record
+ * after it are rejected with the IOException, since it is no longer known
+ * what the file holds.
+ * </p>
+ */
+@ThreadSafe
+public final class AsyncAppender implements AutoCloseable {
+  private final Cue cue;
+  private final FileChannel channel;
+  private final Thread writer;
+  private final AtomicLong forces = new AtomicLong();
+  private final Logger log = Logger.getLogger(AsyncAppender.class.getName());
+
+  /** Records waiting for the next round, in the order they were appended */
+  @GuardedBy("this")
+  private List<Record> pending = new ArrayList<>();
+  @GuardedBy("this")
+  private boolean closed;
+  /** Set once a write or force has failed, rejecting every later record */
+  @GuardedBy("this")
+  private IOException failure;
+
+  private static final class Record {
+    private final ByteBuffer buffer;
+    private final Deferred<Long> deferred;
+
+    private Record(ByteBuffer buffer, Deferred<Long> deferred) {
+      this.buffer = buffer;
+      this.deferred = deferred;
+    }
+  }
+
+  /**
+   * Opens the file for appending, creating it if it does not exist.
+   *
+   * @param cue not-null Cue producing the Deferreds
+   * @param path not-null file to append to
+   * @throws IOException if the file can't be opened
+   */
+  public AsyncAppender(Cue cue, Path path) throws IOException {
+    if (cue == null) {
+      throw new NullPointerException("cue");
+    } else if (path == null) {
+      throw new NullPointerException("path");
+    }
+    this.cue = cue;
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    channel.position(channel.size());
+    this.writer = new Thread(this::write, "cue-appender-" + path.getFileName());
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Appends the remaining bytes of the buffer as one record. The buffer must
+   * not be modified until the returned Promise is resolved.
+   *
+   * @param record non-null buffer holding the record
+   * @return new promise resolved with the offset in the file where the
+   *   record starts, once it has been forced to disk. Rejected with an
+   *   IllegalStateException if the appender has been closed, or with the
+   *   IOException if it could not be written.
+   */
+  public Promise<Long> append(ByteBuffer record) {
+    if (record == null) {
+      throw new NullPointerException("record");
+    }
+
+    Deferred<Long> deferred = cue.defer();
+    Exception reason;
+    synchronized (this) {
+      if (closed) {
+        reason = new IllegalStateException("Appender has been closed");
+      } else if (failure != null) {
+        reason = failure;
+      } else {
+        pending.add(new Record(record, deferred));
+        if (pending.size() == 1) {
+          notifyAll();
+        }
+        return deferred.promise();
+      }
+    }
+    deferred.reject(reason);
+    return deferred.promise();
+  }
+
+  /**
+   * Stops accepting records, waits for those already appended to be written
+   * and forced, and closes the file.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    if (Thread.currentThread() != writer) {
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * @return the number of times the file has been forced to disk
+   */
+  long forces() {
+    return forces.get();
+  }
+
+  private void write() {
+    try {
+      List<Record> round;
+      while ((round = take()) != null) {
+        commit(round);
+      }
+    } finally {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        log.log(Level.WARNING, "Failed to close appender's file", e);
+      }
+    }
+  }
+
+  /**
+   * @return every record appended since the last round, or null once closed
+   *   with nothing left to write
+   */
+  private synchronized List<Record> take() {
+    boolean interrupted = false;
+    while (pending.isEmpty() && !closed) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (pending.isEmpty()) {
+      return null;
+    }
+    List<Record> round = pending;
+    pending = new ArrayList<>();
+    return round;
+  }
+
+  private void commit(List<Record> round) {
+    IOException reason;
+    synchronized (this) {
+      reason = failure;
+    }
+
+    long[] offsets = new long[round.size()];
+    if (reason == null) {
+      try {
+        ByteBuffer[] buffers = new ByteBuffer[round.size()];
+        long offset = channel.position();
+        for (int i = 0; i < buffers.length; i++) {
+          buffers[i] = round.get(i).buffer;
+          offsets[i] = offset;
+          offset += buffers[i].remaining();
+        }
+        while (channel.position() < offset) {
+          channel.write(buffers);
+        }
+        channel.force(false);
+        forces.incrementAndGet();
+      } catch (IOException e) {
+        log.log(Level.WARNING, "Failed to write to appender's file, rejecting all further records", e);
+        synchronized (this) {
+          failure = e;
+        }
+        reason = e;
+      }
+    }
+
+    for (int i = 0; i < offsets.length; i++) {
+      if (reason == null) {
+        round.get(i).deferred.resolve(offsets[i]);
+      } else {
+        round.get(i).deferred.reject(reason);
+      }
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+/**
+ * A bounded channel for handing values from any number of producers to any
+ * number of consumers without blocking a thread on either side.
+ * <p>
+ * Where a BlockingQueue would park the thread of a producer finding it full
+ * or a consumer finding it empty, an AsyncChannel hands each of them a
+ * Promise instead. A producer which waits on the Promise from its last
+ * {@link #send(Object)} before sending again is held back once the channel
+ * is full, the same as with a BlockingQueue, but its thread is free to run
+ * other callbacks in the meantime.
+ * </p>
+ * <pre>
+ * AsyncChannel&lt;Order&gt; orders = cue.channel(256);
+ * orders.send(order).then(() -&gt; readNextOrder());
+ * orders.receive().then(order -&gt; ship(order));
+ * </pre>
+ *
+ * @param <T> the type of values sent through the channel
+ */
+public interface AsyncChannel<T> {
+  /**
+   * Sends a value to whichever receiver asks for it first.
+   * <p>
+   * The returned Promise is fulfilled once there is room in the channel for
+   * the value, which is immediately unless the channel is full. Values are
+   * received in the order their sends were made. If the channel was already
+   * closed, the returned Promise is rejected with an
+   * {@link IllegalStateException} and the value is discarded.
+   * </p>
+   *
+   * @param value non-null value to send
+   * @return a Promise fulfilled once the value is in the channel
+   * @throws NullPointerException if the value is null
+   */
+  Promise<Void> send(T value);
+
+  /**
+   * Receives the next value from the channel.
+   * <p>
+   * The returned Promise is fulfilled with the oldest value in the channel,
+   * or with the next value sent if the channel is empty. Receivers are served
+   * in the order they asked. Once the channel has been closed and every value
+   * sent before then has been received, the returned Promise is rejected
+   * with an {@link IllegalStateException}.
+   * </p>
+   *
+   * @return a Promise of the next value
+   */
+  Promise<T> receive();
+
+  /**
+   * Closes the channel to further sends.
+   * <p>
+   * Values sent before the channel was closed, including those still waiting
+   * for room, are still delivered to receivers. If the channel was already
+   * closed, this will have no effect.
+   * </p>
+   */
+  void close();
+}
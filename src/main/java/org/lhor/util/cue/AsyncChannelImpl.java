@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.ThreadSafe;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Senders and receivers only ever add themselves to one of two lock-free
+ * queues of Deferreds and then call {@link #drain()}. Whichever thread
+ * increments the work-in-progress counter from zero becomes the drainer and
+ * matches senders to buffer space and buffered values to receivers, looping
+ * until no other thread has asked for a drain since it last looked. The
+ * buffer is only touched by the drainer, so it needs no synchronization of
+ * its own, and no thread ever waits for another.
+ *
+ * @param <T> the type of values sent through the channel
+ */
+@ThreadSafe
+final class AsyncChannelImpl<T> implements AsyncChannel<T> {
+  private final Cue cue;
+  private final int capacity;
+
+  /** Sends which have not yet been let into the buffer, in the order they were made */
+  private final ConcurrentLinkedQueue<PendingSend<T>> senders = new ConcurrentLinkedQueue<>();
+  /** Receives which have not yet been given a value, in the order they were made */
+  private final ConcurrentLinkedQueue<Deferred<T>> receivers = new ConcurrentLinkedQueue<>();
+  /** Counts requests for a drain, only the thread which raises it from zero drains */
+  private final AtomicInteger wip = new AtomicInteger();
+  private volatile boolean closed;
+
+  /** Not locked: only the thread which raised wip from zero touches it, until wip falls back to zero */
+  private final ArrayDeque<T> buffer = new ArrayDeque<>();
+
+  private static final class PendingSend<T> {
+    private final T value;
+    private final Deferred<Void> deferred;
+
+    PendingSend(T value, Deferred<Void> deferred) {
+      this.value = value;
+      this.deferred = deferred;
+    }
+  }
+
+  AsyncChannelImpl(Cue cue, int capacity) {
+    if (cue == null) {
+      throw new NullPointerException("cue");
+    } else if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+    }
+    this.cue = cue;
+    this.capacity = capacity;
+  }
+
+  @Override
+  public Promise<Void> send(T value) {
+    if (value == null) {
+      throw new NullPointerException("value");
+    } else if (closed) {
+      return cue.reject(new IllegalStateException("Channel has been closed"));
+    }
+    Deferred<Void> deferred = cue.defer();
+    senders.add(new PendingSend<>(value, deferred));
+    drain();
+    return deferred.promise();
+  }
+
+  @Override
+  public Promise<T> receive() {
+    Deferred<T> deferred = cue.defer();
+    receivers.add(deferred);
+    drain();
+    return deferred.promise();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    drain();
+  }
+
+  private void drain() {
+    if (wip.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      boolean progress = true;
+      while (progress) {
+        progress = false;
+        while (buffer.size() < capacity && !senders.isEmpty()) {
+          PendingSend<T> send = senders.poll();
+          buffer.add(send.value);
+          send.deferred.resolve(null);
+          progress = true;
+        }
+        while (!buffer.isEmpty() && !receivers.isEmpty()) {
+          receivers.poll().resolve(buffer.poll());
+          progress = true;
+        }
+      }
+
+      // A send racing with close may have been queued after closed was set; it is
+      // still let in above, and only receivers are turned away once all is drained
+      if (closed && buffer.isEmpty() && senders.isEmpty()) {
+        for (Deferred<T> receiver = receivers.poll(); receiver != null; receiver = receivers.poll()) {
+          receiver.reject(new IllegalStateException("Channel has been closed"));
+        }
+      }
+      missed = wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.ThreadSafe;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Delivers events published to a topic to every handler subscribed to it,
+ * on the Cue's threads.
+ * <p>
+ * Each topic's subscribers are held in an array which is replaced, never
+ * modified, when a handler subscribes or unsubscribes, so publishing takes
+ * no lock: it reads the array and adds the event to each subscriber's
+ * queue. A subscriber with events queued has one callback dispatched
+ * through the Cue to drain its queue, which handles up to {@link #BATCH}
+ * events before dispatching itself again. A quiet topic costs a dispatch
+ * per event; a busy one has its events delivered in batches, with no more
+ * than one callback per subscriber waiting at a time. Each subscriber
+ * handles its events one at a time, in the order they were queued.
+ * </p>
+ * <p>
+ * {@link #publish(String, Object)} returns a Promise resolved once every
+ * subscriber has handled the event; {@link #post(String, Object)} returns
+ * one resolved once it has been queued for them.
+ * </p>
+ *
+ * @param <E> the type of events
+ */
+@ThreadSafe
+public final class AsyncEventBus<E> {
+  /** The most events a subscriber handles before its callback is dispatched again */
+  static final int BATCH = 64;
+
+  private static final Subscription<?>[] NONE = new Subscription<?>[0];
+
+  private final Cue cue;
+  private final ConcurrentHashMap<String, Topic<E>> topics = new ConcurrentHashMap<>();
+  private final AtomicLong drains = new AtomicLong();
+  private final Logger log = Logger.getLogger(AsyncEventBus.class.getName());
+
+  private static final class Topic<E> {
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Topic, Subscription[]> SUBSCRIBERS =
+        AtomicReferenceFieldUpdater.newUpdater(Topic.class, Subscription[].class, "subscribers");
+
+    private volatile Subscription<E>[] subscribers;
+
+    @SuppressWarnings("unchecked")
+    private Topic() {
+      this.subscribers = (Subscription<E>[]) NONE;
+    }
+  }
+
+  /**
+   * An event on its way to a subscriber, with the publication waiting for
+   * it to be handled, if any.
+   */
+  private static final class Delivery<E> {
+    private final E event;
+    private final Publication publication;
+
+    private Delivery(E event, Publication publication) {
+      this.event = event;
+      this.publication = publication;
+    }
+  }
+
+  /** Counts down the subscribers yet to handle a published event */
+  private static final class Publication {
+    private final Deferred<Void> deferred;
+    private final AtomicInteger remaining;
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    private Publication(Deferred<Void> deferred, int subscribers) {
+      this.deferred = deferred;
+      this.remaining = new AtomicInteger(subscribers);
+    }
+
+    private void handled(Exception reason) {
+      if (reason != null) {
+        failure.compareAndSet(null, reason);
+      }
+      if (remaining.decrementAndGet() == 0) {
+        Exception first = failure.get();
+        if (first == null) {
+          deferred.resolve(null);
+        } else {
+          deferred.reject(first);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param cue not-null Cue whose threads run the handlers
+   */
+  public AsyncEventBus(Cue cue) {
+    if (cue == null) {
+      throw new NullPointerException("cue");
+    }
+    this.cue = cue;
+  }
+
+  /**
+   * Subscribes the handler to the topic's events, from the next event
+   * published. A handler subscribed more than once receives each event once
+   * for each subscription.
+   *
+   * @param topic non-null topic
+   * @param handler non-null handler
+   * @return the subscription, for unsubscribing
+   */
+  public Subscription<E> subscribe(String topic, VoidCallback<? super E> handler) {
+    if (topic == null) {
+      throw new NullPointerException("topic");
+    } else if (handler == null) {
+      throw new NullPointerException("handler");
+    }
+
+    Topic<E> t = topics.computeIfAbsent(topic, k -> new Topic<>());
+    Subscription<E> subscription = new Subscription<>(this, t, handler);
+    Subscription<E>[] current;
+    Subscription<E>[] updated;
+    do {
+      current = t.subscribers;
+      updated = Arrays.copyOf(current, current.length + 1);
+      updated[current.length] = subscription;
+    } while (!Topic.SUBSCRIBERS.compareAndSet(t, current, updated));
+    return subscription;
+  }
+
+  /**
+   * Delivers the event to every handler subscribed to the topic.
+   *
+   * @param topic non-null topic
+   * @param event the event, which may be null
+   * @return new promise resolved once every subscriber has handled the
+   *   event, or rejected with the first Exception a handler threw, once
+   *   every subscriber has handled it. Resolved immediately if the topic
+   *   has no subscribers.
+   */
+  public Promise<Void> publish(String topic, E event) {
+    if (topic == null) {
+      throw new NullPointerException("topic");
+    }
+
+    Deferred<Void> deferred = cue.defer();
+    Subscription<E>[] subscribers = subscribersOf(topic);
+    if (subscribers.length == 0) {
+      deferred.resolve(null);
+      return deferred.promise();
+    }
+    Publication publication = new Publication(deferred, subscribers.length);
+    for (Subscription<E> subscriber : subscribers) {
+      subscriber.queue(new Delivery<>(event, publication));
+    }
+    return deferred.promise();
+  }
+
+  /**
+   * Queues the event for every handler subscribed to the topic, without
+   * waiting for them to handle it. Exceptions thrown by handlers are logged.
+   *
+   * @param topic non-null topic
+   * @param event the event, which may be null
+   * @return new promise resolved once the event has been queued
+   */
+  public Promise<Void> post(String topic, E event) {
+    if (topic == null) {
+      throw new NullPointerException("topic");
+    }
+
+    for (Subscription<E> subscriber : subscribersOf(topic)) {
+      subscriber.queue(new Delivery<>(event, null));
+    }
+    return cue.when(null);
+  }
+
+  /**
+   * @param topic non-null topic
+   * @return the number of subscriptions to the topic
+   */
+  public int subscribers(String topic) {
+    if (topic == null) {
+      throw new NullPointerException("topic");
+    }
+    return subscribersOf(topic).length;
+  }
+
+  /**
+   * @return the number of callbacks which have drained a subscriber's queue
+   */
+  long drains() {
+    return drains.get();
+  }
+
+  @SuppressWarnings("unchecked")
+  private Subscription<E>[] subscribersOf(String topic) {
+    Topic<E> t = topics.get(topic);
+    return t == null ? (Subscription<E>[]) NONE : t.subscribers;
+  }
+
+  /**
+   * A handler's subscription to a topic, holding the events queued for it.
+   *
+   * @param <E> the type of events
+   */
+  @ThreadSafe
+  public static final class Subscription<E> {
+    private final AsyncEventBus<E> bus;
+    private final Topic<E> topic;
+    private final VoidCallback<? super E> handler;
+    private final ConcurrentLinkedQueue<Delivery<E>> queue = new ConcurrentLinkedQueue<>();
+    /** Whether a callback has been dispatched to drain the queue */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean cancelled;
+
+    private Subscription(AsyncEventBus<E> bus, Topic<E> topic, VoidCallback<? super E> handler) {
+      this.bus = bus;
+      this.topic = topic;
+      this.handler = handler;
+    }
+
+    /**
+     * Stops delivering events to the handler, including those already
+     * queued for it. Publications waiting on those events count them as
+     * handled.
+     *
+     * @return true if this call unsubscribed it, false if it already was
+     */
+    public boolean unsubscribe() {
+      Subscription<E>[] current;
+      Subscription<E>[] updated;
+      do {
+        current = topic.subscribers;
+        int index = Arrays.asList(current).indexOf(this);
+        if (index < 0) {
+          return false;
+        }
+        updated = Arrays.copyOf(current, current.length - 1);
+        System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+      } while (!Topic.SUBSCRIBERS.compareAndSet(topic, current, updated));
+      cancelled = true;
+      return true;
+    }
+
+    private void queue(Delivery<E> delivery) {
+      queue.add(delivery);
+      schedule();
+    }
+
+    private void schedule() {
+      if (!scheduled.compareAndSet(false, true)) {
+        return;
+      }
+      // An observer is aborted on the spot if the Cue refuses it, so a refusal can't go unhandled
+      PromiseImpl.observe(bus.cue.when(null), value -> {
+        drain();
+      }, this::refused);
+    }
+
+    private void refused(Exception reason) {
+      bus.log.log(Level.WARNING, "Subscriber's callback was refused, dropping its queued events", reason);
+      Delivery<E> delivery;
+      while ((delivery = queue.poll()) != null) {
+        handled(delivery, reason);
+      }
+      scheduled.set(false);
+      if (!queue.isEmpty()) {
+        schedule();
+      }
+    }
+
+    private void drain() {
+      bus.drains.incrementAndGet();
+      try {
+        for (int i = 0; i < BATCH; i++) {
+          Delivery<E> delivery = queue.poll();
+          if (delivery == null) {
+            break;
+          } else if (cancelled) {
+            handled(delivery, null);
+            continue;
+          }
+          try {
+            handler.call(delivery.event);
+            handled(delivery, null);
+          } catch (Exception e) {
+            handled(delivery, e);
+          }
+        }
+      } finally {
+        // Even if a handler threw an Error, so the events behind it are still delivered
+        scheduled.set(false);
+        if (!queue.isEmpty()) {
+          schedule();
+        }
+      }
+    }
+
+    private void handled(Delivery<E> delivery, Exception reason) {
+      if (delivery.publication != null) {
+        delivery.publication.handled(reason);
+      } else if (reason != null) {
+        bus.log.log(Level.WARNING, "Event handler threw an exception", reason);
+      }
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.util.Optional;
+
+
+/**
+ * A sequence of values which become available over time, each delivered
+ * through a Promise.
+ * <p>
+ * Where a <code>Promise&lt;List&lt;T&gt;&gt;</code> can only be resolved once
+ * every value has been produced and held in memory, a stream lets consumers
+ * start on the first values while later ones are still being produced. Values
+ * are only pulled from the source as the consumer asks for them with
+ * {@link #next()}, so a slow consumer naturally holds back a fast producer
+ * and memory stays bounded by the number of outstanding requests.
+ * </p>
+ * <pre>
+ * cue.stream(userIds)
+ * .map(id -&gt; lookupUser(id))
+ * .filter(user -&gt; user.isActive())
+ * .reduce(0, (count, user) -&gt; count + 1)
+ * .done();
+ * </pre>
+ * <p>
+ * A stream ends either by resolving <code>next</code> with an empty Optional,
+ * or by rejecting it. Once a stream has ended, every further invocation of
+ * <code>next</code> will be resolved the same way. Streams do not carry null
+ * values; a source or callback which produces null will end the stream with
+ * a {@link NullPointerException}.
+ * </p>
+ * <p>
+ * The operators return new streams which pull from this one, and like the
+ * callbacks registered on a Promise they run in the Cue thread pool. A stream
+ * is meant to be consumed by a single chain of operators; two consumers
+ * pulling from the same stream will each receive a share of its values.
+ * </p>
+ *
+ * @param <T> the type of values in the stream
+ */
+public interface AsyncStream<T> {
+  /**
+   * Requests the next value of the stream.
+   * <p>
+   * The returned Promise is fulfilled with the value when it is available, or
+   * with an empty Optional if the stream has no more values. It is rejected if
+   * the stream failed. If <code>next</code> is invoked again before the
+   * previous Promise is resolved, the values are handed out in the order they
+   * were requested.
+   * </p>
+   *
+   * @return a Promise of the next value or an empty Optional at the end
+   */
+  Promise<Optional<T>> next();
+
+  /**
+   * Produces a stream of the callback's return value for each value of this
+   * stream.
+   * <p>
+   * If the callback throws an Exception, the returned stream ends with that
+   * Exception as the rejection reason.
+   * </p>
+   *
+   * @param callback non-null
+   * @param <O> the type of the value returned by the callback
+   * @return a new stream of mapped values
+   */
+  <O> AsyncStream<O> map(Callback<T, O> callback);
+
+  /**
+   * Produces a stream of only the values for which the predicate returns true.
+   * <p>
+   * If the predicate throws an Exception, the returned stream ends with that
+   * Exception as the rejection reason.
+   * </p>
+   *
+   * @param predicate non-null
+   * @return a new stream of matching values
+   */
+  AsyncStream<T> filter(Callback<T, Boolean> predicate);
+
+  /**
+   * Produces a stream of every value of the streams the callback returns for
+   * each value of this stream, pulling from up to <code>concurrency</code> of
+   * those streams at the same time.
+   * <p>
+   * Values are handed out as soon as any of the inner streams produce them, so
+   * the values of different inner streams may be interleaved. If this stream,
+   * any inner stream or the callback fails, the returned stream ends with that
+   * rejection reason.
+   * </p>
+   *
+   * @param callback non-null
+   * @param concurrency the maximum number of inner streams open at once, at
+   *                    least 1
+   * @param <O> the type of values in the inner streams
+   * @return a new stream of the inner streams' values
+   * @throws IllegalArgumentException if concurrency is less than 1
+   */
+  <O> AsyncStream<O> flatMapConcurrent(Callback<T, AsyncStream<O>> callback, int concurrency);
+
+  /**
+   * Produces a stream which requests up to <code>size</code> values from this
+   * stream ahead of its consumer.
+   * <p>
+   * Values are still delivered in order. Buffering lets a slow producer work
+   * while the consumer is busy with earlier values, without allowing it to get
+   * more than <code>size</code> values ahead.
+   * </p>
+   *
+   * @param size the number of values to request ahead, at least 1
+   * @return a new buffered stream
+   * @throws IllegalArgumentException if size is less than 1
+   */
+  AsyncStream<T> buffer(int size);
+
+  /**
+   * Folds every value of this stream into a single result, one value at a
+   * time in stream order.
+   * <p>
+   * The returned Promise is fulfilled with the final result when the stream
+   * ends, or rejected if the stream or the accumulator fails.
+   * </p>
+   *
+   * @param identity initial result, returned as is for an empty stream
+   * @param accumulator non-null
+   * @param <A> result type
+   * @return a Promise of the final result
+   */
+  <A> Promise<A> reduce(A identity, Accumulator<A, T> accumulator);
+
+  /**
+   * Invokes the callback for every value of this stream, one value at a time
+   * in stream order.
+   * <p>
+   * The returned Promise is fulfilled when the stream ends, or rejected if the
+   * stream or the callback fails.
+   * </p>
+   *
+   * @param callback non-null
+   * @return a Promise resolved when every value has been handled
+   */
+  Promise<Void> forEach(VoidCallback<T> callback);
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.ThreadSafe;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * A pool of direct ByteBuffers in power-of-two size classes, lent out as
+ * reference-counted {@link PooledBuffer}s.
+ * <p>
+ * Each size class keeps a lock-free list of free buffers, up to a limit per
+ * class. Acquiring takes the smallest class which fits, and only allocates
+ * if that class has none free. Requests larger than the largest class are
+ * allocated outside the pool and left to the garbage collector once
+ * released.
+ * </p>
+ * <p>
+ * With leak detection on, every buffer lent out is watched by a phantom
+ * reference holding the stack trace of where it was acquired. A PooledBuffer
+ * which becomes unreachable without being released is logged as a warning
+ * with that trace, the next time a buffer is acquired. Capturing the trace
+ * makes acquiring much slower, so leave detection off outside of tests and
+ * debugging.
+ * </p>
+ */
+@ThreadSafe
+public final class BufferPool {
+  /** The capacity of the smallest size class, as a power of two */
+  static final int MIN_SHIFT = 8;
+  /** The capacity of the largest size class, as a power of two */
+  static final int MAX_SHIFT = 22;
+
+  private final int maxFreePerClass;
+  private final boolean detectLeaks;
+  private final ConcurrentLinkedQueue<ByteBuffer>[] free;
+  private final AtomicIntegerArray freeCounts;
+  private final AtomicLong leaks = new AtomicLong();
+  private final ReferenceQueue<PooledBuffer> unreachable = new ReferenceQueue<>();
+  /** Keeps the Trackers of buffers lent out reachable until they are released */
+  private final Set<Tracker> tracked = ConcurrentHashMap.newKeySet();
+  private final Logger log = Logger.getLogger(BufferPool.class.getName());
+
+  /**
+   * Watches a lent out buffer for becoming unreachable without being released
+   */
+  static final class Tracker extends PhantomReference<PooledBuffer> {
+    private final Exception acquired = new Exception("Buffer acquired here");
+
+    private Tracker(PooledBuffer referent, ReferenceQueue<PooledBuffer> queue) {
+      super(referent, queue);
+    }
+  }
+
+  /**
+   * @param maxFreePerClass the most free buffers kept in each size class, not negative
+   * @param detectLeaks true to log buffers which are never released
+   */
+  @SuppressWarnings("unchecked")
+  public BufferPool(int maxFreePerClass, boolean detectLeaks) {
+    if (maxFreePerClass < 0) {
+      throw new IllegalArgumentException("maxFreePerClass must not be negative: " + maxFreePerClass);
+    }
+    this.maxFreePerClass = maxFreePerClass;
+    this.detectLeaks = detectLeaks;
+    int classes = MAX_SHIFT - MIN_SHIFT + 1;
+    this.free = (ConcurrentLinkedQueue<ByteBuffer>[]) new ConcurrentLinkedQueue<?>[classes];
+    for (int i = 0; i < classes; i++) {
+      free[i] = new ConcurrentLinkedQueue<>();
+    }
+    this.freeCounts = new AtomicIntegerArray(classes);
+  }
+
+  /**
+   * Lends out a direct buffer with room for at least the given capacity.
+   *
+   * @param capacity the number of bytes needed, not negative
+   * @return new PooledBuffer whose ByteBuffer is positioned at 0 and limited
+   *   to the capacity
+   */
+  public PooledBuffer acquire(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+    }
+
+    int sizeClass = sizeClass(capacity);
+    ByteBuffer buffer;
+    if (sizeClass >= 0) {
+      buffer = free[sizeClass].poll();
+      if (buffer != null) {
+        freeCounts.decrementAndGet(sizeClass);
+      } else {
+        buffer = ByteBuffer.allocateDirect(1 << (sizeClass + MIN_SHIFT));
+      }
+    } else {
+      buffer = ByteBuffer.allocateDirect(capacity);
+    }
+    buffer.clear().limit(capacity);
+    return new PooledBuffer(this, buffer);
+  }
+
+  /**
+   * @return the number of buffers found to have become unreachable without
+   *   being released, which is always 0 without leak detection
+   */
+  public long leaks() {
+    return leaks.get();
+  }
+
+  /**
+   * @return the number of free buffers held by the pool
+   */
+  public int free() {
+    int total = 0;
+    for (int i = 0; i < freeCounts.length(); i++) {
+      total += freeCounts.get(i);
+    }
+    return total;
+  }
+
+  /**
+   * Called by each new PooledBuffer, to watch it for leaks.
+   *
+   * @return the Tracker watching the buffer, or null without leak detection
+   */
+  Tracker track(PooledBuffer pooled) {
+    if (!detectLeaks) {
+      return null;
+    }
+    reportLeaks();
+    Tracker tracker = new Tracker(pooled, unreachable);
+    tracked.add(tracker);
+    return tracker;
+  }
+
+  /**
+   * Called by a PooledBuffer once its last reference is released.
+   */
+  void recycle(ByteBuffer buffer, Tracker tracker) {
+    if (tracker != null) {
+      tracked.remove(tracker);
+      tracker.clear();
+    }
+
+    int sizeClass = sizeClass(buffer.capacity());
+    if (sizeClass < 0) {
+      return;
+    }
+    if (freeCounts.incrementAndGet(sizeClass) <= maxFreePerClass) {
+      free[sizeClass].add(buffer);
+    } else {
+      freeCounts.decrementAndGet(sizeClass);
+    }
+  }
+
+  /**
+   * @return the index of the smallest size class which fits the capacity,
+   *   or -1 if it is larger than the largest class
+   */
+  private static int sizeClass(int capacity) {
+    if (capacity > 1 << MAX_SHIFT) {
+      return -1;
+    }
+    int shift = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1);
+    return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+  }
+
+  private void reportLeaks() {
+    for (Tracker tracker; (tracker = (Tracker) unreachable.poll()) != null; ) {
+      if (tracked.remove(tracker)) {
+        leaks.incrementAndGet();
+        log.log(Level.WARNING, "PooledBuffer was never released", tracker.acquired);
+      }
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.util.ArrayDeque;
+import java.util.Optional;
+
+
+/**
+ * Keeps a fixed number of requests outstanding on the source. Because the
+ * source answers requests in the order they were made, handing out the oldest
+ * request first keeps the values in order.
+ *
+ * @param <T> the type of values in the stream
+ */
+@ThreadSafe
+final class BufferedAsyncStream<T> extends AbstractAsyncStream<T> {
+  private final AsyncStream<T> source;
+  private final int size;
+
+  @GuardedBy("this")
+  private final ArrayDeque<Promise<Optional<T>>> requested = new ArrayDeque<>();
+
+  BufferedAsyncStream(Cue cue, AsyncStream<T> source, int size) {
+    super(cue);
+    this.source = source;
+    this.size = size;
+  }
+
+  @Override
+  public synchronized Promise<Optional<T>> next() {
+    Promise<Optional<T>> head = requested.isEmpty() ? source.next() : requested.poll();
+    while (requested.size() < size) {
+      requested.add(source.next());
+    }
+    return head;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+/**
+ * A Cue with a thread pool of its own, so one workload can't use up the
+ * threads of another. Created with {@link Bulkheads#create(String, int, int)}.
+ * <p>
+ * The pool has a fixed number of threads and a bounded queue. When both are
+ * full, callbacks and Cue's own tasks which can't be queued are not run, and
+ * the Promises they would have resolved are rejected with a
+ * {@link java.util.concurrent.RejectedExecutionException} instead.
+ * </p>
+ */
+public interface Bulkhead extends AutoCloseable {
+  /**
+   * @return the name the Bulkhead was created with
+   */
+  String name();
+
+  /**
+   * Returns the Cue whose callbacks run on this Bulkhead's threads.
+   * <p>
+   * Callbacks registered on Promises created by this Cue, and on every Promise
+   * derived from them, run here. Callbacks registered on Promises from other
+   * Cues run on those Cues' threads.
+   * </p>
+   *
+   * @return non-null Cue
+   */
+  Cue cue();
+
+  /**
+   * @return the number of threads the Bulkhead may run at once
+   */
+  int threads();
+
+  /**
+   * @return the number of tasks which may wait for a thread
+   */
+  int queueLimit();
+
+  /**
+   * @return the approximate number of threads running tasks
+   */
+  int activeCount();
+
+  /**
+   * @return the number of tasks waiting for a thread
+   */
+  int queuedCount();
+
+  /**
+   * @return the number of tasks refused because the queue was full
+   */
+  long rejectedCount();
+
+  /**
+   * Shuts down the Bulkhead's threads once they finish the tasks already
+   * queued. Promises waiting on callbacks which have not been queued are
+   * rejected when they become ready.
+   * <p>
+   * The Bulkhead is also removed from the {@link Bulkheads} which created
+   * it, so its name can be used for a new one.
+   * </p>
+   */
+  @Override
+  void close();
+}
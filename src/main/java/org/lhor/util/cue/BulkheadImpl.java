@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.ThreadSafe;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+
+/**
+ * Runs its Cue on a fixed-size ThreadPoolExecutor with a bounded queue. Idle
+ * threads are let go after a while, so an idle Bulkhead holds no threads.
+ */
+@ThreadSafe
+final class BulkheadImpl implements Bulkhead {
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private final String name;
+  private final int queueLimit;
+  private final ThreadPoolExecutor executor;
+  private final Cue cue;
+  private final AtomicLong rejected = new AtomicLong();
+  private final Consumer<Bulkhead> onClose;
+
+  /**
+   * @param onClose non-null, given the Bulkhead whenever it is closed
+   */
+  BulkheadImpl(String name, int threads, int queueLimit, Consumer<Bulkhead> onClose) {
+    if (name == null) {
+      throw new NullPointerException("name");
+    } else if (onClose == null) {
+      throw new NullPointerException("onClose");
+    } else if (threads < 1) {
+      throw new IllegalArgumentException("threads must be at least 1: " + threads);
+    } else if (queueLimit < 0) {
+      throw new IllegalArgumentException("queueLimit must not be negative: " + queueLimit);
+    }
+    this.name = name;
+    this.queueLimit = queueLimit;
+    this.onClose = onClose;
+
+    BlockingQueue<Runnable> queue = queueLimit == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueLimit);
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue,
+        runnable -> {
+          Thread thread = new Thread(runnable, "cue-bulkhead-" + name + "-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        },
+        (runnable, pool) -> {
+          rejected.incrementAndGet();
+          throw new RejectedExecutionException(pool.isShutdown()
+              ? "Bulkhead " + name + " has been closed"
+              : "Bulkhead " + name + " is full");
+        });
+    executor.allowCoreThreadTimeOut(true);
+    this.cue = new CueFactory(executor).get();
+  }
+
+  @Override
+  public String name() {
+    return name;
+  }
+
+  @Override
+  public Cue cue() {
+    return cue;
+  }
+
+  @Override
+  public int threads() {
+    return executor.getMaximumPoolSize();
+  }
+
+  @Override
+  public int queueLimit() {
+    return queueLimit;
+  }
+
+  @Override
+  public int activeCount() {
+    return executor.getActiveCount();
+  }
+
+  @Override
+  public int queuedCount() {
+    return executor.getQueue().size();
+  }
+
+  @Override
+  public long rejectedCount() {
+    return rejected.get();
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+    onClose.accept(this);
+  }
+}
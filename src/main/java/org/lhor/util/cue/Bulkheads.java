@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Creates and keeps track of the {@link Bulkhead}s of an application, giving a
+ * single place to find each one and read its metrics.
+ * <p>
+ * An instance is provided by {@link CueFactory#bulkheads()}, or injected when
+ * using {@link CueModule}.
+ * </p>
+ */
+@ThreadSafe
+public final class Bulkheads implements AutoCloseable {
+  private final ConcurrentHashMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+  Bulkheads() {
+  }
+
+  /**
+   * Creates a Bulkhead with its own thread pool.
+   *
+   * @param name non-null name, unique among this instance's Bulkheads which
+   *             are still open
+   * @param threads the most threads the Bulkhead may run at once, at least 1
+   * @param queueLimit the most tasks which may wait for a thread, not negative
+   * @return new Bulkhead
+   * @throws IllegalArgumentException if a Bulkhead with the name already
+   *   exists, or threads or queueLimit are out of range
+   */
+  public Bulkhead create(String name, int threads, int queueLimit) {
+    if (name == null) {
+      throw new NullPointerException("name");
+    } else if (bulkheads.containsKey(name)) {
+      throw new IllegalArgumentException("A Bulkhead named " + name + " already exists");
+    }
+    // Only removes this Bulkhead, so closing the loser of a race for the name leaves the winner
+    Bulkhead bulkhead = new BulkheadImpl(name, threads, queueLimit, closed -> bulkheads.remove(name, closed));
+    if (bulkheads.putIfAbsent(name, bulkhead) != null) {
+      bulkhead.close();
+      throw new IllegalArgumentException("A Bulkhead named " + name + " already exists");
+    }
+    return bulkhead;
+  }
+
+  /**
+   * @param name non-null name of the Bulkhead
+   * @return the open Bulkhead with the name, or null if there is none
+   */
+  public Bulkhead get(String name) {
+    if (name == null) {
+      throw new NullPointerException("name");
+    }
+    return bulkheads.get(name);
+  }
+
+  /**
+   * @return non-null, unmodifiable snapshot of every open Bulkhead
+   */
+  public Collection<Bulkhead> all() {
+    return Collections.unmodifiableList(new ArrayList<>(bulkheads.values()));
+  }
+
+  /**
+   * Closes every Bulkhead, which removes each of them.
+   */
+  @Override
+  public void close() {
+    bulkheads.values().forEach(Bulkhead::close);
+  }
+}
@@ -8,6 +8,9 @@
 package org.lhor.util.cue;
 
 
+import java.util.Collection;
+
+
 /**
  * This registry is how we can use a reasonably sized (possibly singular) thread pool
  * but still accept many callbacks waiting for promises to resolve.
@@ -39,5 +42,22 @@ package org.lhor.util.cue;
  */
 interface CallbackRegistry {
   void register(ResolvedState<?> state, Runnable runnable);
+
+  /**
+   * Registers a runnable which is one stage of a chain, and which finishes by
+   * resolving the derived state. If exactly one runnable is waiting on the
+   * derived state when that happens, the implementation may run it on the
+   * same thread as soon as this one returns, rather than dispatching it
+   * separately.
+   */
+  void registerStage(ResolvedState<?> state, ResolvedState<?> derived, Runnable runnable);
+
   void stateResolved(ResolvedState<?> state);
+
+  /**
+   * Equivalent to invoking {@link #stateResolved(ResolvedState)} for every state,
+   * but allows the implementation to collect all the callbacks made ready and
+   * dispatch them together.
+   */
+  void statesResolved(Collection<? extends ResolvedState<?>> states);
 }
@@ -11,58 +11,175 @@ package org.lhor.util.cue;
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.WeakHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.inject.Inject;
 
 
+/**
+ * Stages of a chain which are linear, where the only thing waiting on a
+ * stage's derived Promise is the next stage, are fused: the next stage runs on
+ * the same thread straight after the one which resolved it, without being
+ * dispatched. Each thread keeps a trampoline so fused stages run one after
+ * another rather than nesting on the stack. If anything else has registered
+ * on the derived Promise by the time it is resolved, every waiter is
+ * dispatched separately as usual, and anything registered afterwards is
+ * dispatched on its own.
+ * <p>
+ * If the Dispatcher refuses a runnable, for example because a bounded thread
+ * pool's queue is full, the runnable is aborted instead of the exception
+ * being thrown at whoever resolved the Promise. Aborting a stage rejects the
+ * Promise it would have resolved with the RejectedExecutionException, and
+ * aborting an observer hands it the exception as a rejection. A runnable
+ * with nothing to reject, such as an <code>always</code> callback, is logged
+ * and dropped; it is never run on the thread which found it refused, since
+ * that may belong to another pool entirely.
+ * </p>
+ */
 @ThreadSafe
 final class CallbackRegistryImpl implements CallbackRegistry {
-  /** Thread pool to run the ready runnables in */
-  private final ExecutorService executorService;
+  /** The most stages run back to back on one thread before the next is dispatched instead */
+  static final int MAX_FUSED = 64;
+
+  /** Runs the runnables once they are ready */
+  private final Dispatcher dispatcher;
+  private final boolean fuseStages;
 
   /** Maps states to a list of runnables waiting to execute whenever the state is resolved */
   @GuardedBy("lock")
-  private final WeakHashMap<ResolvedState<?>, ArrayList<Runnable>> invokers = new WeakHashMap<>();
+  private final WeakHashMap<ResolvedState<?>, ArrayList<Invoker>> invokers = new WeakHashMap<>();
   /** A list of states that are known to have been resolved already */
   @GuardedBy("lock")
   private final WeakHashMap<ResolvedState<?>, Object> resolved = new WeakHashMap<>();
-  /** A queue of runnables whose states are resolved and could be run immediately */
-  private final ConcurrentLinkedQueue<Runnable> ready = new ConcurrentLinkedQueue<>();
 
   /** Used to synchronize most state. Also used as a dummy object for the resolved map */
   private final Object lock = new Object();
 
+  private static final AtomicIntegerFieldUpdater<Invoker> CLAIMED =
+      AtomicIntegerFieldUpdater.newUpdater(Invoker.class, "claimed");
+  private final Logger log = Logger.getLogger(CallbackRegistryImpl.class.getName());
+
+  /** The stages this thread is running, for fusing the stage that follows */
+  private final ThreadLocal<Trampoline> trampoline = ThreadLocal.withInitial(Trampoline::new);
+
+  /** A registered runnable, along with the state it resolves if it is a stage of a chain */
+  private final class Invoker implements Runnable, Scheduled, Abortable {
+    private final Runnable runnable;
+    private final ResolvedState<?> derived;
+    /**
+     * Set by whichever of running or aborting happens first, so a runnable
+     * the Dispatcher accepted part of a refused batch isn't also aborted
+     */
+    volatile int claimed;
+
+    private Invoker(Runnable runnable, ResolvedState<?> derived) {
+      this.runnable = runnable;
+      this.derived = derived;
+    }
+
+    @Override
+    public Schedule schedule() {
+      return Schedule.of(runnable);
+    }
+
+    @Override
+    public void run() {
+      if (!CLAIMED.compareAndSet(this, 0, 1)) {
+        return;
+      } else if (derived == null) {
+        runnable.run();
+      } else {
+        runStages(this);
+      }
+    }
+
+    @Override
+    public void abort(RejectedExecutionException reason) {
+      if (!CLAIMED.compareAndSet(this, 0, 1)) {
+        return;
+      } else if (!(runnable instanceof ScheduledTask) || !((ScheduledTask) runnable).abort(reason)) {
+        log.log(Level.WARNING, "Callback was refused by the Dispatcher and dropped", reason);
+      }
+    }
+  }
+
+  private static final class Trampoline {
+    private boolean running;
+    /** The state the current stage will resolve */
+    private ResolvedState<?> derived;
+    /** The stage to run once the current one returns */
+    private Invoker next;
+    private int fused;
+  }
+
+  public CallbackRegistryImpl(ExecutorService executorService) {
+    this(new ExecutorDispatcher(executorService));
+  }
+
+  /**
+   * Stages are fused unless the Dispatcher {@link Dispatcher#ordersCallbacks()
+   * orders callbacks}, where a chain running its stages back to back would
+   * jump ahead of the order it decides.
+   */
   @Inject
-  public CallbackRegistryImpl(@CueExecutors ExecutorService executorService) {
-    if (executorService == null) {
-      throw new NullPointerException("executorService");
+  public CallbackRegistryImpl(Dispatcher dispatcher) {
+    this(dispatcher, dispatcher != null && !dispatcher.ordersCallbacks());
+  }
+
+  /**
+   * @param fuseStages false to dispatch every stage, for a Dispatcher which
+   *                   must see callbacks in the order they became ready
+   */
+  CallbackRegistryImpl(Dispatcher dispatcher, boolean fuseStages) {
+    if (dispatcher == null) {
+      throw new NullPointerException("dispatcher");
     }
-    this.executorService = executorService;
+    this.dispatcher = dispatcher;
+    this.fuseStages = fuseStages;
   }
 
   @Override
   public void register(ResolvedState<?> state, Runnable invoker) {
-    if (state == null) {
-      throw new NullPointerException("state");
+    if (invoker == null) {
+      throw new NullPointerException("invoker");
+    }
+    register(state, new Invoker(invoker, null));
+  }
+
+  @Override
+  public void registerStage(ResolvedState<?> state, ResolvedState<?> derived, Runnable invoker) {
+    if (derived == null) {
+      throw new NullPointerException("derived");
     } else if (invoker == null) {
       throw new NullPointerException("invoker");
     }
+    register(state, new Invoker(invoker, derived));
+  }
+
+  private void register(ResolvedState<?> state, Invoker invoker) {
+    if (state == null) {
+      throw new NullPointerException("state");
+    }
 
     synchronized (lock) {
-      if (resolved.containsKey(state)) {
-        ready.add(invoker);
-      } else {
-        ArrayList<Runnable> list = invokers.get(state);
+      if (!resolved.containsKey(state)) {
+        ArrayList<Invoker> list = invokers.get(state);
         if (list == null) {
           list = new ArrayList<>();
           invokers.put(state, list);
         }
         list.add(invoker);
+        return;
       }
     }
-    submitWorkers();
+    // Dispatched outside the lock so a slow dispatcher doesn't hold up other threads
+    dispatch(invoker);
   }
 
   @Override
@@ -71,19 +188,103 @@ final class CallbackRegistryImpl implements CallbackRegistry {
       throw new NullPointerException("state");
     }
 
+    ArrayList<Invoker> waiting;
     synchronized (lock) {
-      ArrayList<Runnable> waiting = invokers.remove(state);
-      if (waiting != null) {
-        waiting.forEach(ready::add);
-      }
+      waiting = invokers.remove(state);
       resolved.put(state, lock);
     }
-    submitWorkers();
+    if (waiting == null) {
+      return;
+    } else if (waiting.size() == 1 && fuse(state, waiting.get(0))) {
+      return;
+    }
+    waiting.forEach(this::dispatch);
+  }
+
+  @Override
+  public void statesResolved(Collection<? extends ResolvedState<?>> states) {
+    if (states == null) {
+      throw new NullPointerException("states");
+    }
+
+    ArrayList<Invoker> batch = new ArrayList<>();
+    synchronized (lock) {
+      for (ResolvedState<?> state : states) {
+        if (state == null) {
+          throw new NullPointerException("state");
+        }
+        ArrayList<Invoker> waiting = invokers.remove(state);
+        if (waiting != null) {
+          batch.addAll(waiting);
+        }
+        resolved.put(state, lock);
+      }
+    }
+    if (!batch.isEmpty()) {
+      try {
+        dispatcher.dispatchAll(Collections.unmodifiableList(batch));
+      } catch (RejectedExecutionException e) {
+        batch.forEach(invoker -> invoker.abort(e));
+      }
+    }
   }
 
-  private void submitWorkers() {
-    for (Runnable run = ready.poll(); run != null; run = ready.poll()) {
-      executorService.submit(run);
+  private void dispatch(Invoker invoker) {
+    try {
+      dispatcher.dispatch(invoker);
+    } catch (RejectedExecutionException e) {
+      invoker.abort(e);
+    }
+  }
+
+  /**
+   * Hands the only waiter on a state to this thread's trampoline, if the state
+   * is the one being resolved by the stage this thread is running.
+   *
+   * @return true if the waiter will be run by the trampoline
+   */
+  private boolean fuse(ResolvedState<?> state, Invoker waiter) {
+    if (!fuseStages) {
+      return false;
+    }
+    Trampoline current = trampoline.get();
+    if (!current.running || current.derived != state || current.next != null || current.fused >= MAX_FUSED) {
+      return false;
+    }
+    current.next = waiter;
+    current.fused++;
+    return true;
+  }
+
+  private void runStages(Invoker first) {
+    Trampoline current = trampoline.get();
+    if (current.running) {
+      // A Dispatcher ran this inline from inside another stage, let that one's trampoline carry on
+      first.runnable.run();
+      return;
+    }
+
+    current.running = true;
+    current.fused = 0;
+    try {
+      for (Invoker stage = first; stage != null; ) {
+        current.derived = stage.derived;
+        current.next = null;
+        try {
+          stage.runnable.run();
+        } catch (Throwable e) {
+          if (current.next != null) {
+            // The stage already resolved its Promise, the next one still has to run
+            dispatch(current.next);
+          }
+          throw e;
+        }
+        stage = current.next;
+      }
+    } finally {
+      current.running = false;
+      current.derived = null;
+      current.next = null;
     }
   }
 }
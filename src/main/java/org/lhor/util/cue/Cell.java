@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+/**
+ * An input for {@link Computed} values: a Computed whose value is set
+ * directly rather than derived.
+ *
+ * @param <T> the type of the value
+ * @see Cue#cell(Object)
+ */
+public interface Cell<T> extends Computed<T> {
+  /**
+   * Sets the value, marking everything which depends on it stale unless the
+   * new value equals the old one.
+   *
+   * @param value the new value, which may be null
+   */
+  void set(T value);
+}
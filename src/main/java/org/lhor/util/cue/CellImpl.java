@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.util.Objects;
+
+
+/**
+ * @param <T> the type of the value
+ */
+@ThreadSafe
+final class CellImpl<T> extends AbstractComputed<T> implements Cell<T> {
+  private final Cue cue;
+
+  @GuardedBy("this")
+  private T value;
+  @GuardedBy("this")
+  private Promise<T> current;
+
+  CellImpl(Cue cue, T initial) {
+    if (cue == null) {
+      throw new NullPointerException("cue");
+    }
+    this.cue = cue;
+    this.value = initial;
+    this.current = cue.when(initial);
+  }
+
+  @Override
+  public synchronized Promise<T> get() {
+    return current;
+  }
+
+  /**
+   * Dependents are marked stale before the lock is released, so a recompute
+   * can't read the new value while something else depending on this still
+   * looks fresh. Locks are only ever taken from a value to its dependents,
+   * never back, so holding this one meanwhile can't deadlock.
+   */
+  @Override
+  public synchronized void set(T value) {
+    if (Objects.equals(this.value, value)) {
+      return;
+    }
+    this.value = value;
+    current = cue.when(value);
+    for (ComputedImpl<?> dependent : dependents()) {
+      dependent.invalidate();
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+/**
+ * A value derived from other values, which is recomputed asynchronously
+ * whenever one of them changes.
+ * <p>
+ * A Computed from {@link Cue#computed(java.util.List, Callback)} declares the
+ * Computeds and {@link Cell}s it depends on. When one of them changes, it
+ * and everything depending on it are marked stale straight away, and a
+ * recompute is dispatched through the Cue. Changes made before the
+ * recompute starts are merged into it, and changes made while it runs
+ * cause one more recompute once it finishes, so a burst of changes costs
+ * at most two. A recompute waits for every dependency to be up to date
+ * before running, so it never sees a mix of old and new values.
+ * </p>
+ * <pre>
+ * Cell&lt;Config&gt; config = cue.cell(loadConfig());
+ * Computed&lt;Index&gt; index = cue.computed(config, c -&gt; buildIndex(c));
+ * index.get().then(i -&gt; i.lookup(key));
+ * </pre>
+ * <p>
+ * A Computed is referenced by its dependencies, so it lives as long as they
+ * do.
+ * </p>
+ *
+ * @param <T> the type of the value
+ */
+public interface Computed<T> {
+  /**
+   * Returns the latest value.
+   * <p>
+   * If the value is stale, the returned Promise is resolved once it has been
+   * recomputed with every change made before this call. Otherwise it is
+   * already resolved with the current value. If the computation threw, the
+   * Promise is rejected with the Exception, until a change makes it compute
+   * again.
+   * </p>
+   *
+   * @return a Promise of the latest value
+   */
+  Promise<T> get();
+}
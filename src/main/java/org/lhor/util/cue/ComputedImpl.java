@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A Computed is either fresh, with its current Promise resolved, or stale,
+ * with a Deferred for the next value which {@link #get()} hands out. Going
+ * stale marks every dependent stale too, and dispatches a recompute unless
+ * one is already waiting to start. A recompute first waits for each
+ * dependency's {@link #get()}, which is only resolved once that dependency
+ * is fresh, then calls the callback with their values. If anything went
+ * stale while it ran, its result is thrown away and it runs again, and if
+ * that happened while it was still gathering values, the callback isn't
+ * called at all. Otherwise it resolves the Deferred and the Computed is
+ * fresh.
+ * <p>
+ * Dependents only need marking when a Computed goes from fresh to stale:
+ * while it is stale no dependent can finish a recompute, since each one is
+ * waiting on its Promise.
+ * </p>
+ *
+ * @param <T> the type of the value
+ */
+@ThreadSafe
+final class ComputedImpl<T> extends AbstractComputed<T> {
+  private final Cue cue;
+  private final List<AbstractComputed<?>> dependencies;
+  private final Callback<List<Object>, T> compute;
+  private final AtomicLong computations = new AtomicLong();
+
+  /** The latest value, or null before the first has been computed */
+  @GuardedBy("this")
+  private Promise<T> current;
+  /** Resolved with the next value while stale, otherwise null */
+  @GuardedBy("this")
+  private Deferred<T> next;
+  /** Whether a recompute has been dispatched and not yet started */
+  @GuardedBy("this")
+  private boolean scheduled;
+  @GuardedBy("this")
+  private boolean running;
+  /** Whether the running recompute was made stale, and must run again */
+  @GuardedBy("this")
+  private boolean again;
+
+  ComputedImpl(Cue cue, List<? extends Computed<?>> dependencies, Callback<List<Object>, T> compute) {
+    if (cue == null) {
+      throw new NullPointerException("cue");
+    } else if (dependencies == null) {
+      throw new NullPointerException("dependencies");
+    } else if (compute == null) {
+      throw new NullPointerException("compute");
+    }
+    List<AbstractComputed<?>> checked = new ArrayList<>(dependencies.size());
+    for (Computed<?> dependency : dependencies) {
+      if (dependency == null) {
+        throw new NullPointerException("dependency");
+      } else if (!(dependency instanceof AbstractComputed)) {
+        throw new IllegalArgumentException("Dependency was not produced by a Cue: " + dependency);
+      }
+      checked.add((AbstractComputed<?>) dependency);
+    }
+    this.cue = cue;
+    this.dependencies = Collections.unmodifiableList(checked);
+    this.compute = compute;
+
+    synchronized (this) {
+      next = cue.defer();
+      scheduled = true;
+    }
+    for (AbstractComputed<?> dependency : this.dependencies) {
+      dependency.addDependent(this);
+    }
+    recompute();
+  }
+
+  @Override
+  public synchronized Promise<T> get() {
+    return next != null ? next.promise() : current;
+  }
+
+  /**
+   * @return the number of times the callback has been called
+   */
+  long computations() {
+    return computations.get();
+  }
+
+  /**
+   * Marks this stale because a dependency changed.
+   */
+  void invalidate() {
+    boolean dispatch = false;
+    List<ComputedImpl<?>> stale = Collections.emptyList();
+    synchronized (this) {
+      if (next == null) {
+        next = cue.defer();
+        stale = dependents();
+      }
+      if (running) {
+        again = true;
+      } else if (!scheduled) {
+        scheduled = true;
+        dispatch = true;
+      }
+    }
+    for (ComputedImpl<?> dependent : stale) {
+      dependent.invalidate();
+    }
+    if (dispatch) {
+      recompute();
+    }
+  }
+
+  private void recompute() {
+    // An observer is aborted on the spot if the Cue refuses it, so the refusal still finishes the recompute
+    PromiseImpl.observe(cue.when(null), value -> {
+      gather();
+    }, reason -> {
+      start();
+      finish(null, reason);
+    });
+  }
+
+  private synchronized void start() {
+    scheduled = false;
+    running = true;
+  }
+
+  private void gather() {
+    start();
+    Object[] values = new Object[dependencies.size()];
+    if (values.length == 0) {
+      run(values);
+      return;
+    }
+
+    AtomicInteger remaining = new AtomicInteger(values.length);
+    AtomicBoolean failed = new AtomicBoolean();
+    for (int i = 0; i < values.length; i++) {
+      int index = i;
+      PromiseImpl.observe(dependencies.get(i).get(), value -> {
+        values[index] = value;
+        if (remaining.decrementAndGet() == 0) {
+          run(values);
+        }
+      }, reason -> {
+        if (failed.compareAndSet(false, true)) {
+          finish(null, reason);
+        }
+      });
+    }
+  }
+
+  private void run(Object[] values) {
+    boolean stale;
+    synchronized (this) {
+      stale = again;
+    }
+    if (stale) {
+      // Something changed while gathering, so the values may not agree
+      finish(null, null);
+      return;
+    }
+    computations.incrementAndGet();
+    T value;
+    try {
+      value = compute.call(Collections.unmodifiableList(Arrays.asList(values)));
+    } catch (Exception e) {
+      finish(null, e);
+      return;
+    }
+    finish(value, null);
+  }
+
+  private void finish(T value, Exception reason) {
+    Deferred<T> fresh;
+    synchronized (this) {
+      running = false;
+      if (again) {
+        again = false;
+        scheduled = true;
+        fresh = null;
+      } else {
+        fresh = next;
+        next = null;
+        current = fresh.promise();
+      }
+    }
+
+    if (fresh == null) {
+      recompute();
+    } else if (reason == null) {
+      fresh.resolve(value);
+    } else {
+      fresh.reject(reason);
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Optional;
+
+
+/**
+ * Keeps a window of up to <code>maxInFlight</code> inputs which have been
+ * pulled from the Iterator but whose results have not yet been handed to the
+ * consumer. A new input is only pulled once a result leaves the window, so
+ * neither the inputs nor the results held at any time can exceed the window,
+ * however long the Iterator is.
+ * <p>
+ * In order, the window is a queue of slots in input order and only the oldest
+ * slot can be handed out. Unordered, results are handed out as they arrive.
+ * All bookkeeping is done while holding the lock, but callbacks are invoked and
+ * Deferreds resolved only after it is released.
+ * </p>
+ *
+ * @param <T> input type
+ * @param <O> the type of values in the stream
+ */
+@ThreadSafe
+final class ConcurrentMappedAsyncStream<T, O> extends AbstractAsyncStream<O> {
+  private final Callback<T, Promise<O>> callback;
+  private final int maxInFlight;
+  private final boolean ordered;
+
+  @GuardedBy("this")
+  private final Iterator<? extends T> iterator;
+  /** Consumer requests which have not been answered */
+  @GuardedBy("this")
+  private final ArrayDeque<Deferred<Optional<O>>> waiting = new ArrayDeque<>();
+  /** Pulled inputs in input order, only used in order */
+  @GuardedBy("this")
+  private final ArrayDeque<Slot<O>> slots = new ArrayDeque<>();
+  /** Results in the order they arrived, only used unordered */
+  @GuardedBy("this")
+  private final ArrayDeque<O> arrived = new ArrayDeque<>();
+  /** The number of inputs whose results have not yet been handed out */
+  @GuardedBy("this")
+  private int inWindow;
+  @GuardedBy("this")
+  private boolean iteratorEnded;
+  @GuardedBy("this")
+  private Exception failure;
+
+  private static final class Slot<O> {
+    @GuardedBy("ConcurrentMappedAsyncStream.this")
+    private O value;
+  }
+
+  ConcurrentMappedAsyncStream(Cue cue, Iterator<? extends T> iterator, Callback<T, Promise<O>> callback,
+                              int maxInFlight, boolean ordered) {
+    super(cue);
+    this.iterator = iterator;
+    this.callback = callback;
+    this.maxInFlight = maxInFlight;
+    this.ordered = ordered;
+  }
+
+  @Override
+  public Promise<Optional<O>> next() {
+    Deferred<Optional<O>> deferred = cue.defer();
+    synchronized (this) {
+      waiting.add(deferred);
+    }
+    drain();
+    return deferred.promise();
+  }
+
+  private void drain() {
+    ArrayList<Runnable> actions = new ArrayList<>();
+    synchronized (this) {
+      for (O value = take(); value != null; value = take()) {
+        Deferred<Optional<O>> deferred = waiting.poll();
+        Optional<O> result = Optional.of(value);
+        inWindow--;
+        actions.add(() -> deferred.resolve(result));
+      }
+
+      while (failure == null && !iteratorEnded && inWindow < maxInFlight) {
+        T input;
+        try {
+          if (!iterator.hasNext()) {
+            iteratorEnded = true;
+            break;
+          }
+          input = iterator.next();
+        } catch (Exception e) {
+          failure = e;
+          break;
+        }
+        Slot<O> slot = new Slot<>();
+        if (ordered) {
+          slots.add(slot);
+        }
+        inWindow++;
+        actions.add(() -> start(input, slot));
+      }
+
+      if (failure != null) {
+        Exception reason = failure;
+        waiting.forEach(deferred -> actions.add(() -> deferred.reject(reason)));
+        waiting.clear();
+      } else if (iteratorEnded && inWindow == 0) {
+        waiting.forEach(deferred -> actions.add(() -> deferred.resolve(Optional.empty())));
+        waiting.clear();
+      }
+    }
+    actions.forEach(Runnable::run);
+  }
+
+  /**
+   * @return the next result which can be handed to a waiting request, or null
+   */
+  @GuardedBy("this")
+  private O take() {
+    if (waiting.isEmpty()) {
+      return null;
+    } else if (!ordered) {
+      return arrived.poll();
+    } else if (slots.isEmpty() || slots.peek().value == null) {
+      return null;
+    }
+    return slots.poll().value;
+  }
+
+  private void start(T input, Slot<O> slot) {
+    Promise<O> promise;
+    try {
+      promise = callback.call(input);
+      if (promise == null) {
+        throw new NullPointerException("callback returned a null Promise");
+      }
+    } catch (Exception e) {
+      fail(e);
+      return;
+    }
+
+    PromiseImpl.observe(promise, value -> {
+      if (value == null) {
+        fail(new NullPointerException("AsyncStream values must not be null"));
+        return;
+      }
+      synchronized (this) {
+        if (ordered) {
+          slot.value = value;
+        } else {
+          arrived.add(value);
+        }
+      }
+      drain();
+    }, this::fail);
+  }
+
+  private void fail(Exception reason) {
+    synchronized (this) {
+      if (failure == null) {
+        failure = reason == null ? RejectedException.wrap(null) : reason;
+      }
+    }
+    drain();
+  }
+}
@@ -8,6 +8,8 @@
 package org.lhor.util.cue;
 
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Future;
 
@@ -32,6 +34,14 @@ public interface Cue {
    */
   <T> Deferred<T> defer();
 
+  /**
+   * Produces a new, empty DeferredBatch for resolving many Deferreds in a single
+   * pass.
+   *
+   * @return new instance
+   */
+  DeferredBatch batch();
+
   /**
    * Produces a Promise which will only be resolved when all given Promises are
    * resolved.
@@ -50,6 +60,97 @@ public interface Cue {
    */
   <T> Promise<List<T>> all(List<Promise<T>> promises);
 
+  /**
+   * Produces a list of Promises resolved in the order the given Promises are
+   * resolved.
+   * <p>
+   * The first Promise in the returned list is resolved the same way as
+   * whichever of the given Promises is resolved first, the second the same as
+   * whichever is resolved second, and so on. Iterating over the list and
+   * waiting on each Promise in turn hands out every result as soon as it is
+   * available, regardless of its position in the given list:
+   * </p>
+   * <pre>
+   * for (Promise&lt;Shard&gt; shard : cue.inCompletionOrder(shards)) {
+   *   merge(shard.done());
+   * }
+   * </pre>
+   * <p>
+   * A rejection only rejects its own Promise in the returned list. Unlike
+   * {@link #all(List)}, no thread from the Cue thread pool is held while
+   * waiting.
+   * </p>
+   *
+   * @param promises non-null, possibly empty list of non-null promises in any
+   *                 state
+   * @param <T> fulfillment type of all promises
+   * @return new unmodifiable list of promises, the same size as the given list
+   */
+  <T> List<Promise<T>> inCompletionOrder(List<Promise<T>> promises);
+
+  /**
+   * Produces a Promise of all given Promises' values folded into a single
+   * result, folding each value as soon as it is available.
+   * <p>
+   * Rather than holding every value until the last Promise is resolved, values
+   * are folded into one of a small number of partial results as they arrive,
+   * allowing several threads to fold at the same time. Once every Promise has
+   * been fulfilled, the partial results are folded together with the combiner.
+   * Values are therefore folded in no particular order, and the accumulator
+   * and combiner must be associative with <code>identity</code> as the
+   * identity of the combiner, just as with
+   * {@link java.util.stream.Stream#reduce(Object, java.util.function.BiFunction,
+   * java.util.function.BinaryOperator)}:
+   * </p>
+   * <pre>
+   * Promise&lt;Long&gt; total = cue.reduce(counts, 0L, (sum, count) -&gt; sum + count, Long::sum);
+   * </pre>
+   * <p>
+   * The returned Promise is rejected with the reason of the first rejection
+   * or the first Exception thrown by the accumulator or combiner. It is
+   * fulfilled with the identity if the collection is empty. No thread from the
+   * Cue thread pool is held while waiting.
+   * </p>
+   *
+   * @param promises non-null, possibly empty collection of non-null promises
+   *                 in any state
+   * @param identity initial value of every partial result
+   * @param accumulator non-null, folds a value into a partial result
+   * @param combiner non-null, folds two partial results together
+   * @param <T> fulfillment type of all promises
+   * @param <A> result type
+   * @return new promise of the folded result
+   */
+  <T, A> Promise<A> reduce(Collection<Promise<T>> promises, A identity,
+                           Accumulator<A, T> accumulator, Accumulator<A, A> combiner);
+
+  /**
+   * Produces a Promise of a list of the callback's return value for every
+   * element of the given list, invoking the callback across the Cue thread
+   * pool.
+   * <p>
+   * This is intended for CPU-bound work over large collections. Rather than
+   * creating a Deferred and a task for every element, the list is split into
+   * chunks in the manner of a {@link java.util.concurrent.RecursiveTask}, with
+   * a few chunks for every thread in the pool, and the results are written
+   * directly into a list of the same size. The returned list has the results
+   * in the same order as the elements they were produced from.
+   * </p>
+   * <p>
+   * If the callback throws an Exception, the returned Promise is rejected with
+   * that Exception and elements which have not yet been started are skipped.
+   * Likewise, if the pool refuses a chunk, the Promise is rejected with the
+   * RejectedExecutionException rather than the chunk being run elsewhere.
+   * </p>
+   *
+   * @param values non-null, possibly empty list of values
+   * @param callback non-null
+   * @param <T> type of the values
+   * @param <O> the type of the value returned by the callback
+   * @return new promise of an unmodifiable list of the callback's results
+   */
+  <T, O> Promise<List<O>> parallelMap(List<T> values, Callback<T, O> callback);
+
   /**
    * Produces a Promise which will only be resolved when all given Futures are
    * resolved.
@@ -67,6 +168,181 @@ public interface Cue {
    */
   <T> Promise<List<T>> allFutures(List<Future<T>> futures);
 
+  /**
+   * Produces an AsyncStream of the values of the given Iterator.
+   * <p>
+   * Values are taken from the Iterator only as the stream's consumer requests
+   * them. The Iterator is used from whichever thread requests the next value,
+   * but never from two threads at once. If the Iterator throws an Exception,
+   * the stream ends with that Exception as the rejection reason.
+   * </p>
+   *
+   * @param iterator non-null iterator of non-null values
+   * @param <T> the type of values in the stream
+   * @return new stream of the iterator's values
+   */
+  <T> AsyncStream<T> stream(Iterator<? extends T> iterator);
+
+  /**
+   * Produces an AsyncStream of the results of the Promises the callback returns
+   * for each value of the given Iterator, with at most
+   * <code>maxInFlight</code> of those Promises outstanding at once.
+   * <p>
+   * This is intended for fanning out over inputs too numerous to create every
+   * Promise up front, such as an I/O request for each of millions of keys. The
+   * next value is only taken from the Iterator once an earlier result has been
+   * handed to the stream's consumer, so no more than <code>maxInFlight</code>
+   * inputs and results are ever held at once, however long the Iterator is.
+   * Results are delivered in the same order as the values they were produced
+   * from; see {@link #mapConcurrentUnordered(Iterator, Callback, int)} to
+   * deliver them as soon as they are available.
+   * </p>
+   * <p>
+   * The Iterator is never used from two threads at once. If the Iterator or
+   * the callback throws an Exception, or one of the Promises is rejected, the
+   * stream ends with that rejection reason.
+   * </p>
+   *
+   * @param iterator non-null iterator of values
+   * @param callback non-null, produces a Promise of a non-null result
+   * @param maxInFlight the maximum number of values held at once, at least 1
+   * @param <T> the type of the values
+   * @param <O> the type of the results
+   * @return new stream of results
+   * @throws IllegalArgumentException if maxInFlight is less than 1
+   */
+  <T, O> AsyncStream<O> mapConcurrent(Iterator<? extends T> iterator, Callback<T, Promise<O>> callback,
+                                      int maxInFlight);
+
+  /**
+   * Like {@link #mapConcurrent(Iterator, Callback, int)}, but delivering results
+   * in the order they become available rather than the order of the values
+   * they were produced from.
+   * <p>
+   * A slow result doesn't hold back the results behind it, so more of the
+   * window is kept busy.
+   * </p>
+   *
+   * @param iterator non-null iterator of values
+   * @param callback non-null, produces a Promise of a non-null result
+   * @param maxInFlight the maximum number of values held at once, at least 1
+   * @param <T> the type of the values
+   * @param <O> the type of the results
+   * @return new stream of results
+   * @throws IllegalArgumentException if maxInFlight is less than 1
+   */
+  <T, O> AsyncStream<O> mapConcurrentUnordered(Iterator<? extends T> iterator, Callback<T, Promise<O>> callback,
+                                               int maxInFlight);
+
+  /**
+   * Produces a new Emitter which a producer can push values through while
+   * handing off its AsyncStream to a consumer.
+   *
+   * @param capacity the number of values the Emitter can hold before its
+   *                 producer must wait, at least 1
+   * @param <T> the type of values in the stream
+   * @return new instance
+   * @throws IllegalArgumentException if capacity is less than 1
+   */
+  <T> Emitter<T> emitter(int capacity);
+
+  /**
+   * Produces a new AsyncChannel for handing values between chains without
+   * blocking threads.
+   *
+   * @param capacity the number of values the channel can hold before senders
+   *                 must wait, at least 1
+   * @param <T> the type of values sent through the channel
+   * @return new instance
+   * @throws IllegalArgumentException if capacity is less than 1
+   */
+  <T> AsyncChannel<T> channel(int capacity);
+
+  /**
+   * Produces a new Cell, an input for Computed values.
+   *
+   * @param initial the initial value, which may be null
+   * @param <T> the type of the value
+   * @return new instance
+   */
+  <T> Cell<T> cell(T initial);
+
+  /**
+   * Produces a new Computed, derived from the values of its dependencies.
+   * <p>
+   * The callback is given the dependencies' values, in the order of the
+   * list, and is called on this Cue's threads: once to begin with, then
+   * whenever a dependency has changed.
+   * </p>
+   *
+   * @param dependencies non-null Cells and Computeds produced by a Cue
+   * @param compute non-null callback computing the value
+   * @param <T> the type of the value
+   * @return new instance
+   * @throws IllegalArgumentException if a dependency was not produced by a Cue
+   */
+  <T> Computed<T> computed(List<? extends Computed<?>> dependencies, Callback<List<Object>, T> compute);
+
+  /**
+   * Produces a new Computed, derived from the value of one dependency.
+   *
+   * @param dependency non-null Cell or Computed produced by a Cue
+   * @param compute non-null callback computing the value
+   * @param <I> the type of the dependency's value
+   * @param <T> the type of the value
+   * @return new instance
+   * @throws IllegalArgumentException if the dependency was not produced by a Cue
+   * @see #computed(List, Callback)
+   */
+  <I, T> Computed<T> computed(Computed<I> dependency, Callback<I, T> compute);
+
+  /**
+   * Produces a view of this Cue whose callbacks run one at a time per key.
+   * <p>
+   * Callbacks registered on Promises from the view, or derived from them, are
+   * run in the order they become ready, never at the same time as another
+   * callback from a view for an equal key. Callbacks for different keys run
+   * in parallel on the same thread pool. State belonging to the key, such as
+   * an account, can then be updated from the callbacks without locks.
+   * </p>
+   * <p>
+   * Each key with callbacks waiting has a small mailbox which takes turns on
+   * the thread pool with the others, and is discarded as soon as it is
+   * empty, so keys cost nothing while idle. Views are cheap, and any number
+   * may be produced for the same key. A callback which blocks holds up every
+   * other callback for its key.
+   * </p>
+   *
+   * @param key non-null key, compared with equals
+   * @return new view of this Cue
+   */
+  Cue serial(Object key);
+
+  /**
+   * Blocks the current thread until the given Promise is resolved, then
+   * returns its value or throws.
+   * <p>
+   * This is meant for callbacks which are simpler written in a blocking
+   * style. On a virtual thread, such as those of a Cue from
+   * {@link CueFactory#virtualThreads()}, only the virtual thread is parked
+   * and its carrier goes on to run other work. On a ForkJoinPool worker the
+   * pool is told the worker is blocked, so it can start a spare to keep its
+   * parallelism. On any other thread this is the same as
+   * {@link Promise#done()}.
+   * </p>
+   * <p>
+   * If the thread is interrupted while waiting, a RejectedException is
+   * thrown with the InterruptedException as its reason, and the thread's
+   * interrupt status is set again.
+   * </p>
+   *
+   * @param promise non-null promise to wait for
+   * @param <T> fulfillment type of the promise
+   * @return fulfillment value of the promise
+   * @throws RejectedException if the promise is rejected, wrapping the reason
+   */
+  <T> T await(Promise<T> promise);
+
   /**
    * Produces a Promise which will be resolved immediately with the provided value.
    *
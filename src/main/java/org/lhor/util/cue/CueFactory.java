@@ -23,6 +23,11 @@ import java.util.concurrent.ExecutorService;
  * if using {@link Cue#whenFuture(java.util.concurrent.Future)} to adapt Futures
  * to Promises.
  * </p>
+ * <p>
+ * On Java 21 or later, {@link #virtualThreads()} produces a factory whose
+ * Cue runs every callback and every blocking wait on a virtual thread of its
+ * own, so that blocking costs no platform thread.
+ * </p>
  */
 @Immutable
 public final class CueFactory implements Provider<Cue> {
@@ -33,25 +38,67 @@ public final class CueFactory implements Provider<Cue> {
   private final Provider<Deferred> deferredProvider;
   private final CallbackRegistry callbackRegistry;
   private final Cue cue;
+  private final Bulkheads bulkheads = new Bulkheads();
 
   /**
    * @param executorService not-null thread pool
    */
   public CueFactory(ExecutorService executorService) {
+    this(executorService, Dispatchers.executor(executorService));
+  }
+
+  /**
+   * @param executorService not-null thread pool for the work Cue does itself,
+   *                        such as waiting on Futures
+   * @param dispatcher not-null, runs callbacks once their Promises are resolved
+   */
+  public CueFactory(ExecutorService executorService, Dispatcher dispatcher) {
     if (executorService == null) {
       throw new NullPointerException("executorService");
+    } else if (dispatcher == null) {
+      throw new NullPointerException("dispatcher");
     }
     this.executorService = executorService;
-    callbackRegistry = new CallbackRegistryImpl(executorService);
+    callbackRegistry = new CallbackRegistryImpl(dispatcher);
     deferredProvider = new DeferredProvider();
     cue = new CueImpl(executorService, deferredProvider);
   }
 
+  /**
+   * Produces a factory backed by virtual threads, which are started for each
+   * callback and for each Future waited on, and parked rather than tying up
+   * a platform thread while they block. Callbacks may then block on other
+   * Promises with {@link Cue#await(Promise)}, and
+   * {@link Cue#whenFuture(java.util.concurrent.Future)} costs only a virtual
+   * thread for as long as the Future takes.
+   *
+   * @return new factory
+   * @throws UnsupportedOperationException if the JVM is older than Java 21
+   * @see #virtualThreadsSupported()
+   */
+  public static CueFactory virtualThreads() {
+    return new CueFactory(VirtualThreads.newExecutor());
+  }
+
+  /**
+   * @return true if this JVM can run a factory from {@link #virtualThreads()}
+   */
+  public static boolean virtualThreadsSupported() {
+    return VirtualThreads.supported();
+  }
+
   @Override
   public Cue get() {
     return cue;
   }
 
+  /**
+   * @return the Bulkheads for creating Cues with thread pools of their own
+   */
+  public Bulkheads bulkheads() {
+    return bulkheads;
+  }
+
   private final class DeferredProvider implements Provider<Deferred> {
     @Override
     @SuppressWarnings("unchecked")
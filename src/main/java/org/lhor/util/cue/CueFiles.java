@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.ThreadSafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Reads and writes files through {@link AsynchronousFileChannel}, returning
+ * Promises for the results.
+ * <p>
+ * Each Promise is resolved from the channel's CompletionHandler, so no thread
+ * from the Cue's thread pool waits on the I/O. Each call opens the file,
+ * and closes it again once the operation is finished.
+ * </p>
+ * <p>
+ * Handing a large heap buffer to a channel makes the JDK copy it through a
+ * temporary direct buffer as large as the read. {@link #readAll(Path)}
+ * instead reads a chunk at a time into direct buffers from a small
+ * {@link BufferPool} kept by this instance, and copies each chunk into the
+ * result.
+ * </p>
+ */
+@ThreadSafe
+public final class CueFiles {
+  /** The size of each direct buffer readAll reads into */
+  static final int CHUNK = 64 * 1024;
+  /** The most chunk buffers kept for reuse */
+  private static final int MAX_POOLED = 16;
+  /** The largest file readAll can hold in one ByteBuffer */
+  private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+  private final Cue cue;
+  private final BufferPool chunks = new BufferPool(MAX_POOLED, false);
+  private final Logger log = Logger.getLogger(CueFiles.class.getName());
+
+  /**
+   * @param cue not-null Cue producing the Deferreds
+   */
+  public CueFiles(Cue cue) {
+    if (cue == null) {
+      throw new NullPointerException("cue");
+    }
+    this.cue = cue;
+  }
+
+  /**
+   * Reads a sequence of bytes from the file into the buffer, starting at the
+   * given position in the file.
+   *
+   * @param path non-null file to read
+   * @param position position in the file to start reading from, not negative
+   * @param buffer non-null buffer to read into
+   * @return new promise resolved with the number of bytes read, which is -1
+   *   if the position is at or past the end of the file, or rejected with
+   *   the IOException
+   */
+  public Promise<Integer> read(Path path, long position, ByteBuffer buffer) {
+    check(path, position, buffer);
+
+    Deferred<Integer> deferred = cue.defer();
+    AsynchronousFileChannel channel = open(deferred, path, StandardOpenOption.READ);
+    if (channel != null) {
+      channel.read(buffer, position, null, new Handler<Integer>(deferred, channel) {
+        @Override
+        public void completed(Integer read, Void attachment) {
+          finish(read);
+        }
+      });
+    }
+    return deferred.promise();
+  }
+
+  /**
+   * Writes all the remaining bytes of the buffer to the file, starting at the
+   * given position in the file. The file is created if it does not exist.
+   *
+   * @param path non-null file to write
+   * @param position position in the file to start writing at, not negative
+   * @param buffer non-null buffer to write from
+   * @return new promise resolved with the number of bytes written, or
+   *   rejected with the IOException
+   */
+  public Promise<Integer> write(Path path, long position, ByteBuffer buffer) {
+    check(path, position, buffer);
+
+    Deferred<Integer> deferred = cue.defer();
+    AsynchronousFileChannel channel = open(deferred, path, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    if (channel != null) {
+      int total = buffer.remaining();
+      channel.write(buffer, position, null, new Handler<Integer>(deferred, channel) {
+        private long next = position;
+
+        @Override
+        public void completed(Integer written, Void attachment) {
+          next += written;
+          if (buffer.hasRemaining()) {
+            channel.write(buffer, next, null, this);
+          } else {
+            finish(total);
+          }
+        }
+      });
+    }
+    return deferred.promise();
+  }
+
+  /**
+   * Reads the whole file.
+   * <p>
+   * The file is read up to the size it had when opened. If it shrinks while
+   * being read, the result holds only what could be read.
+   * </p>
+   *
+   * @param path non-null file to read
+   * @return new promise resolved with a heap buffer holding the file's
+   *   contents, positioned at 0, or rejected with the IOException
+   */
+  public Promise<ByteBuffer> readAll(Path path) {
+    if (path == null) {
+      throw new NullPointerException("path");
+    }
+
+    Deferred<ByteBuffer> deferred = cue.defer();
+    AsynchronousFileChannel channel = open(deferred, path, StandardOpenOption.READ);
+    if (channel == null) {
+      return deferred.promise();
+    }
+
+    long size;
+    try {
+      size = channel.size();
+      if (size > MAX_SIZE) {
+        throw new IOException("File is too large to read into one buffer: " + path);
+      }
+    } catch (IOException e) {
+      close(channel);
+      deferred.reject(e);
+      return deferred.promise();
+    }
+
+    ByteBuffer result = ByteBuffer.allocate((int) size);
+    PooledBuffer pooled = chunks.acquire(CHUNK);
+    ByteBuffer chunk = pooled.buffer();
+    chunk.limit(Math.min(CHUNK, result.remaining()));
+    channel.read(chunk, 0, null, new Handler<ByteBuffer>(deferred, channel) {
+      @Override
+      public void completed(Integer read, Void attachment) {
+        if (read > 0) {
+          chunk.flip();
+          result.put(chunk);
+        }
+        if (read >= 0 && result.hasRemaining()) {
+          chunk.clear().limit(Math.min(CHUNK, result.remaining()));
+          channel.read(chunk, result.position(), null, this);
+          return;
+        }
+        pooled.release();
+        result.flip();
+        finish(result);
+      }
+
+      @Override
+      public void failed(Throwable exc, Void attachment) {
+        pooled.release();
+        super.failed(exc, attachment);
+      }
+    });
+    return deferred.promise();
+  }
+
+  private static void check(Path path, long position, ByteBuffer buffer) {
+    if (path == null) {
+      throw new NullPointerException("path");
+    } else if (position < 0) {
+      throw new IllegalArgumentException("position must not be negative: " + position);
+    } else if (buffer == null) {
+      throw new NullPointerException("buffer");
+    }
+  }
+
+  /**
+   * @return the open channel, or null if opening failed and the Deferred was rejected
+   */
+  private static AsynchronousFileChannel open(Deferred<?> deferred, Path path, OpenOption... options) {
+    try {
+      return AsynchronousFileChannel.open(path, options);
+    } catch (IOException | RuntimeException e) {
+      deferred.reject(e);
+      return null;
+    }
+  }
+
+  private void close(AsynchronousFileChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      log.log(Level.FINE, "Failed to close file channel", e);
+    }
+  }
+
+  /**
+   * Closes the channel before settling the Deferred, so the file is closed by
+   * the time any callback runs.
+   *
+   * @param <T> fulfillment type of the Deferred
+   */
+  private abstract class Handler<T> implements CompletionHandler<Integer, Void> {
+    private final Deferred<T> deferred;
+    private final AsynchronousFileChannel channel;
+
+    private Handler(Deferred<T> deferred, AsynchronousFileChannel channel) {
+      this.deferred = deferred;
+      this.channel = channel;
+    }
+
+    protected final void finish(T value) {
+      close(channel);
+      deferred.resolve(value);
+    }
+
+    @Override
+    public void failed(Throwable exc, Void attachment) {
+      close(channel);
+      deferred.reject(exc instanceof Exception ? (Exception) exc : new IOException(exc));
+    }
+  }
+}
@@ -10,10 +10,15 @@ package org.lhor.util.cue;
 
 import net.jcip.annotations.Immutable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Inject;
 import javax.inject.Provider;
 
@@ -22,16 +27,41 @@ import javax.inject.Provider;
 final class CueImpl implements Cue {
   private final ExecutorService executorService;
   private final Provider<Deferred> deferredProvider;
+  /** Shared with every view from serial(), so equal keys share a mailbox whichever view they came from */
+  private final KeyedMailboxes mailboxes;
 
   @Inject
   public CueImpl(@CueExecutors ExecutorService executorService, Provider<Deferred> deferredProvider) {
+    this(executorService, deferredProvider, new KeyedMailboxes(executorService));
+  }
+
+  @SuppressWarnings("rawtypes")
+  CueImpl(ExecutorService executorService, Provider<Deferred> deferredProvider, KeyedMailboxes mailboxes) {
     if (executorService == null) {
       throw new NullPointerException("executorService");
     } else if (deferredProvider == null) {
       throw new NullPointerException("deferredProvider");
+    } else if (mailboxes == null) {
+      throw new NullPointerException("mailboxes");
     }
     this.executorService = executorService;
     this.deferredProvider = deferredProvider;
+    this.mailboxes = mailboxes;
+  }
+
+  /**
+   * Builds a view sharing the parent's thread pool and mailboxes, whose
+   * Deferreds run their callbacks through the given registry.
+   */
+  private CueImpl(CueImpl parent, CallbackRegistry callbackRegistry) {
+    this.executorService = parent.executorService;
+    this.mailboxes = parent.mailboxes;
+    this.deferredProvider = () -> newDeferred(callbackRegistry);
+  }
+
+  private <T> Deferred<T> newDeferred(CallbackRegistry callbackRegistry) {
+    ResolvedStateImpl<T> state = new ResolvedStateImpl<>();
+    return new DeferredImpl<>(callbackRegistry, state, new PromiseImpl<>(this, callbackRegistry, state));
   }
 
   @Override
@@ -41,6 +71,11 @@ final class CueImpl implements Cue {
     return (Deferred<T>) deferredProvider.get();
   }
 
+  @Override
+  public DeferredBatch batch() {
+    return new DeferredBatchImpl();
+  }
+
   @Override
   public <T> Promise<List<T>> all(List<Promise<T>> promises) {
     if (promises == null) {
@@ -48,10 +83,10 @@ final class CueImpl implements Cue {
     }
 
     Deferred<List<T>> deferred = defer();
-    executorService.submit(() -> {
+    submit(deferred, () -> {
       ArrayList<T> result = new ArrayList<>(promises.size());
       try {
-        promises.forEach(p -> result.add(p.done()));
+        promises.forEach(p -> result.add(await(p)));
         deferred.resolve(Collections.unmodifiableList(result));
       } catch (RejectedException e) {
         deferred.reject(e.getReason());
@@ -62,6 +97,73 @@ final class CueImpl implements Cue {
     return deferred.promise();
   }
 
+  @Override
+  public <T> List<Promise<T>> inCompletionOrder(List<Promise<T>> promises) {
+    if (promises == null) {
+      throw new NullPointerException("promises");
+    }
+
+    ArrayList<Promise<T>> copyOfPromises = new ArrayList<>(promises);
+    ArrayList<Deferred<T>> slots = new ArrayList<>(copyOfPromises.size());
+    ArrayList<Promise<T>> result = new ArrayList<>(copyOfPromises.size());
+    for (Promise<T> promise : copyOfPromises) {
+      if (promise == null) {
+        throw new NullPointerException("promise");
+      }
+      Deferred<T> slot = defer();
+      slots.add(slot);
+      result.add(slot.promise());
+    }
+
+    // Each resolution claims the next unclaimed slot, so the slots fill up in
+    // the order the callbacks run without any locking
+    AtomicInteger next = new AtomicInteger();
+    for (Promise<T> promise : copyOfPromises) {
+      PromiseImpl.observe(promise,
+          value -> slots.get(next.getAndIncrement()).resolve(value),
+          reason -> slots.get(next.getAndIncrement()).reject(reason));
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  @Override
+  public <T, A> Promise<A> reduce(Collection<Promise<T>> promises, A identity,
+                                  Accumulator<A, T> accumulator, Accumulator<A, A> combiner) {
+    if (promises == null) {
+      throw new NullPointerException("promises");
+    } else if (accumulator == null) {
+      throw new NullPointerException("accumulator");
+    } else if (combiner == null) {
+      throw new NullPointerException("combiner");
+    }
+
+    ArrayList<Promise<T>> copyOfPromises = new ArrayList<>(promises);
+    if (copyOfPromises.contains(null)) {
+      throw new NullPointerException("promise");
+    }
+    Deferred<A> deferred = defer();
+    StripedReduction<T, A> reduction = new StripedReduction<>(deferred, copyOfPromises.size(),
+        ExecutorDispatcher.parallelism(executorService), identity, accumulator, combiner);
+    copyOfPromises.forEach(promise -> PromiseImpl.observe(promise, reduction::fold, reduction::reject));
+    return deferred.promise();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T, O> Promise<List<O>> parallelMap(List<T> values, Callback<T, O> callback) {
+    if (values == null) {
+      throw new NullPointerException("values");
+    } else if (callback == null) {
+      throw new NullPointerException("callback");
+    }
+
+    Deferred<List<O>> deferred = defer();
+    // unchecked cast, but the array is only ever read back as T
+    T[] copyOfValues = (T[]) values.toArray();
+    new ParallelMap<>(executorService, copyOfValues, callback, deferred).start();
+    return deferred.promise();
+  }
+
   @Override
   public <T> Promise<List<T>> allFutures(List<Future<T>> futures) {
     if (futures == null) {
@@ -70,7 +172,7 @@ final class CueImpl implements Cue {
 
     Deferred<List<T>> deferred = defer();
     ArrayList<Future<T>> copyOfFutures = new ArrayList<>(futures);
-    executorService.submit(() -> {
+    submit(deferred, () -> {
       try {
         ArrayList<T> values = new ArrayList<>(copyOfFutures.size());
         for (Future<T> future : copyOfFutures) {
@@ -84,6 +186,26 @@ final class CueImpl implements Cue {
     return deferred.promise();
   }
 
+  @Override
+  public <T> T await(Promise<T> promise) {
+    if (promise == null) {
+      throw new NullPointerException("promise");
+    }
+
+    Waiter<T> waiter = new Waiter<>(promise);
+    try {
+      ForkJoinPool.managedBlock(waiter);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw RejectedException.wrap(e);
+    }
+    try {
+      return waiter.state.get();
+    } catch (Exception e) {
+      throw RejectedException.wrap(e);
+    }
+  }
+
   @Override
   public <T> Promise<T> whenFuture(Future<T> future) {
     if (future == null) {
@@ -91,7 +213,7 @@ final class CueImpl implements Cue {
     }
 
     Deferred<T> deferred = defer();
-    executorService.submit(() -> {
+    submit(deferred, () -> {
       try {
         T value = future.get();
         deferred.resolve(value);
@@ -102,6 +224,90 @@ final class CueImpl implements Cue {
     return deferred.promise();
   }
 
+  @Override
+  public <T> AsyncStream<T> stream(Iterator<? extends T> iterator) {
+    if (iterator == null) {
+      throw new NullPointerException("iterator");
+    }
+    return new IteratorAsyncStream<>(this, iterator);
+  }
+
+  @Override
+  public <T, O> AsyncStream<O> mapConcurrent(Iterator<? extends T> iterator, Callback<T, Promise<O>> callback,
+                                             int maxInFlight) {
+    return mapConcurrent(iterator, callback, maxInFlight, true);
+  }
+
+  @Override
+  public <T, O> AsyncStream<O> mapConcurrentUnordered(Iterator<? extends T> iterator,
+                                                      Callback<T, Promise<O>> callback, int maxInFlight) {
+    return mapConcurrent(iterator, callback, maxInFlight, false);
+  }
+
+  private <T, O> AsyncStream<O> mapConcurrent(Iterator<? extends T> iterator, Callback<T, Promise<O>> callback,
+                                              int maxInFlight, boolean ordered) {
+    if (iterator == null) {
+      throw new NullPointerException("iterator");
+    } else if (callback == null) {
+      throw new NullPointerException("callback");
+    } else if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be at least 1: " + maxInFlight);
+    }
+    return new ConcurrentMappedAsyncStream<>(this, iterator, callback, maxInFlight, ordered);
+  }
+
+  @Override
+  public <T> Emitter<T> emitter(int capacity) {
+    return new EmitterImpl<>(this, capacity);
+  }
+
+  /**
+   * Runs a task on the thread pool which will resolve the Deferred, or rejects
+   * the Deferred if the pool refuses the task.
+   */
+  private void submit(Deferred<?> deferred, Runnable task) {
+    try {
+      executorService.submit(task);
+    } catch (RejectedExecutionException e) {
+      deferred.reject(e);
+    }
+  }
+
+  @Override
+  public <T> AsyncChannel<T> channel(int capacity) {
+    return new AsyncChannelImpl<>(this, capacity);
+  }
+
+  @Override
+  public <T> Cell<T> cell(T initial) {
+    return new CellImpl<>(this, initial);
+  }
+
+  @Override
+  public <T> Computed<T> computed(List<? extends Computed<?>> dependencies, Callback<List<Object>, T> compute) {
+    return new ComputedImpl<>(this, dependencies, compute);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <I, T> Computed<T> computed(Computed<I> dependency, Callback<I, T> compute) {
+    if (dependency == null) {
+      throw new NullPointerException("dependency");
+    } else if (compute == null) {
+      throw new NullPointerException("compute");
+    }
+    return new ComputedImpl<>(this, Collections.singletonList(dependency), values -> compute.call((I) values.get(0)));
+  }
+
+  @Override
+  public Cue serial(Object key) {
+    if (key == null) {
+      throw new NullPointerException("key");
+    }
+    // Fusing would let the next stage of a chain jump ahead of callbacks already in the mailbox
+    return new CueImpl(this, new CallbackRegistryImpl(mailboxes.dispatcher(key), false));
+  }
+
   @Override
   public <T> Promise<T> when(T value) {
     Deferred<T> deferred = defer();
@@ -115,4 +321,33 @@ final class CueImpl implements Cue {
     deferred.reject(ex);
     return deferred.promise();
   }
+
+  /**
+   * Waits on the resolved state of a Promise. A PromiseImpl's own state is
+   * used as it is; other Promises are observed into a new one.
+   */
+  private static final class Waiter<T> implements ForkJoinPool.ManagedBlocker {
+    private final ResolvedState<T> state;
+
+    private Waiter(Promise<T> promise) {
+      if (promise instanceof PromiseImpl) {
+        state = ((PromiseImpl<T>) promise).state();
+      } else {
+        ResolvedStateImpl<T> observed = new ResolvedStateImpl<>();
+        PromiseImpl.observe(promise, observed::offerFulfillment, observed::offerRejection);
+        state = observed;
+      }
+    }
+
+    @Override
+    public boolean block() throws InterruptedException {
+      state.getReason();
+      return true;
+    }
+
+    @Override
+    public boolean isReleasable() {
+      return state.isResolved();
+    }
+  }
 }
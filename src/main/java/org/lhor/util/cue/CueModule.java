@@ -29,21 +29,37 @@ import javax.inject.Singleton;
 @Immutable
 public final class CueModule extends AbstractModule {
   private final ExecutorService executorService;
+  private final Dispatcher dispatcher;
+  private final Bulkheads bulkheads = new Bulkheads();
 
   /**
    * @param executorService not-null thread pool
    */
   public CueModule(ExecutorService executorService) {
+    this(executorService, Dispatchers.executor(executorService));
+  }
+
+  /**
+   * @param executorService not-null thread pool for the work Cue does itself,
+   *                        such as waiting on Futures
+   * @param dispatcher not-null, runs callbacks once their Promises are resolved
+   */
+  public CueModule(ExecutorService executorService, Dispatcher dispatcher) {
     if (executorService == null) {
       throw new NullPointerException("executorService");
+    } else if (dispatcher == null) {
+      throw new NullPointerException("dispatcher");
     }
     this.executorService = executorService;
+    this.dispatcher = dispatcher;
   }
 
   @Override
   protected void configure() {
     bind(Cue.class).to(CueImpl.class).in(Singleton.class);
     bind(ExecutorService.class).annotatedWith(CueExecutors.class).toInstance(executorService);
+    bind(Dispatcher.class).toInstance(dispatcher);
+    bind(Bulkheads.class).toInstance(bulkheads);
     bind(Deferred.class).toProvider(DeferredProvider.class);
     bind(CallbackRegistry.class).to(CallbackRegistryImpl.class).in(Singleton.class);
   }
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.Immutable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Connects, reads and writes through {@link AsynchronousSocketChannel},
+ * returning Promises for the results.
+ * <p>
+ * Each Promise is resolved from the channel's CompletionHandler, so no thread
+ * from the Cue's thread pool waits on the network. As with the channel itself,
+ * only one read and one write may be outstanding on a channel at a time: the
+ * next read on a channel should be started once the previous read's Promise
+ * is resolved. An operation the channel refuses to start, such as a second
+ * read while one is pending, or any operation on a channel which is not yet
+ * connected, rejects its Promise with the channel's exception rather than
+ * throwing it.
+ * </p>
+ * <p>
+ * Frames are a four byte big-endian length followed by that many bytes of
+ * payload. {@link #writeFrame(AsynchronousSocketChannel, ByteBuffer)} writes
+ * the length and the payload with a single gathering write.
+ * </p>
+ */
+@Immutable
+public final class CueSockets {
+  /** The largest frame payload accepted unless another is given */
+  public static final int DEFAULT_MAX_FRAME = 16 * 1024 * 1024;
+
+  private static final int HEADER = 4;
+
+  private final Cue cue;
+  private final int maxFrame;
+  private final Logger log = Logger.getLogger(CueSockets.class.getName());
+
+  /**
+   * @param cue not-null Cue producing the Deferreds
+   */
+  public CueSockets(Cue cue) {
+    this(cue, DEFAULT_MAX_FRAME);
+  }
+
+  /**
+   * @param cue not-null Cue producing the Deferreds
+   * @param maxFrame the largest frame payload readFrame accepts, at least 1
+   */
+  public CueSockets(Cue cue, int maxFrame) {
+    if (cue == null) {
+      throw new NullPointerException("cue");
+    } else if (maxFrame < 1) {
+      throw new IllegalArgumentException("maxFrame must be at least 1: " + maxFrame);
+    }
+    this.cue = cue;
+    this.maxFrame = maxFrame;
+  }
+
+  /**
+   * Opens a channel with TCP_NODELAY set and connects it.
+   *
+   * @param remote non-null address to connect to
+   * @return new promise resolved with the connected channel, or rejected with
+   *   the IOException, in which case the channel has been closed
+   */
+  public Promise<AsynchronousSocketChannel> connect(SocketAddress remote) {
+    if (remote == null) {
+      throw new NullPointerException("remote");
+    }
+
+    Deferred<AsynchronousSocketChannel> deferred = cue.defer();
+    AsynchronousSocketChannel channel;
+    try {
+      channel = AsynchronousSocketChannel.open();
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    } catch (IOException | RuntimeException e) {
+      deferred.reject(e);
+      return deferred.promise();
+    }
+    Handler<AsynchronousSocketChannel, Void, Void> handler =
+        new Handler<AsynchronousSocketChannel, Void, Void>(deferred) {
+          @Override
+          public void completed(Void result, Void attachment) {
+            deferred.resolve(channel);
+          }
+
+          @Override
+          public void failed(Throwable exc, Void attachment) {
+            close(channel);
+            super.failed(exc, attachment);
+          }
+        };
+    handler.start(() -> channel.connect(remote, null, handler));
+    return deferred.promise();
+  }
+
+  /**
+   * Reads a sequence of bytes from the channel into the buffer.
+   *
+   * @param channel non-null connected channel
+   * @param buffer non-null buffer to read into
+   * @return new promise resolved with the number of bytes read, which is -1
+   *   if the peer has shut down its output, or rejected with the IOException
+   */
+  public Promise<Integer> read(AsynchronousSocketChannel channel, ByteBuffer buffer) {
+    check(channel, buffer);
+
+    Deferred<Integer> deferred = cue.defer();
+    Handler<Integer, Integer, Void> handler = new Handler<Integer, Integer, Void>(deferred) {
+      @Override
+      public void completed(Integer read, Void attachment) {
+        deferred.resolve(read);
+      }
+    };
+    handler.start(() -> channel.read(buffer, null, handler));
+    return deferred.promise();
+  }
+
+  /**
+   * Writes all the remaining bytes of the buffer to the channel.
+   *
+   * @param channel non-null connected channel
+   * @param buffer non-null buffer to write from
+   * @return new promise resolved with the number of bytes written, or
+   *   rejected with the IOException
+   */
+  public Promise<Integer> write(AsynchronousSocketChannel channel, ByteBuffer buffer) {
+    check(channel, buffer);
+
+    Deferred<Integer> deferred = cue.defer();
+    int total = buffer.remaining();
+    Handler<Integer, Integer, Void> handler = new Handler<Integer, Integer, Void>(deferred) {
+      @Override
+      public void completed(Integer written, Void attachment) {
+        if (buffer.hasRemaining()) {
+          start(() -> channel.write(buffer, null, this));
+        } else {
+          deferred.resolve(total);
+        }
+      }
+    };
+    handler.start(() -> channel.write(buffer, null, handler));
+    return deferred.promise();
+  }
+
+  /**
+   * Writes the remaining bytes of the payload to the channel as one frame.
+   *
+   * @param channel non-null connected channel
+   * @param payload non-null payload, which may be empty
+   * @return new promise resolved once the whole frame has been written, or
+   *   rejected with the IOException
+   */
+  public Promise<Void> writeFrame(AsynchronousSocketChannel channel, ByteBuffer payload) {
+    check(channel, payload);
+
+    Deferred<Void> deferred = cue.defer();
+    ByteBuffer[] buffers = {ByteBuffer.allocate(HEADER).putInt(0, payload.remaining()), payload};
+    Handler<Void, Long, Void> handler = new Handler<Void, Long, Void>(deferred) {
+      @Override
+      public void completed(Long written, Void attachment) {
+        if (buffers[0].hasRemaining() || payload.hasRemaining()) {
+          start(() -> channel.write(buffers, 0, 2, 0L, null, null, this));
+        } else {
+          deferred.resolve(null);
+        }
+      }
+    };
+    handler.start(() -> channel.write(buffers, 0, 2, 0L, null, null, handler));
+    return deferred.promise();
+  }
+
+  /**
+   * Reads one frame from the channel.
+   *
+   * @param channel non-null connected channel
+   * @return new promise resolved with a heap buffer holding the frame's
+   *   payload, or with null if the peer shut down its output before the
+   *   frame began. Rejected with an EOFException if the peer shut down
+   *   part way through the frame, or an IOException if the frame is larger
+   *   than the maximum.
+   */
+  public Promise<ByteBuffer> readFrame(AsynchronousSocketChannel channel) {
+    if (channel == null) {
+      throw new NullPointerException("channel");
+    }
+
+    Deferred<ByteBuffer> deferred = cue.defer();
+    ByteBuffer header = ByteBuffer.allocate(HEADER);
+    Handler<ByteBuffer, Integer, Void> handler = new Handler<ByteBuffer, Integer, Void>(deferred) {
+      private ByteBuffer payload;
+
+      @Override
+      public void completed(Integer read, Void attachment) {
+        if (read < 0) {
+          if (payload == null && header.position() == 0) {
+            deferred.resolve(null);
+          } else {
+            deferred.reject(new EOFException("Channel closed part way through a frame"));
+          }
+          return;
+        }
+
+        if (payload == null) {
+          if (header.hasRemaining()) {
+            start(() -> channel.read(header, null, this));
+            return;
+          }
+          int length = header.getInt(0);
+          if (length < 0 || length > maxFrame) {
+            deferred.reject(new IOException("Frame length " + length + " is outside 0 to " + maxFrame));
+            return;
+          }
+          payload = ByteBuffer.allocate(length);
+        }
+
+        if (payload.hasRemaining()) {
+          start(() -> channel.read(payload, null, this));
+        } else {
+          payload.flip();
+          deferred.resolve(payload);
+        }
+      }
+    };
+    handler.start(() -> channel.read(header, null, handler));
+    return deferred.promise();
+  }
+
+  private static void check(AsynchronousSocketChannel channel, ByteBuffer buffer) {
+    if (channel == null) {
+      throw new NullPointerException("channel");
+    } else if (buffer == null) {
+      throw new NullPointerException("buffer");
+    }
+  }
+
+  private void close(AsynchronousSocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      log.log(Level.FINE, "Failed to close socket channel", e);
+    }
+  }
+
+  /**
+   * Rejects the Deferred when the operation fails, including when the
+   * channel refuses to start it, for example with a ReadPendingException
+   * or NotYetConnectedException.
+   *
+   * @param <T> fulfillment type of the Deferred
+   * @param <V> result type of the operation
+   * @param <A> attachment type
+   */
+  private abstract static class Handler<T, V, A> implements CompletionHandler<V, A> {
+    protected final Deferred<T> deferred;
+
+    private Handler(Deferred<T> deferred) {
+      this.deferred = deferred;
+    }
+
+    @Override
+    public void failed(Throwable exc, A attachment) {
+      deferred.reject(exc instanceof Exception ? (Exception) exc : new IOException(exc));
+    }
+
+    /**
+     * Starts an operation completing to this handler, failing it if the
+     * channel throws rather than starting it.
+     */
+    protected void start(Runnable operation) {
+      try {
+        operation.run();
+      } catch (RuntimeException e) {
+        failed(e, null);
+      }
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.ThreadSafe;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A Dispatcher which runs the ready callback with the earliest deadline first.
+ * <p>
+ * A callback whose chain has no deadline is given one the horizon after it
+ * became ready, so it is neither run ahead of every urgent callback nor
+ * starved by a steady stream of them. Callbacks whose deadline has already
+ * passed sort first. A stage past its deadline only rejects its Promise, so
+ * it is cheap to run, but <code>always</code> callbacks and observers still
+ * run in full.
+ * </p>
+ */
+@ThreadSafe
+final class DeadlineDispatcher extends OrderedDispatcher {
+  private final long horizonNanos;
+
+  DeadlineDispatcher(ExecutorService executorService, long horizon, TimeUnit unit) {
+    super(executorService);
+    if (unit == null) {
+      throw new NullPointerException("unit");
+    } else if (horizon < 0) {
+      throw new IllegalArgumentException("horizon must not be negative: " + horizon);
+    }
+    // Capped the same as deadlines, to keep keys from overflowing
+    this.horizonNanos = Math.min(unit.toNanos(horizon), Long.MAX_VALUE / 4);
+  }
+
+  @Override
+  protected long key(Schedule schedule, long now) {
+    return schedule.hasDeadline() ? schedule.deadline() : now + horizonNanos;
+  }
+}
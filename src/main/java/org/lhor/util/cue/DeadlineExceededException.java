@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.Immutable;
+
+
+/**
+ * The reason a Promise is rejected when the deadline set on its chain with
+ * {@link Deferred#withDeadline(long, java.util.concurrent.TimeUnit)} passed
+ * before the callback which would have resolved it was run. The callback is
+ * skipped.
+ */
+@Immutable
+public final class DeadlineExceededException extends Exception {
+  private static final long serialVersionUID = 1L;
+
+  DeadlineExceededException(long overdueNanos) {
+    super("Deadline passed " + overdueNanos + "ns before the callback could run");
+  }
+}
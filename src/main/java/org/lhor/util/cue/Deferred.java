@@ -8,6 +8,9 @@
 package org.lhor.util.cue;
 
 
+import java.util.concurrent.TimeUnit;
+
+
 /**
  * The producer's interface to the Promises/A+ API.
  * <p>
@@ -99,6 +102,88 @@ public interface Deferred<T> {
    */
   void reject(Exception e);
 
+  /**
+   * Sets the priority of the Deferred's Promise and of every Promise derived
+   * from it afterwards with <code>then</code>, <code>fail</code>, or
+   * <code>always</code>.
+   * <p>
+   * The priority only has an effect when the Cue was given a Dispatcher which
+   * orders callbacks by it, such as {@link Dispatchers#priority}. Callbacks
+   * with a higher priority are run ahead of those with a lower one. The
+   * default priority is 0, and negative priorities are allowed.
+   * </p>
+   * <p>
+   * Set the priority before building the chain, since a Promise derives its
+   * priority from its parent when it is created.
+   * </p>
+   * <p>
+   * The default implementation ignores the priority, so an implementation
+   * which has no chain of its own to order need not override it.
+   * </p>
+   *
+   * @param priority higher runs sooner
+   * @return this Deferred
+   */
+  default Deferred<T> withPriority(int priority) {
+    return this;
+  }
+
+  /**
+   * Sets a deadline on the Deferred's Promise and every Promise derived from
+   * it afterwards with <code>then</code> or <code>fail</code>, the given
+   * amount of time from now.
+   * <p>
+   * A callback on the chain which has not started by the deadline is skipped
+   * if the Promise before it was fulfilled, and the Promise it would have
+   * resolved is rejected with a {@link DeadlineExceededException}. The
+   * rejection carries through the rest of the chain, skipping every later
+   * callback too, except <code>always</code> callbacks. A chain which was
+   * already rejected for some other reason keeps that reason, and its
+   * <code>fail</code> callbacks still run. Combinators such as
+   * {@link Cue#all(java.util.List)} see each Promise as it was resolved,
+   * however late they look at it. A callback already running when the
+   * deadline passes is not interrupted. Nothing happens at the deadline
+   * itself, so a Deferred which is never resolved is not rejected by it.
+   * </p>
+   * <p>
+   * With {@link Dispatchers#earliestDeadlineFirst}, callbacks waiting for a
+   * thread are also run in order of their deadlines.
+   * </p>
+   * <p>
+   * The default implementation ignores the deadline, so an implementation
+   * which has no chain of its own to limit need not override it.
+   * </p>
+   *
+   * @param timeout how long from now the deadline is, not negative
+   * @param unit non-null unit of timeout
+   * @return this Deferred
+   * @throws IllegalArgumentException if the timeout is negative
+   */
+  default Deferred<T> withDeadline(long timeout, TimeUnit unit) {
+    return this;
+  }
+
+  /**
+   * Tags the Deferred's Promise and every Promise derived from it afterwards
+   * as belonging to the given tenant.
+   * <p>
+   * The tag only has an effect when the Cue was given a Dispatcher which
+   * shares threads between tenants, such as {@link Dispatchers#fairShare}.
+   * Tenants are compared with <code>equals</code>, so a tenant's name or id
+   * can be used directly.
+   * </p>
+   * <p>
+   * The default implementation ignores the tenant, so an implementation
+   * which has no chain of its own to tag need not override it.
+   * </p>
+   *
+   * @param tenant non-null tenant the chain's callbacks are run on behalf of
+   * @return this Deferred
+   */
+  default Deferred<T> withTenant(Object tenant) {
+    return this;
+  }
+
   /**
    * Returns the Deferred's Promise.
    * <p>
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+/**
+ * Collects resolutions for many Deferreds so they can be applied in a single
+ * pass.
+ * <p>
+ * A producer which completes a large group of Deferreds at once (e.g., a bulk
+ * read resolving thousands of records) would normally pay for a registry
+ * update and a thread pool submission on every individual resolution. A batch
+ * instead records each resolution and applies all of them on
+ * {@link #commit()}, handing every callback made ready by the batch to the
+ * thread pool together.
+ * </p>
+ * <pre>
+ * DeferredBatch batch = cue.batch();
+ * for (Row row : rows) {
+ *   batch.resolve(pending.get(row.getId()), row);
+ * }
+ * batch.commit();
+ * </pre>
+ * <p>
+ * Nothing is resolved until <code>commit</code> is invoked, and the same
+ * rules as {@link Deferred#resolve(Object)} and {@link Deferred#reject(Exception)}
+ * apply: a Deferred which was already resolved is unaffected, and if the same
+ * Deferred is added more than once only its first resolution takes effect.
+ * </p>
+ * <p>
+ * Callbacks made ready by the same commit share a small number of pool tasks
+ * rather than each receiving its own, so they should not block waiting on
+ * one another. Callbacks which need to wait for other callbacks should be
+ * resolved individually instead.
+ * </p>
+ * <p>
+ * A batch is not thread-safe and is intended to be filled and committed by a
+ * single producer thread. It may be reused after it has been committed.
+ * </p>
+ */
+public interface DeferredBatch {
+  /**
+   * Adds a fulfillment of the given Deferred to the batch.
+   *
+   * @param deferred non-null Deferred to fulfill on commit
+   * @param value nullable value to fulfill the Deferred with
+   * @param <T> fulfillment type
+   * @return this batch
+   * @throws NullPointerException if deferred is null
+   */
+  <T> DeferredBatch resolve(Deferred<T> deferred, T value);
+
+  /**
+   * Adds a rejection of the given Deferred to the batch.
+   * <p>
+   * The given reason may be null, which will behave the same as
+   * {@link Deferred#reject()}.
+   * </p>
+   *
+   * @param deferred non-null Deferred to reject on commit
+   * @param reason nullable reason for the rejection
+   * @return this batch
+   * @throws NullPointerException if deferred is null
+   */
+  DeferredBatch reject(Deferred<?> deferred, Exception reason);
+
+  /**
+   * @return the number of resolutions waiting to be committed
+   */
+  int size();
+
+  /**
+   * Applies every resolution added since the last commit and dispatches the
+   * callbacks they made ready.
+   * <p>
+   * The batch is empty once this method returns.
+   * </p>
+   */
+  void commit();
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+
+@NotThreadSafe
+final class DeferredBatchImpl implements DeferredBatch {
+  private final ArrayList<Entry<?>> entries = new ArrayList<>();
+
+  /**
+   * A single pending resolution. Rejections are recorded with the rejected flag
+   * set since both the value and the reason may legitimately be null.
+   *
+   * @param <T> fulfillment type
+   */
+  private static final class Entry<T> {
+    private final Deferred<T> deferred;
+    private final T value;
+    private final Exception reason;
+    private final boolean rejected;
+
+    Entry(Deferred<T> deferred, T value, Exception reason, boolean rejected) {
+      this.deferred = deferred;
+      this.value = value;
+      this.reason = reason;
+      this.rejected = rejected;
+    }
+  }
+
+  @Override
+  public <T> DeferredBatch resolve(Deferred<T> deferred, T value) {
+    if (deferred == null) {
+      throw new NullPointerException("deferred");
+    }
+    entries.add(new Entry<>(deferred, value, null, false));
+    return this;
+  }
+
+  @Override
+  public DeferredBatch reject(Deferred<?> deferred, Exception reason) {
+    if (deferred == null) {
+      throw new NullPointerException("deferred");
+    }
+    entries.add(new Entry<>(deferred, null, reason, true));
+    return this;
+  }
+
+  @Override
+  public int size() {
+    return entries.size();
+  }
+
+  @Override
+  public void commit() {
+    // Nearly every batch will belong to a single registry, but Deferreds from
+    // several Cue instances may be mixed together
+    IdentityHashMap<CallbackRegistry, ArrayList<ResolvedState<?>>> byRegistry = new IdentityHashMap<>();
+    for (Entry<?> entry : entries) {
+      offer(entry, byRegistry);
+    }
+    entries.clear();
+
+    for (Map.Entry<CallbackRegistry, ArrayList<ResolvedState<?>>> group : byRegistry.entrySet()) {
+      group.getKey().statesResolved(group.getValue());
+    }
+  }
+
+  private static <T> void offer(Entry<T> entry,
+                                IdentityHashMap<CallbackRegistry, ArrayList<ResolvedState<?>>> byRegistry) {
+    if (!(entry.deferred instanceof DeferredImpl)) {
+      // Some other implementation, it can only be resolved the usual way
+      if (entry.rejected) {
+        entry.deferred.reject(entry.reason);
+      } else {
+        entry.deferred.resolve(entry.value);
+      }
+      return;
+    }
+
+    DeferredImpl<T> deferred = (DeferredImpl<T>) entry.deferred;
+    ResolvedStateImpl<T> state = deferred.state();
+    if (entry.rejected) {
+      state.offerRejection(entry.reason);
+    } else {
+      state.offerFulfillment(entry.value);
+    }
+    byRegistry.computeIfAbsent(deferred.callbackRegistry(), registry -> new ArrayList<>()).add(state);
+  }
+}
@@ -9,6 +9,8 @@ package org.lhor.util.cue;
 
 
 import net.jcip.annotations.Immutable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
 
 
 @Immutable
@@ -59,8 +61,51 @@ final class DeferredImpl<T> implements Deferred<T> {
     callbackRegistry.stateResolved(state);
   }
 
+  @Override
+  public Deferred<T> withPriority(int priority) {
+    reschedule(schedule -> schedule.withPriority(priority));
+    return this;
+  }
+
+  @Override
+  public Deferred<T> withDeadline(long timeout, TimeUnit unit) {
+    if (unit == null) {
+      throw new NullPointerException("unit");
+    } else if (timeout < 0) {
+      throw new IllegalArgumentException("timeout must not be negative: " + timeout);
+    }
+    // Capped so deadline arithmetic can't overflow, which is still about 73 years off
+    long deadline = System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 4);
+    reschedule(schedule -> schedule.withDeadline(deadline));
+    return this;
+  }
+
+  @Override
+  public Deferred<T> withTenant(Object tenant) {
+    if (tenant == null) {
+      throw new NullPointerException("tenant");
+    }
+    reschedule(schedule -> schedule.withTenant(tenant));
+    return this;
+  }
+
+  private void reschedule(UnaryOperator<Schedule> update) {
+    if (promise instanceof PromiseImpl) {
+      ((PromiseImpl<T>) promise).reschedule(update);
+    }
+  }
+
   @Override
   public Promise<T> promise() {
     return promise;
   }
+
+  // Exposed so a DeferredBatch can offer resolutions and notify the registry itself
+  ResolvedStateImpl<T> state() {
+    return state;
+  }
+
+  CallbackRegistry callbackRegistry() {
+    return callbackRegistry;
+  }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.ToIntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Keeps one queue of ready callbacks per tenant and serves the tenants with
+ * waiting callbacks by deficit round robin, counting each callback as one unit
+ * of cost. When a tenant's turn comes it is credited with its weight, and it
+ * runs callbacks until the credit is spent or its queue is empty, then goes to
+ * the back of the line. A tenant with a burst of callbacks only delays the
+ * others by its weight per round, however long its queue is.
+ * <p>
+ * As with {@link OrderedDispatcher}, every dispatch submits one task to the
+ * thread pool, and each pool task runs whichever callback is next in the
+ * round. A tenant's queue is discarded once it is empty, so idle tenants cost
+ * nothing.
+ * </p>
+ */
+@ThreadSafe
+final class DeficitRoundRobinDispatcher implements FairShareDispatcher {
+  private final ExecutorService executorService;
+  private final ToIntFunction<Object> weights;
+  private final Logger log = Logger.getLogger(DeficitRoundRobinDispatcher.class.getName());
+
+  @GuardedBy("this")
+  private final HashMap<Object, TenantQueue> queues = new HashMap<>();
+  /** Tenants with callbacks waiting, in the order they will be served */
+  @GuardedBy("this")
+  private final ArrayDeque<TenantQueue> round = new ArrayDeque<>();
+
+  private static final class TenantQueue {
+    private final Object tenant;
+    private final int weight;
+    @GuardedBy("DeficitRoundRobinDispatcher.this")
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    /** Callbacks left to run in this tenant's current turn */
+    @GuardedBy("DeficitRoundRobinDispatcher.this")
+    private int deficit;
+
+    private TenantQueue(Object tenant, int weight) {
+      this.tenant = tenant;
+      this.weight = weight;
+    }
+  }
+
+  DeficitRoundRobinDispatcher(ExecutorService executorService, ToIntFunction<Object> weights) {
+    if (executorService == null) {
+      throw new NullPointerException("executorService");
+    } else if (weights == null) {
+      throw new NullPointerException("weights");
+    }
+    this.executorService = executorService;
+    this.weights = weights;
+  }
+
+  @Override
+  public void dispatch(Runnable task) {
+    if (task == null) {
+      throw new NullPointerException("task");
+    }
+
+    Object tenant = Schedule.of(task).tenant();
+    TenantQueue queue;
+    synchronized (this) {
+      queue = queues.get(tenant);
+      if (queue == null) {
+        queue = new TenantQueue(tenant, weight(tenant));
+        queues.put(tenant, queue);
+        round.add(queue);
+      }
+      queue.tasks.add(task);
+    }
+    try {
+      executorService.execute(this::runNext);
+    } catch (RejectedExecutionException e) {
+      synchronized (this) {
+        if (queue.tasks.removeLastOccurrence(task) && queue.tasks.isEmpty()) {
+          discard(queue);
+        }
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public synchronized Map<Object, Integer> queueDepths() {
+    HashMap<Object, Integer> depths = new HashMap<>();
+    queues.forEach((tenant, queue) -> depths.put(tenant, queue.tasks.size()));
+    return Collections.unmodifiableMap(depths);
+  }
+
+  private void runNext() {
+    Runnable task;
+    synchronized (this) {
+      TenantQueue queue = round.peek();
+      if (queue == null) {
+        return;
+      }
+      if (queue.deficit == 0) {
+        // The start of this tenant's turn
+        queue.deficit = queue.weight;
+      }
+      task = queue.tasks.poll();
+      queue.deficit--;
+      if (queue.tasks.isEmpty()) {
+        discard(queue);
+      } else if (queue.deficit == 0) {
+        round.add(round.poll());
+      }
+    }
+    try {
+      task.run();
+    } catch (RuntimeException e) {
+      log.log(Level.WARNING, "Dispatched task threw an exception", e);
+    }
+  }
+
+  @GuardedBy("this")
+  private void discard(TenantQueue queue) {
+    queues.remove(queue.tenant);
+    round.remove(queue);
+  }
+
+  private int weight(Object tenant) {
+    try {
+      return Math.max(1, weights.applyAsInt(tenant));
+    } catch (RuntimeException e) {
+      log.log(Level.WARNING, "Weight of tenant " + tenant + " could not be found, using 1", e);
+      return 1;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.util.List;
+
+
+/**
+ * Runs the callbacks whose Promises have been resolved.
+ * <p>
+ * By default, Cue hands every ready callback to its thread pool. A Dispatcher
+ * can be given to {@link CueFactory} or {@link CueModule} to change where and
+ * in what order ready callbacks are run. Implementations for the common cases
+ * are provided by {@link Dispatchers}.
+ * </p>
+ * <p>
+ * Implementations <i>must</i> be thread-safe, and must not run the task on the
+ * invoking thread before returning, since the invoking thread may be holding
+ * resources the task is waiting for.
+ * </p>
+ */
+public interface Dispatcher extends AutoCloseable {
+  /**
+   * Arranges for the task to be run as soon as possible.
+   *
+   * @param task non-null task to run
+   * @throws java.util.concurrent.RejectedExecutionException if the task cannot
+   *   be accepted
+   */
+  void dispatch(Runnable task);
+
+  /**
+   * Arranges for every task to be run as soon as possible.
+   * <p>
+   * Tasks made ready together by a {@link DeferredBatch} are handed over with
+   * this method. Unlike separate invocations of {@link #dispatch(Runnable)},
+   * the implementation may run several of the tasks one after another on the
+   * same thread.
+   * </p>
+   *
+   * @param tasks non-null list of non-null tasks to run
+   * @throws java.util.concurrent.RejectedExecutionException if the tasks cannot
+   *   be accepted
+   */
+  default void dispatchAll(List<Runnable> tasks) {
+    tasks.forEach(this::dispatch);
+  }
+
+  /**
+   * Whether the Dispatcher decides the order in which ready callbacks run.
+   * <p>
+   * Cue normally runs the next stage of a linear chain on the same thread
+   * straight after the one before it, without dispatching it. A Dispatcher
+   * which orders callbacks, for example by priority or by tenant, returns
+   * true so that every stage is dispatched and takes its place in that
+   * order instead.
+   * </p>
+   *
+   * @return true if every ready callback must be dispatched
+   */
+  default boolean ordersCallbacks() {
+    return false;
+  }
+
+  /**
+   * Releases any threads the Dispatcher started itself. Tasks which were
+   * already dispatched are still run, but no more tasks will be accepted.
+   * <p>
+   * A Dispatcher which runs tasks on a thread pool it was given does not shut
+   * down that pool.
+   * </p>
+   */
+  @Override
+  default void close() {
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+
+/**
+ * Factory methods for the {@link Dispatcher} implementations provided by Cue.
+ */
+public final class Dispatchers {
+  private Dispatchers() {
+  }
+
+  /**
+   * Produces the default Dispatcher, which submits every ready callback to the
+   * given thread pool.
+   *
+   * @param executorService non-null thread pool
+   * @return new instance
+   */
+  public static Dispatcher executor(ExecutorService executorService) {
+    return new ExecutorDispatcher(executorService);
+  }
+
+  /**
+   * Produces a Dispatcher which keeps ready callbacks on the pool worker that
+   * made them ready, letting idle workers steal them.
+   * <p>
+   * A callback made ready on one of the pool's workers, for example by the
+   * previous callback in a chain returning, is queued on that worker's own
+   * deque instead of the pool's shared queue. The chain tends to stay on one
+   * thread and keep its data in that core's cache, while the pool's work
+   * stealing keeps the other workers busy. Callbacks made ready on any other
+   * thread are submitted to the pool as usual.
+   * </p>
+   * <p>
+   * In a pool built in asyncMode, a worker runs its own deque oldest first,
+   * so a callback runs after those already queued on its worker rather than
+   * straight after the one which made it ready.
+   * </p>
+   * <p>
+   * The Cue should be given the same pool as its ExecutorService.
+   * </p>
+   *
+   * @param pool non-null pool whose workers run the callbacks
+   * @return new instance
+   */
+  public static Dispatcher workStealing(ForkJoinPool pool) {
+    return new WorkStealingDispatcher(pool);
+  }
+
+  /**
+   * Produces a Dispatcher which runs ready callbacks in order of the priority
+   * set on their chain with {@link Deferred#withPriority(int)}, on the given
+   * thread pool.
+   * <p>
+   * To keep low-priority chains from starving, a waiting callback is treated
+   * as one priority higher for every <code>aging</code> interval it has
+   * waited. For example, with an interval of 10 milliseconds, a callback of
+   * priority 0 runs ahead of any priority 5 callback which became ready more
+   * than 50 milliseconds after it.
+   * </p>
+   * <p>
+   * The order applies to every stage of a chain. Each stage is dispatched as
+   * the one before it resolves, so it waits behind any higher priority
+   * callbacks rather than running straight after its predecessor.
+   * </p>
+   *
+   * @param executorService non-null thread pool to run the callbacks
+   * @param aging how long a callback waits to gain one level of priority
+   * @param unit non-null unit of aging
+   * @return new instance
+   * @throws IllegalArgumentException if aging is not positive
+   */
+  public static Dispatcher priority(ExecutorService executorService, long aging, TimeUnit unit) {
+    return new PriorityDispatcher(executorService, aging, unit);
+  }
+
+  /**
+   * Produces a Dispatcher which runs ready callbacks earliest deadline first,
+   * using the deadlines set on their chains with
+   * {@link Deferred#withDeadline(long, TimeUnit)}, on the given thread pool.
+   * <p>
+   * Under overload, callbacks whose deadline has already passed are run
+   * first. Most such stages are skipped and only reject their Promise with a
+   * {@link DeadlineExceededException}, so late work is shed quickly rather
+   * than holding up work which can still finish in time. The exceptions
+   * listed at {@link Deferred#withDeadline(long, TimeUnit)}, such as
+   * <code>always</code> callbacks, still run in full. A callback whose
+   * chain has no deadline is treated as having one the horizon after it
+   * became ready.
+   * </p>
+   * <p>
+   * As with {@link #priority}, every stage of a chain is dispatched and
+   * takes its place in the order.
+   * </p>
+   *
+   * @param executorService non-null thread pool to run the callbacks
+   * @param horizon the deadline given to callbacks without one, not negative
+   * @param unit non-null unit of horizon
+   * @return new instance
+   * @throws IllegalArgumentException if horizon is negative
+   */
+  public static Dispatcher earliestDeadlineFirst(ExecutorService executorService, long horizon, TimeUnit unit) {
+    return new DeadlineDispatcher(executorService, horizon, unit);
+  }
+
+  /**
+   * Produces a Dispatcher which shares the thread pool evenly between the
+   * tenants set on chains with {@link Deferred#withTenant(Object)}.
+   *
+   * @param executorService non-null thread pool to run the callbacks
+   * @return new instance
+   * @see #fairShare(ExecutorService, ToIntFunction)
+   */
+  public static FairShareDispatcher fairShare(ExecutorService executorService) {
+    return fairShare(executorService, tenant -> 1);
+  }
+
+  /**
+   * Produces a Dispatcher which shares the thread pool between the tenants set
+   * on chains with {@link Deferred#withTenant(Object)}, in proportion to their
+   * weights.
+   * <p>
+   * Ready callbacks are queued per tenant, and the tenants with callbacks
+   * waiting take turns, each running up to its weight in callbacks per turn.
+   * A burst from one tenant only lengthens that tenant's own queue, so the
+   * other tenants' callbacks keep running at their share of the pool. Chains
+   * without a tenant share a queue of their own. The current depth of each
+   * queue is available from {@link FairShareDispatcher#queueDepths()}.
+   * </p>
+   * <p>
+   * As with {@link #priority}, the stages of a linear chain are not run
+   * back to back on one thread: each is dispatched, and so queued behind its
+   * tenant's turn, as soon as the one before it resolves.
+   * </p>
+   * <p>
+   * The weight of a tenant is looked up when its queue is created, which is
+   * whenever it has a callback waiting after having none. Weights below 1,
+   * or which can't be looked up, are treated as 1.
+   * </p>
+   *
+   * @param executorService non-null thread pool to run the callbacks
+   * @param weights non-null, the weight of a tenant, which may be null
+   * @return new instance
+   */
+  public static FairShareDispatcher fairShare(ExecutorService executorService, ToIntFunction<Object> weights) {
+    return new DeficitRoundRobinDispatcher(executorService, weights);
+  }
+
+  /**
+   * Produces a Dispatcher which runs every ready callback on a single dedicated
+   * thread, handed over through a preallocated ring buffer.
+   * <p>
+   * This is intended for latency-sensitive chains whose callbacks are short
+   * and never block. Handing over a callback allocates nothing and takes no
+   * locks, and with {@link WaitStrategy#BUSY_SPIN} or
+   * {@link WaitStrategy#YIELDING} the dedicated thread picks it up within
+   * moments. Because every callback runs on the same thread, a callback which
+   * blocks (including one invoking {@link Promise#done()}) stalls every other
+   * callback, and may never be woken if it waits on another callback.
+   * </p>
+   * <p>
+   * When the ring buffer is full, a thread resolving a Promise waits for room
+   * using the same wait strategy. The Dispatcher must be closed to stop its
+   * thread.
+   * </p>
+   *
+   * @param capacity number of slots in the ring buffer, a positive power of two
+   * @param waitStrategy non-null, how the dedicated thread waits when idle
+   * @return new instance with its thread already started
+   * @throws IllegalArgumentException if capacity is not a positive power of two
+   */
+  public static Dispatcher ringBuffer(int capacity, WaitStrategy waitStrategy) {
+    return new RingBufferDispatcher(capacity, waitStrategy);
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.ThreadSafe;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Produces named Deferreds whose fulfillments are recorded in a journal on
+ * disk, so that a workflow restarted after the JVM exits can skip the steps
+ * it already finished.
+ * <p>
+ * Fulfilling a Deferred from {@link #defer(String, ValueCodec)} first
+ * encodes the value and appends it to the journal, forcing it to disk, and
+ * only then fulfills the Promise. When the journal is opened again, asking
+ * for a Deferred with a recorded name gives one which is already fulfilled
+ * with the recorded value. {@link #step(String, ValueCodec, NullCallback)}
+ * wraps this up, only starting the work if its name has no value recorded.
+ * </p>
+ * <p>
+ * Rejections are not recorded: a step which failed is tried again after a
+ * restart. Names stay recorded until forgotten, typically once the whole
+ * workflow has finished. The journal is memory-mapped and only appended to;
+ * it is compacted when opened if more of it is superseded or forgotten than
+ * live, or whenever {@link #compact()} is called.
+ * </p>
+ */
+@ThreadSafe
+public final class DurableCue implements AutoCloseable {
+  private final Cue cue;
+  private final Journal journal;
+  private final Logger log = Logger.getLogger(DurableCue.class.getName());
+
+  /**
+   * Opens the journal, creating it if it does not exist.
+   *
+   * @param cue not-null Cue producing the Deferreds
+   * @param journal not-null file holding the journal
+   * @throws IOException if the journal can't be opened
+   */
+  public DurableCue(Cue cue, Path journal) throws IOException {
+    if (cue == null) {
+      throw new NullPointerException("cue");
+    } else if (journal == null) {
+      throw new NullPointerException("journal");
+    }
+    this.cue = cue;
+    this.journal = new Journal(journal);
+  }
+
+  /**
+   * Produces a Deferred whose fulfillment is recorded under the name.
+   * <p>
+   * If a value is already recorded under the name, the Deferred is already
+   * fulfilled with it, or rejected with an IOException if the codec can't
+   * decode it. Otherwise fulfilling the Deferred records the value. If the
+   * value can't be encoded or recorded, the Deferred is rejected with the
+   * Exception instead.
+   * </p>
+   *
+   * @param name non-null name of the step
+   * @param codec non-null codec for the step's value
+   * @param <T> the type of the step's value
+   * @return new instance
+   */
+  public <T> Deferred<T> defer(String name, ValueCodec<T> codec) {
+    if (name == null) {
+      throw new NullPointerException("name");
+    } else if (codec == null) {
+      throw new NullPointerException("codec");
+    }
+
+    Deferred<T> deferred = cue.defer();
+    Journal.Entry entry = journal.lookup(name);
+    if (entry == null) {
+      return new JournaledDeferred<>(name, codec, deferred);
+    }
+    byte[] recorded = entry.value();
+    try {
+      deferred.resolve(recorded == null ? null : codec.decode(recorded));
+    } catch (IOException | RuntimeException e) {
+      deferred.reject(e);
+    }
+    return deferred;
+  }
+
+  /**
+   * Runs a step of a workflow, unless it has already been finished.
+   *
+   * @param name non-null name of the step
+   * @param codec non-null codec for the step's value
+   * @param work non-null callback starting the step, which is not invoked if
+   *             the step's value is already recorded
+   * @param <T> the type of the step's value
+   * @return new promise fulfilled with the recorded value, or with the
+   *   work's value once it has been recorded
+   */
+  public <T> Promise<T> step(String name, ValueCodec<T> codec, NullCallback<Promise<T>> work) {
+    if (work == null) {
+      throw new NullPointerException("work");
+    }
+
+    Deferred<T> deferred = defer(name, codec);
+    if (deferred instanceof JournaledDeferred) {
+      try {
+        Promise<T> promise = work.call();
+        if (promise == null) {
+          throw new NullPointerException("work returned a null Promise");
+        }
+        deferred.resolveFrom(promise);
+      } catch (Exception e) {
+        deferred.reject(e);
+      }
+    }
+    return deferred.promise();
+  }
+
+  /**
+   * @param name non-null name of the step
+   * @return true if a value is recorded under the name
+   */
+  public boolean completed(String name) {
+    if (name == null) {
+      throw new NullPointerException("name");
+    }
+    return journal.contains(name);
+  }
+
+  /**
+   * Durably removes the value recorded under the name, if there is one, so
+   * the step would run again.
+   *
+   * @param name non-null name of the step
+   * @throws IOException if the journal can't be written
+   */
+  public void forget(String name) throws IOException {
+    if (name == null) {
+      throw new NullPointerException("name");
+    }
+    journal.forget(name);
+  }
+
+  /**
+   * Rewrites the journal with only the values still recorded.
+   *
+   * @throws IOException if the journal can't be rewritten
+   */
+  public void compact() throws IOException {
+    journal.compact();
+  }
+
+  /**
+   * @return the number of bytes of records in the journal
+   */
+  long journalSize() {
+    return journal.size();
+  }
+
+  @Override
+  public void close() {
+    try {
+      journal.close();
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed to close journal", e);
+    }
+  }
+
+  /**
+   * Records the first fulfillment before passing it on. Later resolutions
+   * are ignored, as they would be by the Deferred itself.
+   */
+  private final class JournaledDeferred<T> implements Deferred<T> {
+    private final String name;
+    private final ValueCodec<T> codec;
+    private final Deferred<T> deferred;
+    private final AtomicBoolean resolved = new AtomicBoolean();
+
+    private JournaledDeferred(String name, ValueCodec<T> codec, Deferred<T> deferred) {
+      this.name = name;
+      this.codec = codec;
+      this.deferred = deferred;
+    }
+
+    @Override
+    public void resolve(T t) {
+      if (!resolved.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        journal.record(name, t == null ? null : codec.encode(t));
+      } catch (IOException | RuntimeException e) {
+        log.log(Level.WARNING, "Failed to record " + name + " in journal", e);
+        deferred.reject(e);
+        return;
+      }
+      deferred.resolve(t);
+    }
+
+    @Override
+    public void resolveFrom(Promise<T> tPromise) {
+      if (tPromise == null) {
+        throw new NullPointerException("tPromise");
+      } else if (tPromise == deferred.promise()) {
+        throw new IllegalArgumentException("Cannot resolve a Deferred with its own Promise");
+      }
+      PromiseImpl.observe(tPromise, this::resolve, this::reject);
+    }
+
+    @Override
+    public void reject() {
+      reject(null);
+    }
+
+    @Override
+    public void reject(Exception e) {
+      if (resolved.compareAndSet(false, true)) {
+        deferred.reject(e);
+      }
+    }
+
+    @Override
+    public Deferred<T> withPriority(int priority) {
+      deferred.withPriority(priority);
+      return this;
+    }
+
+    @Override
+    public Deferred<T> withDeadline(long timeout, TimeUnit unit) {
+      deferred.withDeadline(timeout, unit);
+      return this;
+    }
+
+    @Override
+    public Deferred<T> withTenant(Object tenant) {
+      deferred.withTenant(tenant);
+      return this;
+    }
+
+    @Override
+    public Promise<T> promise() {
+      return deferred.promise();
+    }
+  }
+}
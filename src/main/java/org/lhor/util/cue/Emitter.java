@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+/**
+ * The producer's interface to an {@link AsyncStream}, much as a Deferred is
+ * the producer's interface to a Promise.
+ * <p>
+ * An Emitter holds a bounded number of values which have been emitted but not
+ * yet requested by the stream's consumer. Once it is full, the Promise
+ * returned by {@link #emit(Object)} is not resolved until the consumer has
+ * made room, so a producer which waits on that Promise before emitting its
+ * next value will never get further ahead of the consumer than the capacity
+ * allows.
+ * </p>
+ * <pre>
+ * Emitter&lt;Row&gt; emitter = cue.emitter(64);
+ * readRows(cursor, emitter);  // emits each row after the last emit resolves
+ * return emitter.stream();
+ * </pre>
+ *
+ * @param <T> the type of values in the stream
+ */
+public interface Emitter<T> {
+  /**
+   * Adds a value to the end of the stream.
+   * <p>
+   * The returned Promise is fulfilled once the value has been accepted, which
+   * is immediately unless the Emitter is full. If the Emitter was already
+   * completed or failed, the returned Promise is rejected with an
+   * {@link IllegalStateException} and the value is discarded.
+   * </p>
+   *
+   * @param value non-null value to add
+   * @return a Promise fulfilled once the value is accepted
+   * @throws NullPointerException if the value is null
+   */
+  Promise<Void> emit(T value);
+
+  /**
+   * Ends the stream once the consumer has received every value already
+   * emitted.
+   * <p>
+   * If the Emitter was already completed or failed, this will have no effect.
+   * </p>
+   */
+  void complete();
+
+  /**
+   * Ends the stream with the given rejection reason once the consumer has
+   * received every value already emitted.
+   * <p>
+   * If the Emitter was already completed or failed, this will have no effect.
+   * </p>
+   *
+   * @param reason nullable reason for ending the stream
+   */
+  void fail(Exception reason);
+
+  /**
+   * Returns the stream of emitted values.
+   * <p>
+   * As with {@link Deferred#promise()}, every invocation returns a view of the
+   * same values, so a value is only ever delivered once.
+   * </p>
+   *
+   * @return a non-null stream
+   */
+  AsyncStream<T> stream();
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Optional;
+
+
+/**
+ * Emitted values wait in a bounded buffer until requested. Emits which find the
+ * buffer full wait in line with their Deferreds, and each value taken from the
+ * buffer lets the oldest of them in.
+ * <p>
+ * Deferreds are only resolved after the lock has been released.
+ * </p>
+ *
+ * @param <T> the type of values in the stream
+ */
+@ThreadSafe
+final class EmitterImpl<T> implements Emitter<T> {
+  private final Cue cue;
+  private final int capacity;
+  private final AsyncStream<T> stream;
+
+  @GuardedBy("this")
+  private final ArrayDeque<T> buffer = new ArrayDeque<>();
+  /** Emits which found the buffer full, in the order they were made */
+  @GuardedBy("this")
+  private final ArrayDeque<PendingEmit<T>> pendingEmits = new ArrayDeque<>();
+  /** Requests which found the buffer empty, in the order they were made */
+  @GuardedBy("this")
+  private final ArrayDeque<Deferred<Optional<T>>> pendingRequests = new ArrayDeque<>();
+  @GuardedBy("this")
+  private boolean ended;
+  @GuardedBy("this")
+  private Exception failure;
+
+  private static final class PendingEmit<T> {
+    private final T value;
+    private final Deferred<Void> deferred;
+
+    PendingEmit(T value, Deferred<Void> deferred) {
+      this.value = value;
+      this.deferred = deferred;
+    }
+  }
+
+  EmitterImpl(Cue cue, int capacity) {
+    if (cue == null) {
+      throw new NullPointerException("cue");
+    } else if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+    }
+    this.cue = cue;
+    this.capacity = capacity;
+    this.stream = new Stream(cue);
+  }
+
+  @Override
+  public Promise<Void> emit(T value) {
+    if (value == null) {
+      throw new NullPointerException("value");
+    }
+
+    Deferred<Optional<T>> request;
+    synchronized (this) {
+      if (ended) {
+        return cue.reject(new IllegalStateException("Emitter has already ended"));
+      }
+      request = pendingRequests.poll();
+      if (request == null) {
+        if (buffer.size() < capacity) {
+          buffer.add(value);
+        } else {
+          Deferred<Void> deferred = cue.defer();
+          pendingEmits.add(new PendingEmit<>(value, deferred));
+          return deferred.promise();
+        }
+      }
+    }
+    if (request != null) {
+      request.resolve(Optional.of(value));
+    }
+    return cue.when(null);
+  }
+
+  @Override
+  public void complete() {
+    end(null);
+  }
+
+  @Override
+  public void fail(Exception reason) {
+    end(reason == null ? RejectedException.wrap(null) : reason);
+  }
+
+  private void end(Exception reason) {
+    ArrayList<Deferred<Optional<T>>> requests;
+    synchronized (this) {
+      if (ended) {
+        return;
+      }
+      ended = true;
+      failure = reason;
+      // Requests only wait while the buffer is empty, so none of these will
+      // ever receive a value
+      requests = new ArrayList<>(pendingRequests);
+      pendingRequests.clear();
+    }
+    for (Deferred<Optional<T>> request : requests) {
+      if (reason == null) {
+        request.resolve(Optional.empty());
+      } else {
+        request.reject(reason);
+      }
+    }
+  }
+
+  @Override
+  public AsyncStream<T> stream() {
+    return stream;
+  }
+
+  private final class Stream extends AbstractAsyncStream<T> {
+    Stream(Cue cue) {
+      super(cue);
+    }
+
+    @Override
+    public Promise<Optional<T>> next() {
+      T value;
+      PendingEmit<T> admitted;
+      synchronized (EmitterImpl.this) {
+        value = buffer.poll();
+        if (value == null) {
+          if (ended) {
+            return failure == null ? cue.when(Optional.empty()) : cue.reject(failure);
+          }
+          Deferred<Optional<T>> deferred = cue.defer();
+          pendingRequests.add(deferred);
+          return deferred.promise();
+        }
+        admitted = pendingEmits.poll();
+        if (admitted != null) {
+          buffer.add(admitted.value);
+        }
+      }
+      if (admitted != null) {
+        admitted.deferred.resolve(null);
+      }
+      return cue.when(Optional.of(value));
+    }
+  }
+}
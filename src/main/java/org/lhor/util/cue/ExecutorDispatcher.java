@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.Immutable;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * The default Dispatcher, which submits every task to the Cue thread pool.
+ */
+@Immutable
+final class ExecutorDispatcher implements Dispatcher {
+  private final ExecutorService executorService;
+  private final Logger log = Logger.getLogger(ExecutorDispatcher.class.getName());
+
+  ExecutorDispatcher(ExecutorService executorService) {
+    if (executorService == null) {
+      throw new NullPointerException("executorService");
+    }
+    this.executorService = executorService;
+  }
+
+  @Override
+  public void dispatch(Runnable task) {
+    executorService.submit(task);
+  }
+
+  /**
+   * Rather than one pool task per task, a handful of pool tasks share an index
+   * into the list and each claims the next unclaimed task until none remain.
+   */
+  @Override
+  public void dispatchAll(List<Runnable> tasks) {
+    if (tasks.size() <= 1) {
+      tasks.forEach(this::dispatch);
+      return;
+    }
+    AtomicInteger next = new AtomicInteger();
+    int workers = Math.min(tasks.size(), parallelism(executorService));
+    for (int i = 0; i < workers; i++) {
+      Runnable drainer = () -> {
+        for (int index = next.getAndIncrement(); index < tasks.size(); index = next.getAndIncrement()) {
+          try {
+            tasks.get(index).run();
+          } catch (RuntimeException e) {
+            // Keep going, the rest of the tasks still need to run
+            log.log(Level.WARNING, "Dispatched task threw an exception", e);
+          }
+        }
+      };
+      try {
+        executorService.submit(drainer);
+      } catch (RejectedExecutionException e) {
+        if (i == 0) {
+          throw e;
+        }
+        // The pool tasks already submitted will get through every task between them
+        break;
+      }
+    }
+  }
+
+  /**
+   * @return the number of tasks the thread pool is expected to run at the same time
+   */
+  static int parallelism(ExecutorService executorService) {
+    if (executorService instanceof ForkJoinPool) {
+      return ((ForkJoinPool) executorService).getParallelism();
+    }
+    return Runtime.getRuntime().availableProcessors();
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.util.Map;
+
+
+/**
+ * A Dispatcher which shares its threads between tenants, as tagged with
+ * {@link Deferred#withTenant(Object)}, rather than running callbacks in the
+ * order they became ready. Produced by {@link Dispatchers#fairShare}.
+ */
+public interface FairShareDispatcher extends Dispatcher {
+  /**
+   * Returns how many ready callbacks are waiting for a thread, per tenant.
+   * <p>
+   * Only tenants with callbacks waiting are included. Callbacks of chains
+   * without a tenant are counted under a null key. The map is a snapshot and
+   * is not updated as callbacks run.
+   * </p>
+   *
+   * @return non-null, unmodifiable map of tenant to number of waiting callbacks
+   */
+  Map<Object, Integer> queueDepths();
+
+  /**
+   * @return true, since each stage of a chain must wait for its tenant's turn
+   */
+  @Override
+  default boolean ordersCallbacks() {
+    return true;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.util.Optional;
+
+
+/**
+ * A request may need to pull several values from the source before one passes
+ * the predicate, so requests are answered one after another. Otherwise a later
+ * request could find a matching value before an earlier one and the values
+ * would be handed out of order.
+ *
+ * @param <T> the type of values in the stream
+ */
+@ThreadSafe
+final class FilteredAsyncStream<T> extends AbstractAsyncStream<T> {
+  private final AsyncStream<T> source;
+  private final Callback<T, Boolean> predicate;
+
+  /** The most recent request, which the next request must wait for */
+  @GuardedBy("this")
+  private Promise<Optional<T>> last;
+
+  /** Set once the predicate fails, ending the stream for every later request */
+  private volatile Exception failure;
+
+  FilteredAsyncStream(Cue cue, AsyncStream<T> source, Callback<T, Boolean> predicate) {
+    super(cue);
+    this.source = source;
+    this.predicate = predicate;
+  }
+
+  @Override
+  public Promise<Optional<T>> next() {
+    Deferred<Optional<T>> deferred = cue.defer();
+    Promise<Optional<T>> previous;
+    synchronized (this) {
+      previous = last;
+      last = deferred.promise();
+    }
+    if (previous == null) {
+      pull(deferred);
+    } else {
+      // The previous request's outcome doesn't matter, only that it is finished
+      PromiseImpl.observe(previous, value -> pull(deferred), reason -> pull(deferred));
+    }
+    return deferred.promise();
+  }
+
+  private void pull(Deferred<Optional<T>> deferred) {
+    if (failure != null) {
+      deferred.reject(failure);
+      return;
+    }
+    PromiseImpl.observe(source.next(), value -> {
+      boolean matches;
+      try {
+        matches = !value.isPresent() || Boolean.TRUE.equals(predicate.call(value.get()));
+      } catch (Exception e) {
+        failure = e;
+        deferred.reject(e);
+        return;
+      }
+      if (matches) {
+        deferred.resolve(value);
+      } else {
+        pull(deferred);
+      }
+    }, deferred::reject);
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Optional;
+
+
+/**
+ * Merges the inner streams by requesting a value from an inner stream only
+ * when there is a consumer waiting for one that no outstanding request will
+ * satisfy. New inner streams are only opened when the open ones can't keep
+ * up, so at most <code>concurrency</code> inner requests are ever pending.
+ * <p>
+ * All bookkeeping is done while holding the lock, but Deferreds are resolved
+ * and streams are pulled from only after it is released.
+ * </p>
+ *
+ * @param <I> the type of values in the source stream
+ * @param <O> the type of values in the inner streams
+ */
+@ThreadSafe
+final class FlatMappedAsyncStream<I, O> extends AbstractAsyncStream<O> {
+  private final AsyncStream<I> source;
+  private final Callback<I, AsyncStream<O>> callback;
+  private final int concurrency;
+
+  /** Consumer requests which have not been answered */
+  @GuardedBy("this")
+  private final ArrayDeque<Deferred<Optional<O>>> waiting = new ArrayDeque<>();
+  /** Values received from inner streams which have not been handed out */
+  @GuardedBy("this")
+  private final ArrayDeque<O> ready = new ArrayDeque<>();
+  /** Open inner streams which have no request outstanding */
+  @GuardedBy("this")
+  private final ArrayDeque<AsyncStream<O>> idle = new ArrayDeque<>();
+  /** The number of inner streams which have not ended */
+  @GuardedBy("this")
+  private int open;
+  /** The number of requests outstanding on inner streams */
+  @GuardedBy("this")
+  private int requesting;
+  @GuardedBy("this")
+  private boolean sourceRequested;
+  @GuardedBy("this")
+  private boolean sourceEnded;
+  @GuardedBy("this")
+  private Exception failure;
+
+  FlatMappedAsyncStream(Cue cue, AsyncStream<I> source, Callback<I, AsyncStream<O>> callback, int concurrency) {
+    super(cue);
+    this.source = source;
+    this.callback = callback;
+    this.concurrency = concurrency;
+  }
+
+  @Override
+  public Promise<Optional<O>> next() {
+    Deferred<Optional<O>> deferred = cue.defer();
+    synchronized (this) {
+      waiting.add(deferred);
+    }
+    drain();
+    return deferred.promise();
+  }
+
+  private void drain() {
+    ArrayList<Runnable> actions = new ArrayList<>();
+    synchronized (this) {
+      while (!waiting.isEmpty() && !ready.isEmpty()) {
+        Deferred<Optional<O>> deferred = waiting.poll();
+        Optional<O> value = Optional.of(ready.poll());
+        actions.add(() -> deferred.resolve(value));
+      }
+
+      if (failure != null) {
+        Exception reason = failure;
+        waiting.forEach(deferred -> actions.add(() -> deferred.reject(reason)));
+        waiting.clear();
+      } else if (sourceEnded && open == 0) {
+        waiting.forEach(deferred -> actions.add(() -> deferred.resolve(Optional.empty())));
+        waiting.clear();
+      } else {
+        int demand = waiting.size() - requesting;
+        while (demand > 0 && !idle.isEmpty()) {
+          AsyncStream<O> inner = idle.poll();
+          requesting++;
+          demand--;
+          actions.add(() -> request(inner));
+        }
+        if (demand > 0 && open < concurrency && !sourceEnded && !sourceRequested) {
+          sourceRequested = true;
+          actions.add(this::requestSource);
+        }
+      }
+    }
+    actions.forEach(Runnable::run);
+  }
+
+  private void requestSource() {
+    PromiseImpl.observe(source.next(), value -> {
+      AsyncStream<O> inner = null;
+      Exception error = null;
+      if (value.isPresent()) {
+        try {
+          inner = callback.call(value.get());
+          if (inner == null) {
+            throw new NullPointerException("callback returned a null AsyncStream");
+          }
+        } catch (Exception e) {
+          error = e;
+        }
+      }
+
+      synchronized (this) {
+        sourceRequested = false;
+        if (error != null) {
+          fail(error);
+        } else if (inner == null) {
+          sourceEnded = true;
+        } else {
+          open++;
+          idle.add(inner);
+        }
+      }
+      drain();
+    }, reason -> {
+      synchronized (this) {
+        sourceRequested = false;
+        fail(reason);
+      }
+      drain();
+    });
+  }
+
+  private void request(AsyncStream<O> inner) {
+    PromiseImpl.observe(inner.next(), value -> {
+      synchronized (this) {
+        requesting--;
+        if (value.isPresent()) {
+          ready.add(value.get());
+          idle.add(inner);
+        } else {
+          open--;
+        }
+      }
+      drain();
+    }, reason -> {
+      synchronized (this) {
+        requesting--;
+        open--;
+        fail(reason);
+      }
+      drain();
+    });
+  }
+
+  @GuardedBy("this")
+  private void fail(Exception reason) {
+    if (failure == null) {
+      failure = reason == null ? RejectedException.wrap(null) : reason;
+    }
+  }
+}
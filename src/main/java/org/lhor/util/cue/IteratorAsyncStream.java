@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.util.Iterator;
+import java.util.Optional;
+
+
+@ThreadSafe
+final class IteratorAsyncStream<T> extends AbstractAsyncStream<T> {
+  @GuardedBy("this")
+  private final Iterator<? extends T> iterator;
+  @GuardedBy("this")
+  private Exception failure;
+
+  IteratorAsyncStream(Cue cue, Iterator<? extends T> iterator) {
+    super(cue);
+    if (iterator == null) {
+      throw new NullPointerException("iterator");
+    }
+    this.iterator = iterator;
+  }
+
+  @Override
+  public synchronized Promise<Optional<T>> next() {
+    if (failure != null) {
+      return cue.reject(failure);
+    }
+    try {
+      if (!iterator.hasNext()) {
+        return cue.when(Optional.empty());
+      }
+      return cue.when(present(iterator.next()));
+    } catch (Exception e) {
+      failure = e;
+      return cue.reject(e);
+    }
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+
+/**
+ * An append-only, memory-mapped log of named values, replayed into memory
+ * when opened.
+ * <p>
+ * Each record is a four byte body length, a four byte CRC32 of the body, and
+ * the body: a four byte name length, the UTF-8 name, a kind byte, and the
+ * value's bytes. A record is written body first and length last, then the
+ * mapping is forced. Replay stops at the first length of zero, which is
+ * where the zero-filled end of the mapping begins, or at the first record
+ * which doesn't fit or whose CRC doesn't match, which is a record torn by a
+ * crash; anything after it is discarded.
+ * </p>
+ * <p>
+ * Forgetting a name appends a tombstone. Records which have been superseded
+ * or forgotten are dead; compacting writes the live records to a new file
+ * and renames it over the journal.
+ * </p>
+ */
+@ThreadSafe
+final class Journal implements AutoCloseable {
+  /** The smallest mapping, which is doubled whenever it fills up */
+  static final int MIN_SIZE = 64 * 1024;
+
+  private static final int HEADER = 8;
+  private static final byte VALUE = 0;
+  private static final byte NULL = 1;
+  private static final byte FORGOTTEN = 2;
+
+  private final Path path;
+
+  @GuardedBy("this")
+  private FileChannel channel;
+  @GuardedBy("this")
+  private MappedByteBuffer mapped;
+  @GuardedBy("this")
+  private final Map<String, Entry> entries = new HashMap<>();
+  /** The bytes taken by records which are superseded or forgotten */
+  @GuardedBy("this")
+  private long deadBytes;
+
+  /** A recorded value, and the bytes its record takes */
+  static final class Entry {
+    /** Null for a null value */
+    private final byte[] value;
+    private final int recordSize;
+
+    private Entry(byte[] value, int recordSize) {
+      this.value = value;
+      this.recordSize = recordSize;
+    }
+
+    /**
+     * @return the value's bytes, or null for a null value
+     */
+    byte[] value() {
+      return value;
+    }
+  }
+
+  /**
+   * Opens the journal, creating it if it does not exist, and compacts it if
+   * more of it is dead than live.
+   */
+  Journal(Path path) throws IOException {
+    this.path = path;
+    synchronized (this) {
+      open();
+      if (deadBytes > mapped.position() - deadBytes) {
+        compact();
+      }
+    }
+  }
+
+  synchronized boolean contains(String name) {
+    return entries.containsKey(name);
+  }
+
+  /**
+   * Looks up the name's entry under one lock, so a value forgotten between
+   * checking for it and reading it can't be read as a recorded null.
+   *
+   * @return the entry recorded for the name, or null if nothing is
+   */
+  synchronized Entry lookup(String name) {
+    return entries.get(name);
+  }
+
+  /**
+   * Durably records the value for the name, replacing any value recorded
+   * for it before.
+   *
+   * @param value the value's bytes, or null for a null value
+   */
+  synchronized void record(String name, byte[] value) throws IOException {
+    int size = append(body(name, value == null ? NULL : VALUE, value));
+    Entry old = entries.put(name, new Entry(value, size));
+    if (old != null) {
+      deadBytes += old.recordSize;
+    }
+  }
+
+  /**
+   * Durably removes the name's value, if there is one.
+   */
+  synchronized void forget(String name) throws IOException {
+    Entry old = entries.get(name);
+    if (old == null) {
+      return;
+    }
+    int size = append(body(name, FORGOTTEN, null));
+    entries.remove(name);
+    deadBytes += old.recordSize + size;
+  }
+
+  /**
+   * Rewrites the journal with only its live records.
+   */
+  synchronized void compact() throws IOException {
+    Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+    try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        byte[] value = entry.getValue().value;
+        ByteBuffer record = record(body(entry.getKey(), value == null ? NULL : VALUE, value));
+        while (record.hasRemaining()) {
+          out.write(record);
+        }
+      }
+      out.force(true);
+    }
+    Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    channel.close();
+    open();
+  }
+
+  /**
+   * @return the number of bytes of records in the journal, live and dead
+   */
+  synchronized long size() {
+    return mapped.position();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    mapped.force();
+    channel.close();
+  }
+
+  @GuardedBy("this")
+  private void open() throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long size = Math.max(channel.size(), MIN_SIZE);
+    if (size > Integer.MAX_VALUE) {
+      channel.close();
+      throw new IOException("Journal is too large to map: " + path);
+    }
+    mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    replay();
+  }
+
+  @GuardedBy("this")
+  private void replay() {
+    entries.clear();
+    deadBytes = 0;
+
+    int position = 0;
+    while (mapped.capacity() - position >= HEADER) {
+      int length = mapped.getInt(position);
+      if (length <= 0 || length > mapped.capacity() - position - HEADER) {
+        break;
+      }
+      byte[] body = new byte[length];
+      mapped.position(position + HEADER);
+      mapped.get(body);
+      if (crc(body) != mapped.getInt(position + 4)) {
+        break;
+      }
+      apply(body, HEADER + length);
+      position += HEADER + length;
+    }
+
+    if (mapped.capacity() - position >= HEADER && mapped.getInt(position) != 0) {
+      // A torn record, clear it so it can't be mistaken for part of the next one
+      for (int i = position; i < mapped.capacity(); i++) {
+        mapped.put(i, (byte) 0);
+      }
+    }
+    mapped.position(position);
+  }
+
+  @GuardedBy("this")
+  private void apply(byte[] body, int recordSize) {
+    ByteBuffer buffer = ByteBuffer.wrap(body);
+    byte[] name = new byte[buffer.getInt()];
+    buffer.get(name);
+    byte kind = buffer.get();
+    byte[] value = new byte[buffer.remaining()];
+    buffer.get(value);
+
+    String key = new String(name, StandardCharsets.UTF_8);
+    Entry old;
+    if (kind == FORGOTTEN) {
+      old = entries.remove(key);
+      deadBytes += recordSize;
+    } else {
+      old = entries.put(key, new Entry(kind == NULL ? null : value, recordSize));
+    }
+    if (old != null) {
+      deadBytes += old.recordSize;
+    }
+  }
+
+  /**
+   * @return the size of the appended record
+   */
+  @GuardedBy("this")
+  private int append(byte[] body) throws IOException {
+    int size = HEADER + body.length;
+    if (mapped.remaining() < size + HEADER) {
+      long grown = Math.max((long) mapped.capacity() * 2, (long) mapped.position() + size + HEADER);
+      if (grown > Integer.MAX_VALUE) {
+        throw new IOException("Journal is too large to map: " + path);
+      }
+      int position = mapped.position();
+      mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, grown);
+      mapped.position(position);
+    }
+
+    int start = mapped.position();
+    mapped.position(start + HEADER);
+    mapped.put(body);
+    mapped.putInt(start + 4, crc(body));
+    mapped.putInt(start, body.length);
+    mapped.force();
+    return size;
+  }
+
+  private static byte[] body(String name, byte kind, byte[] value) {
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    int valueLength = value == null ? 0 : value.length;
+    ByteBuffer body = ByteBuffer.allocate(4 + nameBytes.length + 1 + valueLength);
+    body.putInt(nameBytes.length).put(nameBytes).put(kind);
+    if (value != null) {
+      body.put(value);
+    }
+    return body.array();
+  }
+
+  private static ByteBuffer record(byte[] body) {
+    ByteBuffer record = ByteBuffer.allocate(HEADER + body.length);
+    record.putInt(body.length).putInt(crc(body)).put(body);
+    record.flip();
+    return record;
+  }
+
+  private static int crc(byte[] body) {
+    CRC32 crc = new CRC32();
+    crc.update(body, 0, body.length);
+    return (int) crc.getValue();
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Runs tasks one at a time per key, in the order they were dispatched, on a
+ * shared thread pool.
+ * <p>
+ * Each key with tasks waiting has a mailbox: a queue, and a flag for whether
+ * a pool task is draining it. A mailbox is only ever drained by one pool task
+ * at a time, which runs a limited number of tasks before handing the thread
+ * back to the pool and resubmitting itself, so a busy key can't hold a thread
+ * forever. If the pool refuses the mailbox, whether when it is first
+ * submitted or resubmitted, the tasks left in it are aborted. Mailboxes exist
+ * only while they have tasks waiting. Creating, scheduling and discarding a mailbox all happen inside the map's
+ * <code>compute</code>, so a task can't be added to a mailbox which is being
+ * discarded, and a mailbox can't be left with tasks and no pool task, even
+ * if a task throws an Error.
+ * </p>
+ */
+@ThreadSafe
+final class KeyedMailboxes {
+  /** The most tasks a mailbox runs before giving its thread back to the pool */
+  static final int BATCH = 32;
+
+  private final ExecutorService executorService;
+  private final ConcurrentHashMap<Object, Mailbox> mailboxes = new ConcurrentHashMap<>();
+  private final Logger log = Logger.getLogger(KeyedMailboxes.class.getName());
+
+  private final class Mailbox implements Runnable {
+    private final Object key;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /** Whether a pool task has been submitted to drain the mailbox */
+    @GuardedBy("mailboxes")
+    private boolean scheduled;
+
+    private Mailbox(Object key) {
+      this.key = key;
+    }
+
+    @Override
+    public void run() {
+      try {
+        for (int i = 0; i < BATCH; i++) {
+          Runnable task = tasks.poll();
+          if (task == null) {
+            break;
+          }
+          try {
+            task.run();
+          } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Dispatched task threw an exception", e);
+          }
+        }
+      } finally {
+        reschedule();
+      }
+    }
+
+    /**
+     * Discards the mailbox if it is empty, or resubmits it.
+     */
+    private void reschedule() {
+      boolean[] more = new boolean[1];
+      mailboxes.compute(key, (k, mailbox) -> {
+        if (tasks.isEmpty()) {
+          scheduled = false;
+          return null;
+        }
+        more[0] = true;
+        return mailbox;
+      });
+      if (!more[0]) {
+        return;
+      }
+
+      try {
+        schedule(this);
+      } catch (RejectedExecutionException e) {
+        refused(e, null);
+      }
+    }
+
+    /**
+     * Discards the mailbox after the pool refused it, aborting every task in
+     * it, since nothing else would ever run them.
+     *
+     * @param except nullable task left out, because the refusal is thrown at
+     *               whoever dispatched it
+     */
+    private void refused(RejectedExecutionException reason, Runnable except) {
+      List<Runnable> refused = new ArrayList<>();
+      mailboxes.computeIfPresent(key, (k, mailbox) -> {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          refused.add(task);
+        }
+        scheduled = false;
+        return null;
+      });
+      for (Runnable task : refused) {
+        if (task == except) {
+          continue;
+        } else if (task instanceof Abortable) {
+          ((Abortable) task).abort(reason);
+        } else {
+          log.log(Level.WARNING, "Thread pool refused mailbox, dropping its task", reason);
+        }
+      }
+    }
+  }
+
+  KeyedMailboxes(ExecutorService executorService) {
+    if (executorService == null) {
+      throw new NullPointerException("executorService");
+    }
+    this.executorService = executorService;
+  }
+
+  /**
+   * @param key non-null key, compared with equals
+   * @return a Dispatcher which runs its tasks one at a time with every other
+   *         task dispatched for an equal key
+   */
+  Dispatcher dispatcher(Object key) {
+    if (key == null) {
+      throw new NullPointerException("key");
+    }
+    return task -> dispatch(key, task);
+  }
+
+  /**
+   * @return the number of keys with tasks waiting or running
+   */
+  int size() {
+    return mailboxes.size();
+  }
+
+  private void dispatch(Object key, Runnable task) {
+    if (task == null) {
+      throw new NullPointerException("task");
+    }
+
+    Mailbox[] toSchedule = new Mailbox[1];
+    mailboxes.compute(key, (k, mailbox) -> {
+      if (mailbox == null) {
+        mailbox = new Mailbox(k);
+      }
+      mailbox.tasks.add(task);
+      if (!mailbox.scheduled) {
+        mailbox.scheduled = true;
+        toSchedule[0] = mailbox;
+      }
+      return mailbox;
+    });
+    if (toSchedule[0] != null) {
+      try {
+        schedule(toSchedule[0]);
+      } catch (RejectedExecutionException e) {
+        // Tasks dispatched meanwhile saw the mailbox scheduled and returned
+        toSchedule[0].refused(e, task);
+        throw e;
+      }
+    }
+  }
+
+  private void schedule(Mailbox mailbox) {
+    executorService.execute(mailbox);
+  }
+}
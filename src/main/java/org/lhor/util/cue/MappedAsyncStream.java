@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.ThreadSafe;
+import java.util.Optional;
+
+
+@ThreadSafe
+final class MappedAsyncStream<I, O> extends AbstractAsyncStream<O> {
+  private final AsyncStream<I> source;
+  private final Callback<I, O> callback;
+
+  /** Set once the callback fails, ending the stream for every later request */
+  private volatile Exception failure;
+
+  MappedAsyncStream(Cue cue, AsyncStream<I> source, Callback<I, O> callback) {
+    super(cue);
+    this.source = source;
+    this.callback = callback;
+  }
+
+  @Override
+  public Promise<Optional<O>> next() {
+    return source.next().then((Optional<I> value) -> {
+      if (failure != null) {
+        throw failure;
+      } else if (!value.isPresent()) {
+        return Optional.<O>empty();
+      }
+      try {
+        return present(callback.call(value.get()));
+      } catch (Exception e) {
+        failure = e;
+        throw e;
+      }
+    });
+  }
+}
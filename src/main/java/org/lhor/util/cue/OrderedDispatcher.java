@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * A Dispatcher which runs the ready task with the lowest key first, where the
+ * key is decided by the subclass from the task's {@link Schedule}.
+ * <p>
+ * Every dispatch submits one task to the thread pool, but that pool task runs
+ * whichever ready task has the lowest key at the time, not necessarily the one
+ * it was submitted for. Since each pool task runs exactly one ready task,
+ * every ready task is run. Tasks with equal keys run in the order they were
+ * dispatched.
+ * </p>
+ */
+@ThreadSafe
+abstract class OrderedDispatcher implements Dispatcher {
+  private final ExecutorService executorService;
+  /** Keys are kept relative to this so they can be compared without overflowing */
+  private final long origin = System.nanoTime();
+  private final PriorityBlockingQueue<Entry> ready = new PriorityBlockingQueue<>();
+  private final AtomicLong sequence = new AtomicLong();
+  private final Logger log = Logger.getLogger(getClass().getName());
+
+  @Immutable
+  private static final class Entry implements Comparable<Entry> {
+    private final Runnable task;
+    private final long key;
+    private final long sequence;
+
+    private Entry(Runnable task, long key, long sequence) {
+      this.task = task;
+      this.key = key;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Entry other) {
+      int byKey = Long.compare(key, other.key);
+      return byKey != 0 ? byKey : Long.compare(sequence, other.sequence);
+    }
+  }
+
+  protected OrderedDispatcher(ExecutorService executorService) {
+    if (executorService == null) {
+      throw new NullPointerException("executorService");
+    }
+    this.executorService = executorService;
+  }
+
+  /**
+   * @param schedule the schedule of the task's chain
+   * @param now the System.nanoTime() the task became ready
+   * @return the key in terms of System.nanoTime(), lowest runs first
+   */
+  protected abstract long key(Schedule schedule, long now);
+
+  @Override
+  public boolean ordersCallbacks() {
+    return true;
+  }
+
+  @Override
+  public void dispatch(Runnable task) {
+    if (task == null) {
+      throw new NullPointerException("task");
+    }
+
+    Entry entry = new Entry(task, key(Schedule.of(task), System.nanoTime()) - origin, sequence.getAndIncrement());
+    ready.add(entry);
+    try {
+      executorService.execute(this::runNext);
+    } catch (RejectedExecutionException e) {
+      ready.remove(entry);
+      throw e;
+    }
+  }
+
+  private void runNext() {
+    Entry entry = ready.poll();
+    if (entry == null) {
+      return;
+    }
+    try {
+      entry.task.run();
+    } catch (RuntimeException e) {
+      log.log(Level.WARNING, "Dispatched task threw an exception", e);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.ThreadSafe;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Applies a callback to every element of an array in the style of a fork/join
+ * RecursiveTask, but on any ExecutorService.
+ * <p>
+ * A task which is handed a range larger than the threshold splits off its upper
+ * half as a new task and keeps halving what is left until its own share is
+ * small enough to run. The threshold is chosen so there are several chunks per
+ * thread, which lets threads which finish early pick up the remaining chunks.
+ * Results are written straight into a presized array, and whichever task
+ * finishes the last element resolves the Deferred. If the pool refuses a
+ * chunk, the Deferred is rejected with the RejectedExecutionException and
+ * the chunks already running stop at their next element.
+ * </p>
+ *
+ * @param <T> input type
+ * @param <O> output type
+ */
+@ThreadSafe
+final class ParallelMap<T, O> {
+  /** Roughly how many chunks to create for each thread in the pool */
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private final ExecutorService executorService;
+  private final T[] inputs;
+  private final Object[] outputs;
+  private final Callback<T, O> callback;
+  private final Deferred<List<O>> deferred;
+  private final int threshold;
+  private final AtomicInteger remaining;
+  private final AtomicBoolean failed = new AtomicBoolean(false);
+
+  ParallelMap(ExecutorService executorService, T[] inputs, Callback<T, O> callback, Deferred<List<O>> deferred) {
+    this.executorService = executorService;
+    this.inputs = inputs;
+    this.outputs = new Object[inputs.length];
+    this.callback = callback;
+    this.deferred = deferred;
+    this.remaining = new AtomicInteger(inputs.length);
+    int chunks = ExecutorDispatcher.parallelism(executorService) * CHUNKS_PER_THREAD;
+    this.threshold = Math.max(1, inputs.length / chunks);
+  }
+
+  void start() {
+    if (inputs.length == 0) {
+      deferred.resolve(Collections.emptyList());
+      return;
+    }
+    fork(0, inputs.length);
+  }
+
+  private void fork(int from, int to) {
+    try {
+      executorService.submit(() -> compute(from, to));
+    } catch (RejectedExecutionException e) {
+      // As with any task the pool refuses, the whole map fails rather than running it here
+      if (failed.compareAndSet(false, true)) {
+        deferred.reject(e);
+      }
+    }
+  }
+
+  private void compute(int from, int to) {
+    while (to - from > threshold && !failed.get()) {
+      int middle = (from + to) >>> 1;
+      fork(middle, to);
+      to = middle;
+    }
+
+    for (int i = from; i < to; i++) {
+      if (failed.get()) {
+        return;
+      }
+      try {
+        outputs[i] = callback.call(inputs[i]);
+      } catch (Exception e) {
+        if (failed.compareAndSet(false, true)) {
+          deferred.reject(e);
+        }
+        return;
+      }
+    }
+
+    // The decrement publishes this chunk's writes to the thread that sees zero
+    if (remaining.addAndGet(from - to) == 0) {
+      resolve();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void resolve() {
+    // Every slot was written by the callback, so the array holds only O values
+    deferred.resolve(Collections.unmodifiableList(Arrays.asList((O[]) outputs)));
+  }
+}
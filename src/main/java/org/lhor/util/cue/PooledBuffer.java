@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+
+/**
+ * A direct ByteBuffer borrowed from a {@link BufferPool}, which goes back to
+ * the pool once every holder has released it.
+ * <p>
+ * A new PooledBuffer has a reference count of one, owned by whoever acquired
+ * it. Passing a PooledBuffer along a Promise chain, as the value of a
+ * <code>Promise&lt;PooledBuffer&gt;</code>, passes that reference: the
+ * callback receiving it must release it or hand it on. A holder which wants
+ * to keep the buffer while also handing it on must {@link #retain()} it
+ * first, and release its own reference when finished with it.
+ * </p>
+ * <p>
+ * Once released for the last time the ByteBuffer may be handed to someone
+ * else, so it must not be used again. Buffers which are never released are
+ * not returned to the pool; with leak detection on, the pool logs where they
+ * were acquired.
+ * </p>
+ */
+@ThreadSafe
+public final class PooledBuffer {
+  private static final AtomicIntegerFieldUpdater<PooledBuffer> REFERENCES =
+      AtomicIntegerFieldUpdater.newUpdater(PooledBuffer.class, "references");
+
+  private final BufferPool pool;
+  private final ByteBuffer buffer;
+  /** Set when the pool detects leaks, cleared on the last release */
+  private final BufferPool.Tracker tracker;
+  private volatile int references = 1;
+
+  PooledBuffer(BufferPool pool, ByteBuffer buffer) {
+    this.pool = pool;
+    this.buffer = buffer;
+    this.tracker = pool.track(this);
+  }
+
+  /**
+   * @return the ByteBuffer, positioned at 0 and limited to the capacity
+   *   asked for when it was acquired
+   * @throws IllegalStateException if the buffer has been released
+   */
+  public ByteBuffer buffer() {
+    if (references <= 0) {
+      throw new IllegalStateException("Buffer has been released");
+    }
+    return buffer;
+  }
+
+  /**
+   * Adds a reference, which must be released separately.
+   *
+   * @return this buffer
+   * @throws IllegalStateException if the buffer has been released
+   */
+  public PooledBuffer retain() {
+    int count;
+    do {
+      count = references;
+      if (count <= 0) {
+        throw new IllegalStateException("Buffer has been released");
+      }
+    } while (!REFERENCES.compareAndSet(this, count, count + 1));
+    return this;
+  }
+
+  /**
+   * Removes a reference, returning the buffer to its pool if it was the last.
+   *
+   * @return true if this was the last reference
+   * @throws IllegalStateException if the buffer has already been released
+   */
+  public boolean release() {
+    int count;
+    do {
+      count = references;
+      if (count <= 0) {
+        throw new IllegalStateException("Buffer has already been released");
+      }
+    } while (!REFERENCES.compareAndSet(this, count, count - 1));
+
+    if (count > 1) {
+      return false;
+    }
+    pool.recycle(buffer, tracker);
+    return true;
+  }
+
+  /**
+   * Releases a reference once the given Promise is resolved, whether it is
+   * fulfilled or rejected. This suits a stage which has handed the buffer to
+   * asynchronous work, such as a write, and must keep it until that work
+   * is finished.
+   *
+   * @param promise non-null promise to wait for
+   */
+  public void releaseAfter(Promise<?> promise) {
+    if (promise == null) {
+      throw new NullPointerException("promise");
+    }
+    PromiseImpl.observe(promise, value -> release(), reason -> release());
+  }
+
+  /**
+   * @return the number of references held, which is 0 once released
+   */
+  public int referenceCount() {
+    return references;
+  }
+}
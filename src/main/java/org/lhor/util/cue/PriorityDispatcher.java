@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.ThreadSafe;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A Dispatcher which runs the ready callback with the highest priority first,
+ * aging callbacks the longer they wait.
+ * <p>
+ * Each task is given a key of the time it became ready less its priority
+ * multiplied by the aging interval, and the task with the lowest key runs
+ * next. A task with a priority one higher than another is treated as if it
+ * became ready one aging interval earlier, so a low-priority task only waits
+ * behind higher-priority tasks which became ready within that many intervals
+ * of it. Nothing starves while higher-priority work keeps arriving.
+ * </p>
+ */
+@ThreadSafe
+final class PriorityDispatcher extends OrderedDispatcher {
+  /** Keeps keys well clear of overflowing, whatever the priority */
+  private static final long MAX_BOOST = Long.MAX_VALUE / 4;
+
+  private final long agingNanos;
+
+  PriorityDispatcher(ExecutorService executorService, long aging, TimeUnit unit) {
+    super(executorService);
+    if (unit == null) {
+      throw new NullPointerException("unit");
+    } else if (aging <= 0) {
+      throw new IllegalArgumentException("aging must be positive: " + aging);
+    }
+    this.agingNanos = unit.toNanos(aging);
+  }
+
+  @Override
+  protected long key(Schedule schedule, long now) {
+    double boost = (double) schedule.priority() * agingNanos;
+    return now - (long) Math.max(-MAX_BOOST, Math.min(MAX_BOOST, boost));
+  }
+}
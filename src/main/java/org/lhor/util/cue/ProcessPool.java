@@ -0,0 +1,490 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Runs {@link WorkerTask}s in a pool of child JVMs, spreading CPU and heap
+ * use across processes while returning Promises like any other Cue work.
+ * <p>
+ * Each worker is a JVM started with this JVM's class path, talking to the
+ * pool over its standard input and output. A task is serialized when it is
+ * submitted and sent to the worker with the fewest tasks in flight, unless
+ * every worker already has the maximum in flight, in which case it waits in
+ * the pool. Each worker has a thread writing its tasks; tasks submitted
+ * while it writes are sent together in its next write, and the worker
+ * likewise sends back results finished together in one write, so small
+ * tasks don't each cost a round of pipe I/O.
+ * </p>
+ * <p>
+ * If a worker exits, the tasks in flight on it are rejected with an
+ * IOException, since they may or may not have run, and a new worker is
+ * started in its place. The first replacement is started straight away, and
+ * each further one within {@link #RESTART_WINDOW_MILLIS} waits twice as long
+ * as the last, so a worker which crashes on start doesn't spin. Once
+ * {@link #MAX_RESTARTS} replacements have been started within the window, an
+ * exited worker is no longer replaced; if none are left, the tasks waiting
+ * in the pool are rejected, as is anything submitted afterwards.
+ * </p>
+ *
+ * @see ProcessWorker
+ */
+@ThreadSafe
+public final class ProcessPool implements AutoCloseable {
+  /** The number of tasks in flight on each worker unless told otherwise */
+  public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+  /** The most replacement workers started within {@link #RESTART_WINDOW_MILLIS} */
+  public static final int MAX_RESTARTS = 5;
+  /** The period over which replacement workers are counted */
+  public static final long RESTART_WINDOW_MILLIS = 60_000;
+  /** The wait before the second replacement within the window, doubled for each after it */
+  static final long RESTART_DELAY_MILLIS = 100;
+
+  private static final String NO_WORKERS = "Workers kept exiting and no worker is left";
+
+  private final Cue cue;
+  private final int maxInFlight;
+  private final List<String> command;
+  private final AtomicLong ids = new AtomicLong();
+  private final AtomicLong writes = new AtomicLong();
+  private final AtomicLong restarts = new AtomicLong();
+  private final Logger log = Logger.getLogger(ProcessPool.class.getName());
+
+  @GuardedBy("this")
+  private final List<Worker> workers = new ArrayList<>();
+  /** Tasks waiting for a worker with room for them, in the order submitted */
+  @GuardedBy("this")
+  private final ArrayDeque<Task> queued = new ArrayDeque<>();
+  @GuardedBy("this")
+  private boolean closed;
+  /** When each replacement within the restart window was started, in System.nanoTime() */
+  @GuardedBy("this")
+  private final ArrayDeque<Long> recentRestarts = new ArrayDeque<>();
+  /** Workers which exited and are waiting to be replaced */
+  @GuardedBy("this")
+  private int replacing;
+
+  private static final class Task {
+    private final long id;
+    private final byte[] bytes;
+    private final Deferred<Object> deferred;
+
+    private Task(long id, byte[] bytes, Deferred<Object> deferred) {
+      this.id = id;
+      this.bytes = bytes;
+      this.deferred = deferred;
+    }
+  }
+
+  /**
+   * Starts the workers with no JVM options and the default maximum in flight.
+   *
+   * @param cue not-null Cue producing the Deferreds
+   * @param processes number of worker processes, at least 1
+   * @throws IOException if a worker can't be started
+   */
+  public ProcessPool(Cue cue, int processes) throws IOException {
+    this(cue, processes, DEFAULT_MAX_IN_FLIGHT, Collections.emptyList());
+  }
+
+  /**
+   * Starts the workers.
+   *
+   * @param cue not-null Cue producing the Deferreds
+   * @param processes number of worker processes, at least 1
+   * @param maxInFlight most tasks sent to a worker and not yet finished, at least 1
+   * @param jvmOptions not-null options for the worker JVMs, such as "-Xmx4g"
+   * @throws IOException if a worker can't be started
+   */
+  public ProcessPool(Cue cue, int processes, int maxInFlight, List<String> jvmOptions) throws IOException {
+    if (cue == null) {
+      throw new NullPointerException("cue");
+    } else if (processes < 1) {
+      throw new IllegalArgumentException("processes must be at least 1: " + processes);
+    } else if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be at least 1: " + maxInFlight);
+    } else if (jvmOptions == null) {
+      throw new NullPointerException("jvmOptions");
+    }
+    this.cue = cue;
+    this.maxInFlight = maxInFlight;
+
+    List<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    command.addAll(jvmOptions);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(ProcessWorker.class.getName());
+    this.command = Collections.unmodifiableList(command);
+
+    List<Worker> started = new ArrayList<>();
+    try {
+      for (int i = 0; i < processes; i++) {
+        started.add(new Worker());
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    synchronized (this) {
+      workers.addAll(started);
+    }
+  }
+
+  /**
+   * Runs the task in a worker process.
+   *
+   * @param task non-null task
+   * @param <T> the type of the task's value
+   * @return new promise resolved with the task's value, or rejected with the
+   *   Exception it threw. Rejected with a NotSerializableException if the
+   *   task or its value can't be serialized, with an IOException if its
+   *   worker exited before it finished, with an ExecutionException wrapping
+   *   an Error it threw, with an IOException if workers kept exiting and
+   *   none is left, or with an IllegalStateException if the pool has been
+   *   closed.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> Promise<T> submit(WorkerTask<T> task) {
+    if (task == null) {
+      throw new NullPointerException("task");
+    }
+
+    Deferred<T> deferred = cue.defer();
+    byte[] bytes;
+    try {
+      bytes = ProcessWorker.serialize(task);
+    } catch (IOException e) {
+      deferred.reject(e);
+      return deferred.promise();
+    }
+
+    Exception refused;
+    synchronized (this) {
+      if (closed) {
+        refused = new IllegalStateException("Pool has been closed");
+      } else if (gaveUp()) {
+        refused = new IOException(NO_WORKERS);
+      } else {
+        queued.add(new Task(ids.incrementAndGet(), bytes, (Deferred<Object>) deferred));
+        dispatch();
+        return deferred.promise();
+      }
+    }
+    deferred.reject(refused);
+    return deferred.promise();
+  }
+
+  /**
+   * Stops accepting tasks and rejects those still waiting for a worker. The
+   * workers finish the tasks already sent to them and exit.
+   */
+  @Override
+  public void close() {
+    List<Task> rejected;
+    synchronized (this) {
+      closed = true;
+      rejected = new ArrayList<>(queued);
+      queued.clear();
+      notifyAll();
+    }
+    for (Task task : rejected) {
+      task.deferred.reject(new IllegalStateException("Pool has been closed"));
+    }
+  }
+
+  /**
+   * @return true if every worker has exited and none will be replaced
+   */
+  @GuardedBy("this")
+  private boolean gaveUp() {
+    return workers.isEmpty() && replacing == 0;
+  }
+
+  /**
+   * @return the number of batches of tasks written to workers
+   */
+  long writes() {
+    return writes.get();
+  }
+
+  /**
+   * @return the number of workers started to replace ones which exited
+   */
+  long restarts() {
+    return restarts.get();
+  }
+
+  /**
+   * Sends queued tasks to the least busy workers with room for them.
+   */
+  @GuardedBy("this")
+  private void dispatch() {
+    boolean assigned = false;
+    while (!queued.isEmpty()) {
+      Worker idlest = null;
+      for (Worker worker : workers) {
+        if (worker.inflight.size() < maxInFlight
+            && (idlest == null || worker.inflight.size() < idlest.inflight.size())) {
+          idlest = worker;
+        }
+      }
+      if (idlest == null) {
+        break;
+      }
+      Task task = queued.poll();
+      idlest.inflight.put(task.id, task);
+      idlest.outbox.add(task);
+      assigned = true;
+    }
+    if (assigned) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * A worker process, with a thread writing its tasks and one reading its
+   * results.
+   */
+  private final class Worker {
+    private final Process process;
+    /** Tasks sent or about to be sent, and not yet finished */
+    @GuardedBy("ProcessPool.this")
+    private final Map<Long, Task> inflight = new LinkedHashMap<>();
+    /** Tasks waiting for the writer thread */
+    @GuardedBy("ProcessPool.this")
+    private List<Task> outbox = new ArrayList<>();
+    @GuardedBy("ProcessPool.this")
+    private boolean exited;
+
+    private Worker() throws IOException {
+      this.process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+      Thread writer = new Thread(this::write, "cue-process-pool-writer");
+      Thread reader = new Thread(this::read, "cue-process-pool-reader");
+      writer.setDaemon(true);
+      reader.setDaemon(true);
+      writer.start();
+      reader.start();
+    }
+
+    private void write() {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()))) {
+        List<Task> batch;
+        while ((batch = take()) != null) {
+          out.writeInt(batch.size());
+          for (Task task : batch) {
+            out.writeLong(task.id);
+            out.writeInt(task.bytes.length);
+            out.write(task.bytes);
+          }
+          out.flush();
+          writes.incrementAndGet();
+        }
+      } catch (IOException e) {
+        log.log(Level.FINE, "Failed to write to worker", e);
+        process.destroy();
+      }
+    }
+
+    /**
+     * @return the tasks waiting to be sent, or null once the pool is closed
+     *   or the worker has exited and there is nothing left to send
+     */
+    private List<Task> take() {
+      synchronized (ProcessPool.this) {
+        boolean interrupted = false;
+        while (outbox.isEmpty() && !closed && !exited) {
+          try {
+            ProcessPool.this.wait();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+        if (outbox.isEmpty() || exited) {
+          return null;
+        }
+        List<Task> batch = outbox;
+        outbox = new ArrayList<>();
+        return batch;
+      }
+    }
+
+    private void read() {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(process.getInputStream()))) {
+        while (true) {
+          long id;
+          try {
+            id = in.readLong();
+          } catch (EOFException e) {
+            break;
+          }
+          byte status = in.readByte();
+          byte[] bytes = new byte[in.readInt()];
+          in.readFully(bytes);
+
+          Task task;
+          synchronized (ProcessPool.this) {
+            task = inflight.remove(id);
+            dispatch();
+          }
+          if (task != null) {
+            settle(task, status, bytes);
+          }
+        }
+      } catch (IOException e) {
+        log.log(Level.FINE, "Failed to read from worker", e);
+      }
+      exited();
+    }
+
+    private void settle(Task task, byte status, byte[] bytes) {
+      Object value;
+      try {
+        value = ProcessWorker.deserialize(bytes);
+      } catch (IOException | RuntimeException e) {
+        task.deferred.reject(e);
+        return;
+      }
+      if (status == ProcessWorker.OK) {
+        task.deferred.resolve(value);
+      } else if (value instanceof Exception) {
+        task.deferred.reject((Exception) value);
+      } else {
+        task.deferred.reject(new ExecutionException((Throwable) value));
+      }
+    }
+
+    /**
+     * Rejects the tasks in flight, and replaces the worker unless the pool
+     * has been closed.
+     */
+    private void exited() {
+      process.destroy();
+      int status;
+      try {
+        status = process.waitFor();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        status = -1;
+      }
+
+      List<Task> lost;
+      boolean replace;
+      synchronized (ProcessPool.this) {
+        exited = true;
+        lost = new ArrayList<>(inflight.values());
+        inflight.clear();
+        workers.remove(this);
+        replace = !closed;
+        if (replace) {
+          replacing++;
+        }
+        dispatch();
+        ProcessPool.this.notifyAll();
+      }
+
+      if (!lost.isEmpty()) {
+        log.log(Level.WARNING, "Worker exited with status " + status + " with " + lost.size() + " tasks in flight");
+      }
+      for (Task task : lost) {
+        task.deferred.reject(new IOException("Worker exited with status " + status + " before finishing the task"));
+      }
+      if (replace) {
+        replace();
+      }
+    }
+
+    /**
+     * Starts a worker in place of this one, without holding the pool's lock,
+     * backing off and trying again if it can't be started, until the
+     * restart window's limit is reached.
+     */
+    private void replace() {
+      while (true) {
+        long delay = 0;
+        List<Task> stranded = null;
+        synchronized (ProcessPool.this) {
+          long now = System.nanoTime();
+          long window = TimeUnit.MILLISECONDS.toNanos(RESTART_WINDOW_MILLIS);
+          while (!recentRestarts.isEmpty() && now - recentRestarts.peek() > window) {
+            recentRestarts.poll();
+          }
+          if (closed) {
+            replacing--;
+            return;
+          } else if (recentRestarts.size() >= MAX_RESTARTS) {
+            replacing--;
+            log.log(Level.WARNING, "Started " + MAX_RESTARTS + " workers within " + RESTART_WINDOW_MILLIS
+                + "ms, not replacing another");
+            if (!gaveUp()) {
+              return;
+            }
+            stranded = new ArrayList<>(queued);
+            queued.clear();
+          } else {
+            if (!recentRestarts.isEmpty()) {
+              delay = RESTART_DELAY_MILLIS << (recentRestarts.size() - 1);
+            }
+            recentRestarts.add(now);
+          }
+        }
+        if (stranded != null) {
+          for (Task task : stranded) {
+            task.deferred.reject(new IOException(NO_WORKERS));
+          }
+          return;
+        }
+
+        if (delay > 0) {
+          try {
+            Thread.sleep(delay);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        try {
+          Worker worker = new Worker();
+          synchronized (ProcessPool.this) {
+            replacing--;
+            workers.add(worker);
+            restarts.incrementAndGet();
+            dispatch();
+          }
+          return;
+        } catch (IOException e) {
+          log.log(Level.WARNING, "Failed to restart worker", e);
+        }
+      }
+    }
+  }
+}
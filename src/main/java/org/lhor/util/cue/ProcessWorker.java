@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The main class of a {@link ProcessPool}'s worker processes.
+ * <p>
+ * The pool writes batches of tasks to the worker's standard input: an int
+ * count, then for each task a long id, an int length and the serialized
+ * {@link WorkerTask}. The worker runs the tasks on a thread per processor
+ * and writes each result to its standard output as the task's long id, a
+ * status byte, an int length and the serialized value or Throwable. Results
+ * finished while others are being written are flushed together. System.out
+ * is pointed at standard error, so tasks which print don't corrupt the
+ * results.
+ * </p>
+ * <p>
+ * When its standard input is closed, the worker finishes the tasks it has,
+ * writes their results and exits.
+ * </p>
+ */
+final class ProcessWorker {
+  static final byte OK = 0;
+  static final byte FAILED = 1;
+
+  private static final Result END = new Result(0, OK, null);
+
+  private static final class Result {
+    private final long id;
+    private final byte status;
+    private final byte[] bytes;
+
+    private Result(long id, byte status, byte[] bytes) {
+      this.id = id;
+      this.status = status;
+      this.bytes = bytes;
+    }
+  }
+
+  private ProcessWorker() {
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+    System.setOut(System.err);
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+
+    LinkedBlockingQueue<Result> results = new LinkedBlockingQueue<>();
+    Thread writer = new Thread(() -> write(out, results), "cue-worker-results");
+    writer.start();
+
+    ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    try {
+      while (true) {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          long id = in.readLong();
+          byte[] task = new byte[in.readInt()];
+          in.readFully(task);
+          executor.execute(() -> results.add(run(id, task)));
+        }
+      }
+    } catch (EOFException e) {
+      // The pool closed our input, finish what we have
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      results.add(END);
+      writer.join();
+    }
+  }
+
+  private static Result run(long id, byte[] bytes) {
+    try {
+      WorkerTask<?> task = (WorkerTask<?>) deserialize(bytes);
+      return new Result(id, OK, serialize(task.call()));
+    } catch (Throwable t) {
+      return new Result(id, FAILED, serializeFailure(t));
+    }
+  }
+
+  private static byte[] serializeFailure(Throwable t) {
+    try {
+      return serialize(t);
+    } catch (IOException e) {
+      try {
+        return serialize(new NotSerializableException("Task failed with " + t));
+      } catch (IOException impossible) {
+        throw new IllegalStateException(impossible);
+      }
+    }
+  }
+
+  private static void write(DataOutputStream out, LinkedBlockingQueue<Result> results) {
+    List<Result> batch = new ArrayList<>();
+    try {
+      while (true) {
+        batch.add(results.take());
+        results.drainTo(batch);
+        for (Result result : batch) {
+          if (result == END) {
+            out.flush();
+            return;
+          }
+          out.writeLong(result.id);
+          out.writeByte(result.status);
+          out.writeInt(result.bytes.length);
+          out.write(result.bytes);
+        }
+        out.flush();
+        batch.clear();
+      }
+    } catch (IOException | InterruptedException e) {
+      // The pool has gone away, there is no one left to tell
+      System.exit(1);
+    }
+  }
+
+  static byte[] serialize(Object value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(value);
+    }
+    return bytes.toByteArray();
+  }
+
+  static Object deserialize(byte[] bytes) throws IOException {
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return in.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Class of serialized value not found", e);
+    }
+  }
+}
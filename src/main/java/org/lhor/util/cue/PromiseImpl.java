@@ -8,16 +8,20 @@
 package org.lhor.util.cue;
 
 
-import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
-@Immutable
+@ThreadSafe
 final class PromiseImpl<T> implements Promise<T> {
   private final Cue cue;
   private final CallbackRegistry callbackRegistry;
   private final ResolvedState<T> state;
+  /** Set through the Deferred, and copied to each Promise derived from this one */
+  private final AtomicReference<Schedule> schedule = new AtomicReference<>(Schedule.DEFAULT);
   private final Logger log = Logger.getLogger(PromiseImpl.class.getName());
 
   public PromiseImpl(Cue cue, CallbackRegistry callbackRegistry, ResolvedState<T> state) {
@@ -40,7 +44,7 @@ final class PromiseImpl<T> implements Promise<T> {
     }
 
     Deferred<O> deferred = cue.defer();
-    callbackRegistry.register(state, () -> {
+    registerStage(deferred, () -> {
       T tValue;
       try {
         tValue = state.get();
@@ -69,7 +73,7 @@ final class PromiseImpl<T> implements Promise<T> {
     }
 
     Deferred<T> deferred = cue.defer();
-    callbackRegistry.register(state, () -> {
+    registerStage(deferred, () -> {
       T tValue;
       try {
         tValue = state.get();
@@ -98,7 +102,7 @@ final class PromiseImpl<T> implements Promise<T> {
     }
 
     Deferred<O> deferred = cue.defer();
-    callbackRegistry.register(state, () -> {
+    registerStage(deferred, () -> {
       T tValue;
       try {
         tValue = state.get();
@@ -127,7 +131,7 @@ final class PromiseImpl<T> implements Promise<T> {
     }
 
     Deferred<T> deferred = cue.defer();
-    callbackRegistry.register(state, () -> {
+    registerStage(deferred, () -> {
       T tValue;
       try {
         tValue = state.get();
@@ -156,7 +160,7 @@ final class PromiseImpl<T> implements Promise<T> {
     }
 
     Deferred<T> deferred = cue.defer();
-    callbackRegistry.register(state, () -> {
+    registerStage(deferred, () -> {
       try {
         T value = state.getValue();
         if (state.isFulfilled()) {
@@ -191,7 +195,7 @@ final class PromiseImpl<T> implements Promise<T> {
     }
 
     Deferred<T> deferred = cue.defer();
-    callbackRegistry.register(state, () -> {
+    registerStage(deferred, () -> {
       try {
         T value = state.getValue();
         if (state.isFulfilled()) {
@@ -226,7 +230,7 @@ final class PromiseImpl<T> implements Promise<T> {
     }
 
     Deferred<T> deferred = cue.defer();
-    callbackRegistry.register(state, () -> {
+    callbackRegistry.register(state, new ScheduledTask(this, () -> {
       boolean interrupted = false;
       try {
         state.getValue();
@@ -249,10 +253,89 @@ final class PromiseImpl<T> implements Promise<T> {
         log.fine("Always callback finished, resolving next Promise with same state");
       }
       deferred.resolveFrom(this);
-    });
+    }));
     return this;
   }
 
+  /**
+   * Registers a runnable whose last act is to resolve the given Deferred, so
+   * the registry can run whatever is waiting on that Deferred straight after
+   * it on the same thread. The Deferred's Promise inherits this Promise's
+   * schedule.
+   */
+  private void registerStage(Deferred<?> deferred, Runnable stage) {
+    if (deferred.promise() instanceof PromiseImpl) {
+      ((PromiseImpl<?>) deferred.promise()).schedule.set(schedule.get());
+    }
+    ScheduledTask task = new ScheduledTask(this, stage, deferred::reject);
+    if (deferred instanceof DeferredImpl && ((DeferredImpl<?>) deferred).callbackRegistry() == callbackRegistry) {
+      callbackRegistry.registerStage(state, ((DeferredImpl<?>) deferred).state(), task);
+    } else {
+      callbackRegistry.register(state, task);
+    }
+  }
+
+  ResolvedState<T> state() {
+    return state;
+  }
+
+  Schedule schedule() {
+    return schedule.get();
+  }
+
+  void reschedule(UnaryOperator<Schedule> update) {
+    schedule.updateAndGet(update);
+  }
+
+  /**
+   * Invokes exactly one of the given callbacks once the Promise is resolved,
+   * without deriving a new Promise.
+   * <p>
+   * Cue's own combinators only need to watch for a resolution, so this skips
+   * the Deferred a <code>then</code> or <code>fail</code> would create for
+   * its result. Promises from other implementations are observed through
+   * their public methods. Exceptions thrown by the callbacks are logged. The
+   * chain's deadline is not applied: the Promise is observed as it was
+   * resolved, however late the observer runs.
+   * </p>
+   */
+  static <T> void observe(Promise<T> promise, VoidCallback<T> onFulfilled, VoidErrback onRejected) {
+    if (promise instanceof PromiseImpl) {
+      ((PromiseImpl<T>) promise).observe(onFulfilled, onRejected);
+    } else {
+      promise.then(onFulfilled);
+      promise.fail(onRejected);
+    }
+  }
+
+  private void observe(VoidCallback<T> onFulfilled, VoidErrback onRejected) {
+    callbackRegistry.register(state, new ScheduledTask(this, () -> {
+      try {
+        Exception reason;
+        try {
+          T value = state.getValue();
+          if (state.isFulfilled()) {
+            onFulfilled.call(value);
+            return;
+          }
+          reason = state.getReason();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          reason = e;
+        }
+        onRejected.call(reason);
+      } catch (Exception e) {
+        log.log(Level.WARNING, "Observer of Promise threw an exception", e);
+      }
+    }, reason -> {
+      try {
+        onRejected.call(reason);
+      } catch (Exception e) {
+        log.log(Level.WARNING, "Observer of Promise threw an exception", e);
+      }
+    }, false));
+  }
+
   @Override
   public T done() {
     try {
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.ThreadSafe;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Exports Deferreds under ids, so that other processes on the same host can
+ * resolve or reject them through a {@link RemoteResolver}.
+ * <p>
+ * Listens on a loopback TCP port. Any local process can connect to it, so
+ * a connection's first frame must be the exporter's {@link #token()}, a
+ * random secret handed to trusted peers out of band; a connection sending
+ * anything else is closed before any of its messages are read. After that,
+ * each connection is served by a loop which reads a frame holding a batch
+ * of resolutions, applies them all, and writes one frame acknowledging them
+ * all, so a busy peer's resolutions are gathered into few reads and writes
+ * on each side. An exported Deferred is removed once it has been resolved,
+ * so it is resolved by at most one peer message.
+ * </p>
+ *
+ * @see RemoteProtocol
+ */
+@ThreadSafe
+public final class RemoteDeferreds implements AutoCloseable {
+  /** The random bytes in a token */
+  private static final int TOKEN_BYTES = 32;
+  /** The largest first frame read from a connection not yet authenticated */
+  private static final int MAX_TOKEN_FRAME = 256;
+
+  private final CueSockets sockets;
+  private final CueSockets handshake;
+  private final String token = newToken();
+  private final AsynchronousServerSocketChannel server;
+  private final ConcurrentHashMap<String, Export<?>> exports = new ConcurrentHashMap<>();
+  /** Connections accepted and not yet closed */
+  private final Set<AsynchronousSocketChannel> connections = ConcurrentHashMap.newKeySet();
+  private final Logger log = Logger.getLogger(RemoteDeferreds.class.getName());
+
+  private static final class Export<T> {
+    private final Deferred<T> deferred;
+    private final ValueCodec<T> codec;
+
+    private Export(Deferred<T> deferred, ValueCodec<T> codec) {
+      this.deferred = deferred;
+      this.codec = codec;
+    }
+
+    private void resolve(byte[] value) throws IOException {
+      deferred.resolve(value == null ? null : codec.decode(value));
+    }
+  }
+
+  /**
+   * Starts listening on an ephemeral loopback port.
+   *
+   * @param cue not-null Cue producing the Deferreds used for I/O
+   * @throws IOException if the port can't be bound
+   */
+  public RemoteDeferreds(Cue cue) throws IOException {
+    this(cue, 0);
+  }
+
+  /**
+   * Starts listening on a loopback port.
+   *
+   * @param cue not-null Cue producing the Deferreds used for I/O
+   * @param port the port to listen on, or 0 for an ephemeral port
+   * @throws IOException if the port can't be bound
+   */
+  public RemoteDeferreds(Cue cue, int port) throws IOException {
+    this.sockets = new CueSockets(cue);
+    this.handshake = new CueSockets(cue, MAX_TOKEN_FRAME);
+    this.server = AsynchronousServerSocketChannel.open()
+        .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    server.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+      @Override
+      public void completed(AsynchronousSocketChannel channel, Void attachment) {
+        server.accept(null, this);
+        connections.add(channel);
+        if (!server.isOpen()) {
+          // Accepted while closing, after the connections were closed
+          close(channel);
+          return;
+        }
+        authenticate(channel);
+      }
+
+      @Override
+      public void failed(Throwable exc, Void attachment) {
+        if (server.isOpen()) {
+          log.log(Level.WARNING, "Failed to accept a connection, no longer accepting", exc);
+        }
+      }
+    });
+  }
+
+  /**
+   * @return the address peers connect to
+   */
+  public InetSocketAddress address() {
+    try {
+      return (InetSocketAddress) server.getLocalAddress();
+    } catch (IOException e) {
+      throw new IllegalStateException("Exporter has been closed", e);
+    }
+  }
+
+  /**
+   * @return the secret peers must pass to
+   *   {@link RemoteResolver#connect(Cue, java.net.SocketAddress, String)}
+   */
+  public String token() {
+    return token;
+  }
+
+  /**
+   * Exports the Deferred under the id until it is resolved by a peer.
+   *
+   * @param id non-null id, unique among the Deferreds exported
+   * @param deferred non-null Deferred to export
+   * @param codec non-null codec decoding the values peers send
+   * @param <T> fulfillment type of the Deferred
+   * @throws IllegalArgumentException if a Deferred is already exported under the id
+   */
+  public <T> void export(String id, Deferred<T> deferred, ValueCodec<T> codec) {
+    if (id == null) {
+      throw new NullPointerException("id");
+    } else if (deferred == null) {
+      throw new NullPointerException("deferred");
+    } else if (codec == null) {
+      throw new NullPointerException("codec");
+    } else if (exports.putIfAbsent(id, new Export<>(deferred, codec)) != null) {
+      throw new IllegalArgumentException("A Deferred is already exported as " + id);
+    }
+  }
+
+  /**
+   * Stops exporting the Deferred under the id, leaving it unresolved.
+   *
+   * @param id non-null id
+   * @return true if a Deferred was exported under the id
+   */
+  public boolean unexport(String id) {
+    if (id == null) {
+      throw new NullPointerException("id");
+    }
+    return exports.remove(id) != null;
+  }
+
+  /**
+   * Stops listening and closes the connections already made. Their peers'
+   * requests not yet acknowledged are rejected.
+   */
+  @Override
+  public void close() {
+    try {
+      server.close();
+    } catch (IOException e) {
+      log.log(Level.FINE, "Failed to close server socket", e);
+    }
+    for (AsynchronousSocketChannel channel : connections) {
+      close(channel);
+    }
+  }
+
+  /**
+   * Serves the connection if its first frame is the token, or closes it.
+   */
+  private void authenticate(AsynchronousSocketChannel channel) {
+    handshake.readFrame(channel).then(frame -> {
+      byte[] expected = token.getBytes(StandardCharsets.UTF_8);
+      byte[] presented = frame == null ? new byte[0] : new byte[frame.remaining()];
+      if (frame != null) {
+        frame.get(presented);
+      }
+      if (!MessageDigest.isEqual(expected, presented)) {
+        log.log(Level.WARNING, "Connection presented the wrong token, closing it");
+        close(channel);
+        return;
+      }
+      serve(channel);
+    }).fail(reason -> {
+      log.log(Level.FINE, "Failed to read token from connection, closing it", reason);
+      close(channel);
+    });
+  }
+
+  private void serve(AsynchronousSocketChannel channel) {
+    sockets.readFrame(channel).then(frame -> {
+      if (frame == null) {
+        close(channel);
+        return;
+      }
+      sockets.writeFrame(channel, apply(frame)).then(() -> {
+        serve(channel);
+      }).fail(reason -> {
+        log.log(Level.FINE, "Failed to acknowledge, closing connection", reason);
+        close(channel);
+      });
+    }).fail(reason -> {
+      log.log(Level.FINE, "Failed to read from connection, closing it", reason);
+      close(channel);
+    });
+  }
+
+  /**
+   * Applies every message in the frame.
+   *
+   * @return the frame acknowledging them
+   */
+  private ByteBuffer apply(ByteBuffer frame) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame.array(), 0, frame.limit()));
+    ByteArrayOutputStream acks = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(acks);
+    while (in.available() > 0) {
+      byte op = in.readByte();
+      long sequence = in.readLong();
+      String id = in.readUTF();
+      byte[] value = null;
+      String type = null;
+      String message = null;
+      if (op == RemoteProtocol.RESOLVE) {
+        value = new byte[in.readInt()];
+        in.readFully(value);
+      } else if (op == RemoteProtocol.REJECT) {
+        type = in.readUTF();
+        message = in.readUTF();
+      } else if (op != RemoteProtocol.RESOLVE_NULL) {
+        throw new IOException("Unknown op " + op);
+      }
+
+      out.writeLong(sequence);
+      Export<?> export = exports.remove(id);
+      if (export == null) {
+        out.writeByte(RemoteProtocol.UNKNOWN);
+      } else if (op == RemoteProtocol.REJECT) {
+        export.deferred.reject(new RemoteRejectedException(type, message));
+        out.writeByte(RemoteProtocol.OK);
+      } else {
+        try {
+          export.resolve(value);
+          out.writeByte(RemoteProtocol.OK);
+        } catch (IOException | RuntimeException e) {
+          export.deferred.reject(e);
+          out.writeByte(RemoteProtocol.UNDECODABLE);
+        }
+      }
+    }
+    return ByteBuffer.wrap(acks.toByteArray());
+  }
+
+  private static String newToken() {
+    byte[] bytes = new byte[TOKEN_BYTES];
+    new SecureRandom().nextBytes(bytes);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  private void close(AsynchronousSocketChannel channel) {
+    connections.remove(channel);
+    try {
+      channel.close();
+    } catch (IOException e) {
+      log.log(Level.FINE, "Failed to close connection", e);
+    }
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+/**
+ * The protocol between a {@link RemoteResolver} and {@link RemoteDeferreds}.
+ * <p>
+ * Both directions are {@link CueSockets} frames. The resolver's first frame
+ * is the exporter's token as UTF-8; every later frame holds a batch of
+ * messages written with DataOutput. From the resolver, each message is an
+ * op byte, a long sequence number and the Deferred's id as modified UTF-8;
+ * a {@link #RESOLVE} is followed by an int length and the encoded value, and
+ * a {@link #REJECT} by the reason's class name and message as modified
+ * UTF-8. From the exporter, each message acknowledges one of the resolver's,
+ * as its long sequence number and a status byte. Acknowledgements come back
+ * in the order the messages were sent.
+ * </p>
+ */
+final class RemoteProtocol {
+  static final byte RESOLVE = 0;
+  static final byte RESOLVE_NULL = 1;
+  static final byte REJECT = 2;
+
+  static final byte OK = 0;
+  /** Nothing is exported under the id, or it was already resolved */
+  static final byte UNKNOWN = 1;
+  /** The exporter's codec could not decode the value */
+  static final byte UNDECODABLE = 2;
+
+  /** The most bytes of messages gathered into one frame, unless a single message is larger */
+  static final int MAX_BATCH = 64 * 1024;
+
+  private RemoteProtocol() {
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.Immutable;
+
+
+/**
+ * The reason an exported Deferred is rejected when a peer process rejects it
+ * through {@link RemoteResolver#reject(String, Exception)}. Only the class
+ * name and message of the peer's reason cross the connection.
+ */
+@Immutable
+public final class RemoteRejectedException extends Exception {
+  private static final long serialVersionUID = 1L;
+
+  private final String remoteType;
+
+  RemoteRejectedException(String remoteType, String message) {
+    super(remoteType + (message.isEmpty() ? "" : ": " + message));
+    this.remoteType = remoteType;
+  }
+
+  /**
+   * @return the class name of the reason the peer rejected with, or an
+   *   empty String if it gave none
+   */
+  public String getRemoteType() {
+    return remoteType;
+  }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.ThreadSafe;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Resolves and rejects Deferreds exported by a {@link RemoteDeferreds} in
+ * another process.
+ * <p>
+ * Messages are encoded when resolve or reject is called and queued. One
+ * write is in flight on the connection at a time; whatever has queued up
+ * while it was in flight goes out together as the next frame, so under load
+ * many resolutions share each write, and the exporter acknowledges them
+ * together. Requests are pipelined: nothing waits for an acknowledgement
+ * before sending more.
+ * </p>
+ *
+ * @see RemoteProtocol
+ */
+@ThreadSafe
+public final class RemoteResolver implements AutoCloseable {
+  private final CueSockets sockets;
+  private final Cue cue;
+  private final AsynchronousSocketChannel channel;
+  private final ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<>();
+  private final Map<Long, Pending> inflight = new ConcurrentHashMap<>();
+  private final AtomicLong sequence = new AtomicLong();
+  private final AtomicBoolean writing = new AtomicBoolean();
+  private final AtomicLong frames = new AtomicLong();
+  private final Logger log = Logger.getLogger(RemoteResolver.class.getName());
+  /** Set once the connection fails, after which every request is rejected with it */
+  private volatile Exception failure;
+
+  private static final class Pending {
+    private final String id;
+    private final Deferred<Void> deferred;
+
+    private Pending(String id, Deferred<Void> deferred) {
+      this.id = id;
+      this.deferred = deferred;
+    }
+  }
+
+  private RemoteResolver(Cue cue, CueSockets sockets, AsynchronousSocketChannel channel) {
+    this.cue = cue;
+    this.sockets = sockets;
+    this.channel = channel;
+  }
+
+  /**
+   * Connects to a {@link RemoteDeferreds}, presenting its token before
+   * anything else is sent. The exporter closes a connection presenting the
+   * wrong token, after which every request is rejected with an IOException.
+   *
+   * @param cue not-null Cue producing the Deferreds
+   * @param address not-null address of the exporter
+   * @param token not-null token of the exporter, from {@link RemoteDeferreds#token()}
+   * @return new promise resolved with the connected resolver, or rejected
+   *   with the IOException
+   */
+  public static Promise<RemoteResolver> connect(Cue cue, SocketAddress address, String token) {
+    if (cue == null) {
+      throw new NullPointerException("cue");
+    } else if (address == null) {
+      throw new NullPointerException("address");
+    } else if (token == null) {
+      throw new NullPointerException("token");
+    }
+
+    CueSockets sockets = new CueSockets(cue);
+    Deferred<RemoteResolver> connected = cue.defer();
+    sockets.connect(address).then((AsynchronousSocketChannel channel) -> {
+      sockets.writeFrame(channel, ByteBuffer.wrap(token.getBytes(StandardCharsets.UTF_8))).then(() -> {
+        RemoteResolver resolver = new RemoteResolver(cue, sockets, channel);
+        resolver.readAcks();
+        connected.resolve(resolver);
+      }).fail(reason -> {
+        connected.reject(reason);
+        channel.close();
+      });
+    }).fail(reason -> {
+      connected.reject(reason);
+    });
+    return connected.promise();
+  }
+
+  /**
+   * Resolves the Deferred exported under the id.
+   *
+   * @param id non-null id the Deferred is exported under
+   * @param value the value, which may be null
+   * @param codec non-null codec encoding the value
+   * @param <T> fulfillment type of the Deferred
+   * @return new promise resolved once the exporter has resolved the
+   *   Deferred. Rejected with an IllegalStateException if nothing is
+   *   exported under the id, with an IOException if the value can't be
+   *   encoded or decoded, or with the IOException which broke the
+   *   connection.
+   */
+  public <T> Promise<Void> resolve(String id, T value, ValueCodec<T> codec) {
+    if (id == null) {
+      throw new NullPointerException("id");
+    } else if (codec == null) {
+      throw new NullPointerException("codec");
+    }
+
+    Deferred<Void> deferred = cue.defer();
+    try {
+      byte[] encoded = value == null ? null : codec.encode(value);
+      send(id, deferred, (seq, out) -> {
+        out.writeByte(encoded == null ? RemoteProtocol.RESOLVE_NULL : RemoteProtocol.RESOLVE);
+        out.writeLong(seq);
+        out.writeUTF(id);
+        if (encoded != null) {
+          out.writeInt(encoded.length);
+          out.write(encoded);
+        }
+      });
+    } catch (IOException | RuntimeException e) {
+      deferred.reject(e);
+    }
+    return deferred.promise();
+  }
+
+  /**
+   * Rejects the Deferred exported under the id. The exporter's Deferred is
+   * rejected with a {@link RemoteRejectedException} carrying the reason's
+   * class name and message.
+   *
+   * @param id non-null id the Deferred is exported under
+   * @param reason the reason, which may be null
+   * @return new promise resolved once the exporter has rejected the
+   *   Deferred, or rejected as for {@link #resolve(String, Object, ValueCodec)}
+   */
+  public Promise<Void> reject(String id, Exception reason) {
+    if (id == null) {
+      throw new NullPointerException("id");
+    }
+
+    Deferred<Void> deferred = cue.defer();
+    String type = reason == null ? "" : reason.getClass().getName();
+    String message = reason == null || reason.getMessage() == null ? "" : reason.getMessage();
+    try {
+      send(id, deferred, (seq, out) -> {
+        out.writeByte(RemoteProtocol.REJECT);
+        out.writeLong(seq);
+        out.writeUTF(id);
+        out.writeUTF(type);
+        out.writeUTF(message);
+      });
+    } catch (IOException | RuntimeException e) {
+      deferred.reject(e);
+    }
+    return deferred.promise();
+  }
+
+  /**
+   * @return the number of frames written
+   */
+  long frames() {
+    return frames.get();
+  }
+
+  /**
+   * Closes the connection. Requests not yet acknowledged are rejected.
+   */
+  @Override
+  public void close() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      log.log(Level.FINE, "Failed to close connection", e);
+    }
+  }
+
+  private interface Message {
+    void write(long sequence, DataOutputStream out) throws IOException;
+  }
+
+  private void send(String id, Deferred<Void> deferred, Message message) throws IOException {
+    long seq = sequence.incrementAndGet();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    message.write(seq, new DataOutputStream(bytes));
+
+    inflight.put(seq, new Pending(id, deferred));
+    queue.add(bytes.toByteArray());
+    Exception failed = failure;
+    if (failed != null) {
+      failAll(failed);
+    } else {
+      flush();
+    }
+  }
+
+  /**
+   * Writes whatever is queued as one frame, unless a write is already in
+   * flight, in which case its completion writes it.
+   */
+  private void flush() {
+    while (!queue.isEmpty() && writing.compareAndSet(false, true)) {
+      ByteBuffer batch = batch();
+      if (batch == null) {
+        writing.set(false);
+        continue;
+      }
+      frames.incrementAndGet();
+      sockets.writeFrame(channel, batch).then(() -> {
+        writing.set(false);
+        flush();
+      }).fail(reason -> {
+        writing.set(false);
+        fail(reason);
+      });
+      return;
+    }
+  }
+
+  /**
+   * @return queued messages up to the batch size, or null if none were queued
+   */
+  private ByteBuffer batch() {
+    byte[] first = queue.poll();
+    if (first == null) {
+      return null;
+    }
+    ByteArrayOutputStream batch = new ByteArrayOutputStream(Math.max(first.length, RemoteProtocol.MAX_BATCH));
+    batch.write(first, 0, first.length);
+    byte[] next;
+    while ((next = queue.peek()) != null && batch.size() + next.length <= RemoteProtocol.MAX_BATCH) {
+      queue.poll();
+      batch.write(next, 0, next.length);
+    }
+    return ByteBuffer.wrap(batch.toByteArray());
+  }
+
+  private void readAcks() {
+    sockets.readFrame(channel).then(frame -> {
+      if (frame == null) {
+        fail(new IOException("Exporter closed the connection"));
+        return;
+      }
+      while (frame.hasRemaining()) {
+        Pending pending = inflight.remove(frame.getLong());
+        byte status = frame.get();
+        if (pending == null) {
+          continue;
+        } else if (status == RemoteProtocol.OK) {
+          pending.deferred.resolve(null);
+        } else if (status == RemoteProtocol.UNKNOWN) {
+          pending.deferred.reject(new IllegalStateException("No Deferred is exported as " + pending.id));
+        } else {
+          pending.deferred.reject(new IOException("Exporter could not decode the value for " + pending.id));
+        }
+      }
+      readAcks();
+    }).fail(reason -> {
+      fail(reason);
+    });
+  }
+
+  private void fail(Exception reason) {
+    failure = reason == null ? new IOException("Connection failed") : reason;
+    close();
+    failAll(failure);
+  }
+
+  private void failAll(Exception reason) {
+    queue.clear();
+    for (Long seq : inflight.keySet()) {
+      Pending pending = inflight.remove(seq);
+      if (pending != null) {
+        pending.deferred.reject(reason);
+      }
+    }
+  }
+}
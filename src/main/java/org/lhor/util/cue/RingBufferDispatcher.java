@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.ThreadSafe;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * A Dispatcher which passes tasks through a preallocated ring buffer to a
+ * single dedicated thread, in the manner of the LMAX Disruptor.
+ * <p>
+ * Any thread may dispatch. A dispatching thread claims the next sequence
+ * number, waits until the consumer has moved far enough along that the
+ * sequence's slot is free, and then publishes its task into the slot. The
+ * consumer thread runs slots in sequence order, clearing each slot before
+ * moving on. Nothing is allocated per task and no locks are taken; the only
+ * waiting is a producer spinning when the buffer is full, and the consumer
+ * waiting for work according to its {@link WaitStrategy}.
+ * </p>
+ * <p>
+ * A task running on the consumer thread which dispatches while the buffer is
+ * full can't wait for the consumer (itself), so its task is put on an overflow
+ * queue which the consumer checks whenever the buffer is empty.
+ * </p>
+ */
+@ThreadSafe
+final class RingBufferDispatcher implements Dispatcher {
+  /** Set on the claimed sequence once closed, so no more sequences can be claimed */
+  private static final long CLOSED = Long.MIN_VALUE;
+
+  private final AtomicReferenceArray<Runnable> slots;
+  private final int mask;
+  private final WaitStrategy waitStrategy;
+  private final Thread consumer;
+  private final Logger log = Logger.getLogger(RingBufferDispatcher.class.getName());
+
+  /** The next sequence number to be claimed by a producer, or'd with CLOSED once closed */
+  private final AtomicLong claimed = new AtomicLong();
+  /** The next sequence number to be run by the consumer; every lower slot is free */
+  private final AtomicLong consumed = new AtomicLong();
+  private final ConcurrentLinkedQueue<Runnable> overflow = new ConcurrentLinkedQueue<>();
+
+  RingBufferDispatcher(int capacity, WaitStrategy waitStrategy) {
+    if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("capacity must be a positive power of two: " + capacity);
+    } else if (waitStrategy == null) {
+      throw new NullPointerException("waitStrategy");
+    }
+    this.slots = new AtomicReferenceArray<>(capacity);
+    this.mask = capacity - 1;
+    this.waitStrategy = waitStrategy;
+    this.consumer = new Thread(this::consume, "cue-ring-buffer-dispatcher");
+    consumer.setDaemon(true);
+    consumer.start();
+  }
+
+  @Override
+  public void dispatch(Runnable task) {
+    if (task == null) {
+      throw new NullPointerException("task");
+    }
+
+    long sequence;
+    do {
+      sequence = claimed.get();
+      if ((sequence & CLOSED) != 0) {
+        throw new RejectedExecutionException("Dispatcher has been closed");
+      } else if (Thread.currentThread() == consumer && sequence - consumed.get() >= slots.length()) {
+        overflow.add(task);
+        return;
+      }
+    } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+    for (int attempts = 0; sequence - consumed.get() >= slots.length(); ) {
+      // The buffer is full, wait for the consumer to free up this sequence's slot
+      attempts = waitStrategy.idle(attempts);
+    }
+    slots.set((int) sequence & mask, task);
+  }
+
+  @Override
+  public void dispatchAll(List<Runnable> tasks) {
+    tasks.forEach(this::dispatch);
+  }
+
+  @Override
+  public void close() {
+    claimed.getAndUpdate(sequence -> sequence | CLOSED);
+    if (Thread.currentThread() != consumer) {
+      try {
+        consumer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void consume() {
+    int attempts = 0;
+    while (true) {
+      long sequence = consumed.get();
+      int index = (int) sequence & mask;
+      Runnable task = slots.get(index);
+      if (task != null) {
+        slots.lazySet(index, null);
+        consumed.set(sequence + 1);
+        attempts = 0;
+        run(task);
+      } else if ((task = overflow.poll()) != null) {
+        attempts = 0;
+        run(task);
+      } else if (claimed.get() == (sequence | CLOSED)) {
+        // Closed, and every claimed sequence has been run
+        return;
+      } else {
+        attempts = waitStrategy.idle(attempts);
+      }
+    }
+  }
+
+  private void run(Runnable task) {
+    try {
+      task.run();
+    } catch (RuntimeException e) {
+      log.log(Level.WARNING, "Dispatched task threw an exception", e);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.Immutable;
+
+
+/**
+ * The scheduling attributes of a Promise chain, set on the root Deferred and
+ * inherited by every Promise derived from it. Dispatchers which order
+ * callbacks use these to decide what runs next.
+ */
+@Immutable
+final class Schedule {
+  static final Schedule DEFAULT = new Schedule(0, false, 0, null);
+
+  private final int priority;
+  private final boolean hasDeadline;
+  /** In terms of System.nanoTime(), only meaningful if hasDeadline */
+  private final long deadline;
+  /** Nullable, only compared with equals */
+  private final Object tenant;
+
+  private Schedule(int priority, boolean hasDeadline, long deadline, Object tenant) {
+    this.priority = priority;
+    this.hasDeadline = hasDeadline;
+    this.deadline = deadline;
+    this.tenant = tenant;
+  }
+
+  /**
+   * @return the Schedule of a dispatched task, or the default if it has none
+   */
+  static Schedule of(Runnable task) {
+    return task instanceof Scheduled ? ((Scheduled) task).schedule() : DEFAULT;
+  }
+
+  int priority() {
+    return priority;
+  }
+
+  boolean hasDeadline() {
+    return hasDeadline;
+  }
+
+  long deadline() {
+    return deadline;
+  }
+
+  Object tenant() {
+    return tenant;
+  }
+
+  /**
+   * @param now the current System.nanoTime()
+   * @return how long ago the deadline passed, or a negative number or zero if
+   *         it hasn't or there is none
+   */
+  long overdue(long now) {
+    return hasDeadline ? now - deadline : Long.MIN_VALUE;
+  }
+
+  Schedule withPriority(int priority) {
+    return new Schedule(priority, hasDeadline, deadline, tenant);
+  }
+
+  Schedule withDeadline(long deadline) {
+    return new Schedule(priority, true, deadline, tenant);
+  }
+
+  Schedule withTenant(Object tenant) {
+    return new Schedule(priority, hasDeadline, deadline, tenant);
+  }
+}
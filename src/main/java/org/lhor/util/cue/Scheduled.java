@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+/**
+ * A task which belongs to a Promise chain with a {@link Schedule}.
+ */
+interface Scheduled {
+  /**
+   * @return the non-null schedule of the chain, as of now
+   */
+  Schedule schedule();
+}
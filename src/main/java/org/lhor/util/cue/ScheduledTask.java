@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.Immutable;
+import java.util.function.Consumer;
+
+
+/**
+ * A callback registered on a Promise, carrying that Promise's schedule to the
+ * Dispatcher.
+ * <p>
+ * If the chain's deadline has passed by the time a stage runs and the
+ * Promise it follows was fulfilled, the callback is skipped and the stage is
+ * aborted instead, which rejects whatever the callback would have resolved.
+ * A {@link DeadlineExceededException} from further up is carried on the same
+ * way. Any other rejection is handed to the callback as usual, so its reason
+ * isn't lost and a <code>fail</code> callback can still recover from it.
+ * Tasks with nothing to abort, such as <code>always</code> callbacks, and
+ * observers run regardless. The task is also aborted if the Dispatcher
+ * refuses it.
+ * </p>
+ */
+@Immutable
+final class ScheduledTask implements Runnable, Scheduled {
+  private final PromiseImpl<?> promise;
+  private final Runnable task;
+  private final Consumer<Exception> abort;
+  private final boolean enforceDeadline;
+
+  ScheduledTask(PromiseImpl<?> promise, Runnable task) {
+    this(promise, task, null, false);
+  }
+
+  /**
+   * @param abort nullable, invoked with the reason instead of the task if the
+   *              deadline has passed
+   */
+  ScheduledTask(PromiseImpl<?> promise, Runnable task, Consumer<Exception> abort) {
+    this(promise, task, abort, true);
+  }
+
+  /**
+   * @param abort nullable, invoked with the reason instead of the task if the
+   *              Dispatcher refuses it, or if the deadline has passed and
+   *              enforceDeadline is set
+   */
+  ScheduledTask(PromiseImpl<?> promise, Runnable task, Consumer<Exception> abort, boolean enforceDeadline) {
+    this.promise = promise;
+    this.task = task;
+    this.abort = abort;
+    this.enforceDeadline = enforceDeadline;
+  }
+
+  @Override
+  public Schedule schedule() {
+    return promise.schedule();
+  }
+
+  /**
+   * Rejects whatever the callback would have resolved, without running it.
+   *
+   * @return false if the task has nothing to reject
+   */
+  boolean abort(Exception reason) {
+    if (abort == null) {
+      return false;
+    }
+    abort.accept(reason);
+    return true;
+  }
+
+  @Override
+  public void run() {
+    if (abort != null && enforceDeadline) {
+      long overdue = schedule().overdue(System.nanoTime());
+      if (overdue > 0) {
+        ResolvedState<?> upstream = promise.state();
+        if (upstream.isFulfilled()) {
+          abort.accept(new DeadlineExceededException(overdue));
+          return;
+        }
+        Exception reason = reason(upstream);
+        if (reason instanceof DeadlineExceededException) {
+          // Already shed further up the chain, carry it on without the callback
+          abort.accept(reason);
+          return;
+        }
+      }
+    }
+    task.run();
+  }
+
+  private static Exception reason(ResolvedState<?> state) {
+    try {
+      return state.getReason();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Folds values into a fixed number of partial results, each with its own lock,
+ * and combines the partial results once the expected number of values has been
+ * folded.
+ * <p>
+ * A thread picks its stripe from its id, so the threads of a pool tend to each
+ * keep to their own stripe and rarely wait on one another.
+ * </p>
+ *
+ * @param <T> value type
+ * @param <A> result type
+ */
+@ThreadSafe
+final class StripedReduction<T, A> {
+  private final Deferred<A> deferred;
+  private final Accumulator<A, T> accumulator;
+  private final Accumulator<A, A> combiner;
+  private final Stripe<A>[] stripes;
+  private final AtomicInteger remaining;
+  private final AtomicBoolean finished = new AtomicBoolean(false);
+
+  private static final class Stripe<A> {
+    @GuardedBy("this")
+    private A partial;
+
+    Stripe(A partial) {
+      this.partial = partial;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  StripedReduction(Deferred<A> deferred, int expected, int stripeCount, A identity,
+                   Accumulator<A, T> accumulator, Accumulator<A, A> combiner) {
+    this.deferred = deferred;
+    this.accumulator = accumulator;
+    this.combiner = combiner;
+    this.remaining = new AtomicInteger(expected);
+    // Generic arrays can't be created directly, but the stripes never leave this class
+    this.stripes = (Stripe<A>[]) new Stripe<?>[Math.max(1, Math.min(expected, stripeCount))];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new Stripe<>(identity);
+    }
+    if (expected == 0) {
+      finish();
+    }
+  }
+
+  void fold(T value) {
+    if (finished.get()) {
+      return;
+    }
+    Stripe<A> stripe = stripes[(int) (Thread.currentThread().getId() % stripes.length)];
+    try {
+      synchronized (stripe) {
+        stripe.partial = accumulator.call(stripe.partial, value);
+      }
+    } catch (Exception e) {
+      reject(e);
+      return;
+    }
+    if (remaining.decrementAndGet() == 0) {
+      finish();
+    }
+  }
+
+  void reject(Exception reason) {
+    if (finished.compareAndSet(false, true)) {
+      deferred.reject(reason);
+    }
+  }
+
+  private void finish() {
+    A result;
+    try {
+      synchronized (stripes[0]) {
+        result = stripes[0].partial;
+      }
+      for (int i = 1; i < stripes.length; i++) {
+        synchronized (stripes[i]) {
+          result = combiner.call(result, stripes[i].partial);
+        }
+      }
+    } catch (Exception e) {
+      reject(e);
+      return;
+    }
+    if (finished.compareAndSet(false, true)) {
+      deferred.resolve(result);
+    }
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.io.IOException;
+
+
+/**
+ * Converts values to and from bytes, for storing or sending resolutions
+ * outside of the JVM. Null values are handled by the caller, so a codec is
+ * never given null to encode.
+ *
+ * @param <T> the type of values
+ * @see ValueCodecs
+ */
+public interface ValueCodec<T> {
+  /**
+   * @param value non-null value
+   * @return the bytes representing the value
+   * @throws IOException if the value can't be encoded
+   */
+  byte[] encode(T value) throws IOException;
+
+  /**
+   * @param bytes bytes produced by {@link #encode(Object)}
+   * @return the value represented by the bytes
+   * @throws IOException if the bytes can't be decoded
+   */
+  T decode(byte[] bytes) throws IOException;
+}
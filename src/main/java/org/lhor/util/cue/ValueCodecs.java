@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Common {@link ValueCodec}s.
+ */
+public final class ValueCodecs {
+  private static final ValueCodec<String> UTF_8 = new ValueCodec<String>() {
+    @Override
+    public byte[] encode(String value) {
+      return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String decode(byte[] bytes) {
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  };
+
+  private ValueCodecs() {
+  }
+
+  /**
+   * @return codec for Strings as UTF-8
+   */
+  public static ValueCodec<String> utf8() {
+    return UTF_8;
+  }
+
+  /**
+   * Encodes values with Java serialization.
+   * <p>
+   * Decoding runs readObject on whatever classes the bytes name, which can
+   * be made to run arbitrary code. Never decode bytes from a peer which is
+   * not trusted as much as this process; in particular, exporting a
+   * Deferred with this codec lets every holder of the exporter's token
+   * choose what is deserialized.
+   * </p>
+   *
+   * @param <T> the type of values
+   * @return codec for Serializable values using Java serialization
+   */
+  public static <T extends Serializable> ValueCodec<T> serialization() {
+    return new ValueCodec<T>() {
+      @Override
+      public byte[] encode(T value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+          out.writeObject(value);
+        }
+        return bytes.toByteArray();
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public T decode(byte[] bytes) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+          return (T) in.readObject();
+        } catch (ClassNotFoundException e) {
+          throw new IOException("Class of encoded value not found", e);
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.util.concurrent.ExecutorService;
+
+
+/**
+ * Access to virtual threads, which only exist from Java 21.
+ * <p>
+ * This is the version loaded before Java 21, where there are none. The jar is
+ * multi-release, and Java 21 or later loads the version built from
+ * <code>src/main/java21</code> in its place.
+ * </p>
+ */
+final class VirtualThreads {
+  private VirtualThreads() {
+  }
+
+  /**
+   * @return true if this JVM has virtual threads
+   */
+  static boolean supported() {
+    return false;
+  }
+
+  /**
+   * @return new ExecutorService which runs each task on a new virtual thread
+   * @throws UnsupportedOperationException if this JVM has no virtual threads
+   */
+  static ExecutorService newExecutor() {
+    throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * How a dedicated dispatcher thread waits for work when it has none, trading
+ * CPU time for how quickly it notices a newly dispatched task.
+ *
+ * @see Dispatchers#ringBuffer(int, WaitStrategy)
+ */
+public enum WaitStrategy {
+  /**
+   * Never gives up the CPU. This has the lowest latency, but keeps a core
+   * fully busy even when idle, so it should only be used where a core can be
+   * dedicated to the dispatcher.
+   */
+  BUSY_SPIN {
+    @Override
+    int idle(int attempts) {
+      return attempts + 1;
+    }
+  },
+
+  /**
+   * Spins briefly and then yields the CPU to other threads between checks.
+   * Latency stays low and other threads can make progress, but the core is
+   * still busy while idle.
+   */
+  YIELDING {
+    @Override
+    int idle(int attempts) {
+      if (attempts >= SPIN_ATTEMPTS) {
+        Thread.yield();
+      }
+      return attempts + 1;
+    }
+  },
+
+  /**
+   * Spins, then yields, then sleeps for short intervals between checks. This
+   * uses little CPU while idle at the cost of higher latency for the first
+   * task after an idle period.
+   */
+  SLEEPING {
+    @Override
+    int idle(int attempts) {
+      if (attempts >= SPIN_ATTEMPTS * 2) {
+        LockSupport.parkNanos(SLEEP_NANOS);
+      } else if (attempts >= SPIN_ATTEMPTS) {
+        Thread.yield();
+      }
+      return attempts + 1;
+    }
+  };
+
+  private static final int SPIN_ATTEMPTS = 100;
+  private static final long SLEEP_NANOS = 100_000L;
+
+  /**
+   * Waits once for work to arrive.
+   *
+   * @param attempts the number of times the thread has already waited since
+   *                 it last found work
+   * @return the new number of attempts
+   */
+  abstract int idle(int attempts);
+}
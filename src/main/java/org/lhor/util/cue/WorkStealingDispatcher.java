@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import net.jcip.annotations.Immutable;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * A Dispatcher which keeps callbacks on the worker that made them ready.
+ * <p>
+ * A task dispatched from one of the pool's own workers is forked onto that
+ * worker's local deque rather than going through the pool's shared
+ * submission queues, so the next callback in a chain usually runs on the
+ * same thread as the one which resolved it, while its data is still in that
+ * core's cache. A worker takes its own tasks newest first, so the callback
+ * runs straight after the one which resolved it, unless the pool was built
+ * in asyncMode, where local tasks run oldest first and the callback waits
+ * behind those the worker already had queued. Workers with nothing to do
+ * steal the oldest tasks from the other workers' deques.
+ * </p>
+ * <p>
+ * Tasks dispatched from any other thread are submitted to the pool as usual.
+ * A batch from another thread is handed to the pool as a single task which
+ * forks the rest from inside the pool, so they spread out by stealing.
+ * </p>
+ */
+@Immutable
+final class WorkStealingDispatcher implements Dispatcher {
+  private final ForkJoinPool pool;
+  private final Logger log = Logger.getLogger(WorkStealingDispatcher.class.getName());
+
+  WorkStealingDispatcher(ForkJoinPool pool) {
+    if (pool == null) {
+      throw new NullPointerException("pool");
+    }
+    this.pool = pool;
+  }
+
+  @Override
+  public void dispatch(Runnable task) {
+    if (task == null) {
+      throw new NullPointerException("task");
+    }
+    if (inPool()) {
+      ForkJoinTask.adapt(() -> run(task)).fork();
+    } else {
+      pool.execute(() -> run(task));
+    }
+  }
+
+  @Override
+  public void dispatchAll(List<Runnable> tasks) {
+    if (inPool() || tasks.size() <= 1) {
+      tasks.forEach(this::dispatch);
+    } else {
+      pool.execute(() -> tasks.forEach(this::dispatch));
+    }
+  }
+
+  private boolean inPool() {
+    Thread thread = Thread.currentThread();
+    return thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool;
+  }
+
+  private void run(Runnable task) {
+    try {
+      task.run();
+    } catch (RuntimeException e) {
+      log.log(Level.WARNING, "Dispatched task threw an exception", e);
+    }
+  }
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.io.Serializable;
+
+
+/**
+ * A callback which produces a value in a worker process of a
+ * {@link ProcessPool}. The task is serialized to be sent to the worker, and
+ * its value or Exception is serialized to be sent back.
+ *
+ * @param <O> return value
+ */
+@FunctionalInterface
+public interface WorkerTask<O> extends Serializable {
+  O call() throws Exception;
+}
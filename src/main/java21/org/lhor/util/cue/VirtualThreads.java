@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Access to virtual threads, which only exist from Java 21.
+ * <p>
+ * This is the version loaded on Java 21 or later, in place of the one in
+ * <code>src/main/java</code>.
+ * </p>
+ */
+final class VirtualThreads {
+  private VirtualThreads() {
+  }
+
+  /**
+   * @return true if this JVM has virtual threads
+   */
+  static boolean supported() {
+    return true;
+  }
+
+  /**
+   * @return new ExecutorService which runs each task on a new virtual thread
+   */
+  static ExecutorService newExecutor() {
+    return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("cue-virtual-", 0).factory());
+  }
+}
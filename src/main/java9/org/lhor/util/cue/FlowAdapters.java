@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Bridges {@link AsyncStream}s and {@link java.util.concurrent.Flow}
+ * publishers and subscribers, so streams can be handed to and fed from
+ * Reactive Streams libraries.
+ * <p>
+ * Flow only exists from Java 9, so this class is built from
+ * <code>src/main/java9</code> into the versioned part of the multi-release
+ * jar, and is not there at all on Java 8.
+ * </p>
+ */
+public final class FlowAdapters {
+  /** Handed to subscribers which are refused, so they can be told why */
+  private static final Flow.Subscription REFUSED = new Flow.Subscription() {
+    @Override
+    public void request(long n) {
+    }
+
+    @Override
+    public void cancel() {
+    }
+  };
+
+  private FlowAdapters() {
+  }
+
+  /**
+   * Publishes the stream's values to a subscriber.
+   * <p>
+   * The subscriber's demand is met by requesting values from the stream
+   * with {@link AsyncStream#next()}, one at a time and only while demand is
+   * outstanding, so the stream is pulled no faster than the subscriber
+   * asks. As a stream delivers each value once, the publisher accepts a
+   * single subscriber; any later one is sent an IllegalStateException.
+   * Cancelling stops requesting values, but a value already requested is
+   * taken from the stream and dropped.
+   * </p>
+   *
+   * @param stream non-null stream to publish
+   * @param <T> the type of values in the stream
+   * @return new publisher of the stream
+   */
+  public static <T> Flow.Publisher<T> toPublisher(AsyncStream<T> stream) {
+    if (stream == null) {
+      throw new NullPointerException("stream");
+    }
+
+    AtomicBoolean subscribed = new AtomicBoolean();
+    return subscriber -> {
+      if (subscriber == null) {
+        throw new NullPointerException("subscriber");
+      } else if (!subscribed.compareAndSet(false, true)) {
+        subscriber.onSubscribe(REFUSED);
+        subscriber.onError(new IllegalStateException("The stream already has a subscriber"));
+        return;
+      }
+      subscriber.onSubscribe(new StreamSubscription<>(stream, subscriber));
+    };
+  }
+
+  /**
+   * Subscribes to the publisher and returns a stream of the values it
+   * publishes.
+   * <p>
+   * The values are emitted into an {@link Emitter} with the given capacity.
+   * The publisher is first asked for that many values, then for one more
+   * each time the Emitter accepts one, so no more than twice the capacity
+   * is ever held on the publisher's behalf. An error from the publisher
+   * ends the stream with it, wrapped in an ExecutionException if it is not
+   * an Exception.
+   * </p>
+   *
+   * @param cue not-null Cue producing the stream
+   * @param publisher not-null publisher to subscribe to
+   * @param capacity the number of values requested ahead of the stream's
+   *                 consumer, at least 1
+   * @param <T> the type of values published
+   * @return new stream of the published values
+   * @throws IllegalArgumentException if capacity is less than 1
+   */
+  public static <T> AsyncStream<T> toStream(Cue cue, Flow.Publisher<T> publisher, int capacity) {
+    if (cue == null) {
+      throw new NullPointerException("cue");
+    } else if (publisher == null) {
+      throw new NullPointerException("publisher");
+    }
+
+    Emitter<T> emitter = cue.emitter(capacity);
+    publisher.subscribe(new EmittingSubscriber<>(emitter, capacity));
+    return emitter.stream();
+  }
+
+  /**
+   * Pulls one value from the stream at a time while the subscriber has
+   * demand. Only one pull is in flight at a time, so the subscriber is
+   * signalled serially.
+   */
+  private static final class StreamSubscription<T> implements Flow.Subscription {
+    private final AsyncStream<T> stream;
+    private final Flow.Subscriber<? super T> subscriber;
+    /** Values requested and not yet delivered; a pull is in flight while it is positive */
+    private final AtomicLong demand = new AtomicLong();
+    /** Set by a non-positive request, and signalled by the next pull */
+    private volatile IllegalArgumentException invalid;
+    private volatile boolean done;
+
+    private StreamSubscription(AsyncStream<T> stream, Flow.Subscriber<? super T> subscriber) {
+      this.stream = stream;
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        invalid = new IllegalArgumentException("Requests must be positive: " + n);
+        n = 1;
+      }
+      long added = n;
+      if (demand.getAndUpdate(d -> d + added < 0 ? Long.MAX_VALUE : d + added) == 0) {
+        pull();
+      }
+    }
+
+    @Override
+    public void cancel() {
+      done = true;
+    }
+
+    private void pull() {
+      if (done) {
+        return;
+      }
+      IllegalArgumentException error = invalid;
+      if (error != null) {
+        done = true;
+        subscriber.onError(error);
+        return;
+      }
+
+      stream.next().then((Optional<T> value) -> {
+        if (done) {
+          return;
+        } else if (!value.isPresent()) {
+          done = true;
+          subscriber.onComplete();
+          return;
+        }
+        subscriber.onNext(value.get());
+        if (demand.decrementAndGet() > 0) {
+          pull();
+        }
+      }).fail(reason -> {
+        if (!done) {
+          done = true;
+          subscriber.onError(reason);
+        }
+      });
+    }
+  }
+
+  /**
+   * Emits what the publisher sends, requesting another value whenever the
+   * Emitter accepts one.
+   */
+  private static final class EmittingSubscriber<T> implements Flow.Subscriber<T> {
+    private final Emitter<T> emitter;
+    private final int capacity;
+    private volatile Flow.Subscription subscription;
+
+    private EmittingSubscriber(Emitter<T> emitter, int capacity) {
+      this.emitter = emitter;
+      this.capacity = capacity;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      if (subscription == null) {
+        throw new NullPointerException("subscription");
+      } else if (this.subscription != null) {
+        subscription.cancel();
+        return;
+      }
+      this.subscription = subscription;
+      subscription.request(capacity);
+    }
+
+    @Override
+    public void onNext(T item) {
+      if (item == null) {
+        throw new NullPointerException("item");
+      }
+      emitter.emit(item).then(() -> {
+        subscription.request(1);
+      });
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      emitter.fail(throwable instanceof Exception ? (Exception) throwable : new ExecutionException(throwable));
+    }
+
+    @Override
+    public void onComplete() {
+      emitter.complete();
+    }
+  }
+}
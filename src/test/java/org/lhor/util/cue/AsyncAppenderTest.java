@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+
+public class AsyncAppenderTest {
+  private static final Cue cue = new CueFactory(ForkJoinPool.commonPool()).get();
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private static ByteBuffer ascii(String s) {
+    return ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testOffsets() throws IOException {
+    Path path = folder.newFile().toPath();
+    Files.write(path, "head".getBytes(StandardCharsets.US_ASCII));
+    try (AsyncAppender appender = new AsyncAppender(cue, path)) {
+      Assert.assertEquals(Long.valueOf(4), appender.append(ascii("one")).done());
+      Assert.assertEquals(Long.valueOf(7), appender.append(ascii("two")).done());
+    }
+    Assert.assertEquals("headonetwo", new String(Files.readAllBytes(path), StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testGroupCommit() throws IOException {
+    Path path = folder.newFile().toPath();
+    List<Promise<Long>> offsets = new ArrayList<>();
+    try (AsyncAppender appender = new AsyncAppender(cue, path)) {
+      for (int i = 0; i < 1000; i++) {
+        offsets.add(appender.append(ascii(String.format("%04d", i))));
+      }
+      for (int i = 0; i < 1000; i++) {
+        Assert.assertEquals(Long.valueOf(i * 4), offsets.get(i).done());
+      }
+      Assert.assertTrue(appender.forces() < 1000);
+    }
+    byte[] contents = Files.readAllBytes(path);
+    Assert.assertEquals(4000, contents.length);
+    Assert.assertEquals("0999", new String(contents, 3996, 4, StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testCloseWritesPending() throws IOException {
+    Path path = folder.newFile().toPath();
+    List<Promise<Long>> offsets = new ArrayList<>();
+    AsyncAppender appender = new AsyncAppender(cue, path);
+    for (int i = 0; i < 100; i++) {
+      offsets.add(appender.append(ascii("x")));
+    }
+    appender.close();
+    Assert.assertEquals(100, Files.size(path));
+    offsets.forEach(Promise::done);
+  }
+
+  @Test
+  public void testAppendAfterClose() throws IOException {
+    AsyncAppender appender = new AsyncAppender(cue, folder.newFile().toPath());
+    appender.close();
+    try {
+      appender.append(ascii("x")).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof IllegalStateException);
+    }
+  }
+}
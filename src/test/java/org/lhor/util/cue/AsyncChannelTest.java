@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class AsyncChannelTest {
+  private static final ForkJoinPool executors = new ForkJoinPool(8);
+  private static final Cue cue = new CueFactory(executors).get();
+
+  @Test
+  public void testReceiveInSendOrder() {
+    AsyncChannel<String> channel = cue.channel(4);
+    channel.send("a");
+    channel.send("b");
+    Assert.assertEquals("a", channel.receive().done());
+    Assert.assertEquals("b", channel.receive().done());
+  }
+
+  @Test
+  public void testReceiveWaitsForSend() {
+    AsyncChannel<String> channel = cue.channel(4);
+    Promise<String> first = channel.receive();
+    Promise<String> second = channel.receive();
+    channel.send("a");
+    channel.send("b");
+    Assert.assertEquals("a", first.done());
+    Assert.assertEquals("b", second.done());
+  }
+
+  @Test
+  public void testSendWaitsForRoom() throws InterruptedException {
+    AsyncChannel<String> channel = cue.channel(1);
+    Promise<Void> first = channel.send("a");
+    Promise<Void> second = channel.send("b");
+    AtomicBoolean admitted = new AtomicBoolean(false);
+    second.then(() -> admitted.set(true));
+    first.done();
+    Thread.sleep(50);
+    Assert.assertFalse(admitted.get());
+
+    Assert.assertEquals("a", channel.receive().done());
+    second.done();
+    Assert.assertEquals("b", channel.receive().done());
+  }
+
+  @Test
+  public void testManyProducersAndConsumers() {
+    int producers = 8;
+    int perProducer = 1000;
+    AsyncChannel<Integer> channel = cue.channel(16);
+    AtomicLong sum = new AtomicLong();
+    List<Promise<Void>> done = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      done.add(produce(channel, 1, perProducer));
+      done.add(consume(channel, sum, perProducer));
+    }
+    done.forEach(Promise::done);
+    Assert.assertEquals((long) producers * perProducer * (perProducer + 1) / 2, sum.get());
+  }
+
+  // Each send or receive is made from the callback of the previous one, so no thread waits
+  private static Promise<Void> produce(AsyncChannel<Integer> channel, int next, int last) {
+    Promise<Void> sent = channel.send(next);
+    if (next == last) {
+      return sent;
+    }
+    Deferred<Void> deferred = cue.defer();
+    sent.then(() -> deferred.resolveFrom(produce(channel, next + 1, last)));
+    return deferred.promise();
+  }
+
+  private static Promise<Void> consume(AsyncChannel<Integer> channel, AtomicLong sum, int remaining) {
+    Deferred<Void> deferred = cue.defer();
+    channel.receive().then(value -> {
+      sum.addAndGet(value);
+      if (remaining == 1) {
+        deferred.resolve(null);
+      } else {
+        deferred.resolveFrom(consume(channel, sum, remaining - 1));
+      }
+    });
+    return deferred.promise();
+  }
+
+  @Test
+  public void testClose() {
+    AsyncChannel<String> channel = cue.channel(1);
+    channel.send("a");
+    Promise<Void> waiting = channel.send("b");
+    channel.close();
+    try {
+      channel.send("c").done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof IllegalStateException);
+    }
+    Assert.assertEquals("a", channel.receive().done());
+    waiting.done();
+    Assert.assertEquals("b", channel.receive().done());
+    try {
+      channel.receive().done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof IllegalStateException);
+    }
+  }
+}
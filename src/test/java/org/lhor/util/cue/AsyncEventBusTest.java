@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class AsyncEventBusTest {
+  private static final ForkJoinPool executors = new ForkJoinPool(8);
+  private static final Cue cue = new CueFactory(executors).get();
+
+  @Test
+  public void testPublishWaitsForEverySubscriber() {
+    AsyncEventBus<String> bus = new AsyncEventBus<>(cue);
+    AtomicInteger handled = new AtomicInteger();
+    bus.subscribe("orders", event -> {
+      handled.incrementAndGet();
+    });
+    bus.subscribe("orders", event -> {
+      handled.incrementAndGet();
+    });
+    bus.subscribe("refunds", event -> {
+      Assert.fail();
+    });
+
+    bus.publish("orders", "placed").done();
+    Assert.assertEquals(2, handled.get());
+  }
+
+  @Test
+  public void testPublishWithoutSubscribers() {
+    AsyncEventBus<String> bus = new AsyncEventBus<>(cue);
+    bus.publish("nobody", "listening").done();
+    Assert.assertEquals(0, bus.subscribers("nobody"));
+  }
+
+  @Test
+  public void testHandlerThrows() {
+    AsyncEventBus<String> bus = new AsyncEventBus<>(cue);
+    AtomicInteger handled = new AtomicInteger();
+    bus.subscribe("orders", event -> {
+      throw new IllegalStateException("broken");
+    });
+    bus.subscribe("orders", event -> {
+      handled.incrementAndGet();
+    });
+
+    try {
+      bus.publish("orders", "placed").done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof IllegalStateException);
+    }
+    Assert.assertEquals(1, handled.get());
+  }
+
+  @Test
+  public void testPost() throws InterruptedException {
+    AsyncEventBus<String> bus = new AsyncEventBus<>(cue);
+    CountDownLatch handled = new CountDownLatch(1);
+    bus.subscribe("orders", event -> {
+      handled.await();
+    });
+
+    // Resolved while the handler is still waiting
+    bus.post("orders", "placed").done();
+    handled.countDown();
+  }
+
+  @Test
+  public void testDeliveredInOrder() {
+    AsyncEventBus<Integer> bus = new AsyncEventBus<>(cue);
+    List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+    bus.subscribe("numbers", event -> {
+      received.add(event);
+    });
+
+    for (int i = 0; i < 999; i++) {
+      bus.post("numbers", i);
+    }
+    bus.publish("numbers", 999).done();
+    Assert.assertEquals(1000, received.size());
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertEquals(Integer.valueOf(i), received.get(i));
+    }
+  }
+
+  @Test
+  public void testUnsubscribe() {
+    AsyncEventBus<String> bus = new AsyncEventBus<>(cue);
+    AtomicInteger handled = new AtomicInteger();
+    AsyncEventBus.Subscription<String> subscription = bus.subscribe("orders", event -> {
+      handled.incrementAndGet();
+    });
+    bus.publish("orders", "first").done();
+
+    Assert.assertTrue(subscription.unsubscribe());
+    Assert.assertFalse(subscription.unsubscribe());
+    Assert.assertEquals(0, bus.subscribers("orders"));
+    bus.publish("orders", "second").done();
+    Assert.assertEquals(1, handled.get());
+  }
+
+  @Test
+  public void testRefusedDropsEvents() {
+    ExecutorService single = Executors.newSingleThreadExecutor();
+    single.shutdown();
+    AsyncEventBus<String> bus = new AsyncEventBus<>(new CueFactory(single).get());
+    bus.subscribe("orders", event -> {
+      Assert.fail();
+    });
+    try {
+      bus.publish("orders", "placed").done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof RejectedExecutionException);
+    }
+  }
+
+  @Test
+  public void testHandlerErrorDoesNotStopDelivery() {
+    AsyncEventBus<String> bus = new AsyncEventBus<>(cue);
+    List<String> handled = Collections.synchronizedList(new ArrayList<>());
+    bus.subscribe("orders", event -> {
+      if (event.equals("fatal")) {
+        throw new AssertionError("broken");
+      }
+      handled.add(event);
+    });
+    bus.post("orders", "fatal");
+    bus.publish("orders", "placed").done();
+    Assert.assertEquals(Collections.singletonList("placed"), handled);
+  }
+
+  @Test
+  public void testHotTopicBatched() throws InterruptedException {
+    ExecutorService single = Executors.newSingleThreadExecutor();
+    try {
+      Cue serial = new CueFactory(single).get();
+      AsyncEventBus<Integer> bus = new AsyncEventBus<>(serial);
+      AtomicInteger handled = new AtomicInteger();
+      bus.subscribe("ticks", event -> {
+        handled.incrementAndGet();
+      });
+
+      // Holds the only thread until every event has been queued
+      CountDownLatch queued = new CountDownLatch(1);
+      serial.when(null).then(() -> {
+        queued.await();
+      });
+      int count = AsyncEventBus.BATCH * 4;
+      for (int i = 0; i < count - 1; i++) {
+        bus.post("ticks", i);
+      }
+      Promise<Void> last = bus.publish("ticks", count - 1);
+      queued.countDown();
+      last.done();
+
+      Assert.assertEquals(count, handled.get());
+      Assert.assertEquals(4, bus.drains());
+    } finally {
+      single.shutdown();
+    }
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+
+public class AsyncStreamTest {
+  private static final ForkJoinPool executors = new ForkJoinPool(50);
+  private static final Cue cue = new CueFactory(executors).get();
+
+  private static AsyncStream<Integer> range(int end) {
+    return cue.stream(IntStream.range(0, end).iterator());
+  }
+
+  private static <T> List<T> collect(AsyncStream<T> stream) {
+    List<T> values = Collections.synchronizedList(new ArrayList<>());
+    stream.forEach(values::add).done();
+    return values;
+  }
+
+  @Test
+  public void testIteratorStream() {
+    AsyncStream<String> stream = cue.stream(Arrays.asList("a", "b").iterator());
+    Assert.assertEquals(Optional.of("a"), stream.next().done());
+    Assert.assertEquals(Optional.of("b"), stream.next().done());
+    Assert.assertEquals(Optional.empty(), stream.next().done());
+    Assert.assertEquals(Optional.empty(), stream.next().done());
+  }
+
+  @Test
+  public void testMapFilterReduce() {
+    int sum = range(100)
+        .map(i -> i * 2)
+        .filter(i -> i % 3 == 0)
+        .reduce(0, (partial, i) -> partial + i)
+        .done();
+    Assert.assertEquals(IntStream.range(0, 100).map(i -> i * 2).filter(i -> i % 3 == 0).sum(), sum);
+  }
+
+  @Test
+  public void testFilterKeepsOrder() {
+    AsyncStream<Integer> evens = range(1000).filter(i -> i % 2 == 0);
+    List<Promise<Optional<Integer>>> requests = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      requests.add(evens.next());
+    }
+    for (int i = 0; i < 500; i++) {
+      Assert.assertEquals(Optional.of(i * 2), requests.get(i).done());
+    }
+    Assert.assertEquals(Optional.empty(), evens.next().done());
+  }
+
+  @Test
+  public void testMapFailureEndsStream() {
+    Exception reason = new IllegalStateException();
+    AsyncStream<Integer> stream = range(10).map(i -> {
+      if (i == 3) {
+        throw reason;
+      }
+      return i;
+    });
+    try {
+      stream.reduce(0, (partial, i) -> partial + i).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertSame(reason, e.getReason());
+    }
+    try {
+      stream.next().done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertSame(reason, e.getReason());
+    }
+  }
+
+  @Test
+  public void testNullValueEndsStream() {
+    try {
+      cue.stream(Arrays.asList("a", null).iterator()).forEach(s -> {}).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof NullPointerException);
+    }
+  }
+
+  @Test
+  public void testBufferKeepsOrder() {
+    List<Integer> values = collect(range(200).buffer(16));
+    Assert.assertEquals(IntStream.range(0, 200).boxed().collect(Collectors.toList()), values);
+  }
+
+  @Test
+  public void testFlatMapConcurrent() {
+    List<Integer> values = collect(range(20).flatMapConcurrent(i -> range(10).map(j -> i * 10 + j), 4));
+    Collections.sort(values);
+    Assert.assertEquals(IntStream.range(0, 200).boxed().collect(Collectors.toList()), values);
+  }
+
+  @Test
+  public void testFlatMapConcurrentInnerFailure() {
+    Exception reason = new IllegalStateException();
+    AsyncStream<Integer> stream = range(5).flatMapConcurrent(i -> {
+      if (i == 2) {
+        return range(3).map(j -> { throw reason; });
+      }
+      return range(3);
+    }, 2);
+    try {
+      stream.forEach(i -> {}).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertSame(reason, e.getReason());
+    }
+  }
+
+  @Test
+  public void testEmitterBackpressure() throws InterruptedException {
+    Emitter<String> emitter = cue.emitter(1);
+    Promise<Void> first = emitter.emit("a");
+    Promise<Void> second = emitter.emit("b");
+    AtomicBoolean admitted = new AtomicBoolean(false);
+    second.then(() -> admitted.set(true));
+    first.done();
+    Thread.sleep(50);
+    Assert.assertFalse(admitted.get());
+
+    AsyncStream<String> stream = emitter.stream();
+    Assert.assertEquals(Optional.of("a"), stream.next().done());
+    second.done();
+    emitter.complete();
+    Assert.assertEquals(Optional.of("b"), stream.next().done());
+    Assert.assertEquals(Optional.empty(), stream.next().done());
+  }
+
+  @Test
+  public void testEmitterWaitingConsumer() {
+    Emitter<String> emitter = cue.emitter(4);
+    Promise<Optional<String>> request = emitter.stream().next();
+    emitter.emit("a");
+    Assert.assertEquals(Optional.of("a"), request.done());
+  }
+
+  @Test
+  public void testEmitterFail() {
+    Exception reason = new IllegalStateException();
+    Emitter<String> emitter = cue.emitter(4);
+    emitter.emit("a");
+    emitter.fail(reason);
+    emitter.complete();
+    AsyncStream<String> stream = emitter.stream();
+    Assert.assertEquals(Optional.of("a"), stream.next().done());
+    try {
+      stream.next().done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertSame(reason, e.getReason());
+    }
+  }
+
+  @Test(expected = RejectedException.class)
+  public void testEmitAfterComplete() {
+    Emitter<String> emitter = cue.emitter(4);
+    emitter.complete();
+    emitter.emit("a").done();
+  }
+
+  @Test
+  public void testMapConcurrentOrdered() {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxSeen = new AtomicInteger();
+    AsyncStream<Integer> stream = cue.mapConcurrent(IntStream.range(0, 500).iterator(), i -> {
+      maxSeen.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      Deferred<Integer> deferred = cue.defer();
+      executors.submit(() -> {
+        inFlight.decrementAndGet();
+        deferred.resolve(i * 2);
+      });
+      return deferred.promise();
+    }, 8);
+    List<Integer> values = collect(stream);
+    Assert.assertEquals(IntStream.range(0, 500).map(i -> i * 2).boxed().collect(Collectors.toList()), values);
+    Assert.assertTrue(maxSeen.get() <= 8);
+  }
+
+  @Test
+  public void testMapConcurrentUnordered() {
+    List<Integer> values = collect(cue.mapConcurrentUnordered(IntStream.range(0, 500).iterator(),
+        i -> cue.when(i + 1), 8));
+    Collections.sort(values);
+    Assert.assertEquals(IntStream.range(1, 501).boxed().collect(Collectors.toList()), values);
+  }
+
+  @Test
+  public void testMapConcurrentPullsLazily() {
+    AtomicInteger pulled = new AtomicInteger();
+    Iterator<Integer> iterator = IntStream.range(0, 1000).peek(i -> pulled.incrementAndGet()).iterator();
+    AsyncStream<Integer> stream = cue.mapConcurrent(iterator, i -> cue.when(i), 4);
+    Assert.assertEquals(Optional.of(0), stream.next().done());
+    Assert.assertTrue(pulled.get() <= 5);
+  }
+
+  @Test
+  public void testMapConcurrentRejected() {
+    Exception reason = new Exception();
+    AsyncStream<Integer> stream = cue.mapConcurrent(IntStream.range(0, 10).iterator(),
+        i -> i == 5 ? cue.<Integer>reject(reason) : cue.when(i), 3);
+    try {
+      stream.forEach(i -> {}).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertSame(reason, e.getReason());
+    }
+  }
+}
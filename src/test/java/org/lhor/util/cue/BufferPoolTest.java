@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+
+public class BufferPoolTest {
+  private static final Cue cue = new CueFactory(ForkJoinPool.commonPool()).get();
+
+  @Test
+  public void testAcquire() {
+    BufferPool pool = new BufferPool(4, false);
+    ByteBuffer buffer = pool.acquire(1000).buffer();
+    Assert.assertTrue(buffer.isDirect());
+    Assert.assertEquals(0, buffer.position());
+    Assert.assertEquals(1000, buffer.limit());
+    Assert.assertEquals(1024, buffer.capacity());
+  }
+
+  @Test
+  public void testReleaseRecycles() {
+    BufferPool pool = new BufferPool(4, false);
+    PooledBuffer first = pool.acquire(300);
+    ByteBuffer buffer = first.buffer();
+    buffer.position(10);
+    Assert.assertTrue(first.release());
+    Assert.assertEquals(1, pool.free());
+
+    PooledBuffer second = pool.acquire(512);
+    Assert.assertSame(buffer, second.buffer());
+    Assert.assertEquals(0, buffer.position());
+    Assert.assertEquals(512, buffer.limit());
+    Assert.assertEquals(0, pool.free());
+  }
+
+  @Test
+  public void testRetain() {
+    BufferPool pool = new BufferPool(4, false);
+    PooledBuffer pooled = pool.acquire(10);
+    Assert.assertSame(pooled, pooled.retain());
+    Assert.assertEquals(2, pooled.referenceCount());
+    Assert.assertFalse(pooled.release());
+    Assert.assertEquals(0, pool.free());
+    Assert.assertTrue(pooled.release());
+    Assert.assertEquals(1, pool.free());
+  }
+
+  @Test
+  public void testReleasedBufferUnusable() {
+    PooledBuffer pooled = new BufferPool(4, false).acquire(10);
+    pooled.release();
+    try {
+      pooled.buffer();
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      pooled.release();
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      pooled.retain();
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testFreeLimit() {
+    BufferPool pool = new BufferPool(1, false);
+    PooledBuffer first = pool.acquire(10);
+    PooledBuffer second = pool.acquire(10);
+    first.release();
+    second.release();
+    Assert.assertEquals(1, pool.free());
+  }
+
+  @Test
+  public void testOversizeNotPooled() {
+    BufferPool pool = new BufferPool(4, false);
+    PooledBuffer pooled = pool.acquire((1 << BufferPool.MAX_SHIFT) + 1);
+    Assert.assertEquals((1 << BufferPool.MAX_SHIFT) + 1, pooled.buffer().capacity());
+    pooled.release();
+    Assert.assertEquals(0, pool.free());
+  }
+
+  @Test
+  public void testReleaseAfter() {
+    BufferPool pool = new BufferPool(4, false);
+    PooledBuffer pooled = pool.acquire(10);
+    Deferred<Void> deferred = cue.defer();
+    pooled.releaseAfter(deferred.promise());
+    Assert.assertEquals(1, pooled.referenceCount());
+    deferred.resolve(null);
+    for (int i = 0; i < 100 && pool.free() == 0; i++) {
+      cue.when(null).done();
+      Thread.yield();
+    }
+    Assert.assertEquals(0, pooled.referenceCount());
+  }
+
+  @Test
+  public void testLeakDetected() throws InterruptedException {
+    BufferPool pool = new BufferPool(4, true);
+    pool.acquire(10);
+    for (int i = 0; i < 100 && pool.leaks() == 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+      pool.acquire(10).release();
+    }
+    Assert.assertEquals(1, pool.leaks());
+  }
+
+  @Test
+  public void testReleasedNotLeaked() throws InterruptedException {
+    BufferPool pool = new BufferPool(4, true);
+    pool.acquire(10).release();
+    System.gc();
+    Thread.sleep(10);
+    pool.acquire(10).release();
+    Assert.assertEquals(0, pool.leaks());
+  }
+}
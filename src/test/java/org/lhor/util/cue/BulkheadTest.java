@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+public class BulkheadTest {
+  private static final ForkJoinPool executors = new ForkJoinPool(8);
+  private final Bulkheads bulkheads = new CueFactory(executors).bulkheads();
+  private final CountDownLatch blocked = new CountDownLatch(1);
+
+  @After
+  public void close() {
+    blocked.countDown();
+    bulkheads.close();
+  }
+
+  /** Resolves a chain on the Bulkhead whose callback holds a thread until the latch is released */
+  private Promise<String> occupy(Bulkhead bulkhead) {
+    Deferred<String> deferred = bulkhead.cue().defer();
+    Promise<String> promise = deferred.promise().then(s -> {
+      blocked.await();
+      return s;
+    });
+    deferred.resolve("occupied");
+    return promise;
+  }
+
+  @Test
+  public void testRunawayBulkheadDoesNotBlockAnother() {
+    Bulkhead runaway = bulkheads.create("runaway", 2, 10);
+    Bulkhead other = bulkheads.create("other", 1, 10);
+    occupy(runaway);
+    occupy(runaway);
+    Assert.assertEquals("ab", other.cue().when("a").then(s -> s + "b").done());
+  }
+
+  @Test
+  public void testOverflowRejectsPromise() throws InterruptedException {
+    Bulkhead bulkhead = bulkheads.create("small", 1, 1);
+    Promise<String> running = occupy(bulkhead);
+    waitForActive(bulkhead);
+    Promise<String> queued = bulkhead.cue().when("queued").then(s -> s);
+    Promise<String> overflow = bulkhead.cue().when("overflow").then(s -> s);
+    try {
+      overflow.done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof RejectedExecutionException);
+    }
+    Assert.assertEquals(1, bulkhead.rejectedCount());
+    Assert.assertEquals(1, bulkhead.queuedCount());
+    blocked.countDown();
+    Assert.assertEquals("occupied", running.done());
+    Assert.assertEquals("queued", queued.done());
+  }
+
+  @Test
+  public void testOverflowRejectsCueTasks() throws InterruptedException {
+    Bulkhead bulkhead = bulkheads.create("tasks", 1, 0);
+    occupy(bulkhead);
+    waitForActive(bulkhead);
+    try {
+      bulkhead.cue().all(Arrays.asList(bulkhead.cue().when("a"))).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof RejectedExecutionException);
+    }
+  }
+
+  @Test
+  public void testOverflowDropsAlways() throws InterruptedException {
+    Bulkhead bulkhead = bulkheads.create("always", 1, 0);
+    occupy(bulkhead);
+    waitForActive(bulkhead);
+    AtomicBoolean ran = new AtomicBoolean();
+    bulkhead.cue().when("a").always(() -> ran.set(true));
+    Assert.assertFalse(ran.get());
+    Assert.assertEquals(1, bulkhead.rejectedCount());
+  }
+
+  @Test
+  public void testRegistry() {
+    Bulkhead first = bulkheads.create("first", 1, 1);
+    Bulkhead second = bulkheads.create("second", 2, 4);
+    Assert.assertSame(first, bulkheads.get("first"));
+    Assert.assertNull(bulkheads.get("third"));
+    Assert.assertEquals(2, bulkheads.all().size());
+    Assert.assertTrue(bulkheads.all().contains(second));
+    Assert.assertEquals(2, second.threads());
+    Assert.assertEquals(4, second.queueLimit());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateName() {
+    bulkheads.create("same", 1, 1);
+    bulkheads.create("same", 1, 1);
+  }
+
+  @Test
+  public void testCloseReleasesName() {
+    Bulkhead first = bulkheads.create("reused", 1, 1);
+    first.close();
+    Assert.assertNull(bulkheads.get("reused"));
+    Assert.assertFalse(bulkheads.all().contains(first));
+    Bulkhead second = bulkheads.create("reused", 1, 1);
+    Assert.assertSame(second, bulkheads.get("reused"));
+    first.close();
+    Assert.assertSame(second, bulkheads.get("reused"));
+  }
+
+  @Test
+  public void testModuleBindsBulkheads() {
+    Injector injector = Guice.createInjector(new CueModule(executors));
+    Bulkheads injected = injector.getInstance(Bulkheads.class);
+    Assert.assertSame(injected, injector.getInstance(Bulkheads.class));
+    try (Bulkhead bulkhead = injected.create("injected", 1, 1)) {
+      Assert.assertEquals("a", bulkhead.cue().when("a").then(s -> s).done());
+    }
+  }
+
+  private static void waitForActive(Bulkhead bulkhead) throws InterruptedException {
+    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (bulkhead.activeCount() == 0 && System.nanoTime() < end) {
+      Thread.sleep(1);
+    }
+  }
+}
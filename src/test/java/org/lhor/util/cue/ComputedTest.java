@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class ComputedTest {
+  private static final ForkJoinPool executors = new ForkJoinPool(8);
+  private static final Cue cue = new CueFactory(executors).get();
+
+  @Test
+  public void testCell() {
+    Cell<String> cell = cue.cell("first");
+    Assert.assertEquals("first", cell.get().done());
+    cell.set("second");
+    Assert.assertEquals("second", cell.get().done());
+  }
+
+  @Test
+  public void testRecomputedOnChange() {
+    Cell<Integer> cell = cue.cell(2);
+    Computed<Integer> computed = cue.computed(cell, value -> value * 10);
+    Assert.assertEquals(Integer.valueOf(20), computed.get().done());
+
+    cell.set(3);
+    Assert.assertEquals(Integer.valueOf(30), computed.get().done());
+  }
+
+  @Test
+  public void testMultipleDependencies() {
+    Cell<Integer> width = cue.cell(2);
+    Cell<Integer> height = cue.cell(3);
+    Computed<Integer> area = cue.computed(Arrays.asList(width, height),
+        values -> (Integer) values.get(0) * (Integer) values.get(1));
+    Assert.assertEquals(Integer.valueOf(6), area.get().done());
+
+    height.set(5);
+    Assert.assertEquals(Integer.valueOf(10), area.get().done());
+  }
+
+  @Test
+  public void testRefusedRecomputeRejected() {
+    ExecutorService single = Executors.newSingleThreadExecutor();
+    single.shutdown();
+    Cue refusing = new CueFactory(single).get();
+    Computed<Integer> computed = refusing.computed(refusing.cell(1), value -> value * 2);
+    try {
+      computed.get().done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof RejectedExecutionException);
+    }
+  }
+
+  @Test
+  public void testChained() {
+    Cell<Integer> cell = cue.cell(1);
+    Computed<Integer> doubled = cue.computed(cell, value -> value * 2);
+    Computed<String> described = cue.computed(doubled, value -> "value is " + value);
+    Assert.assertEquals("value is 2", described.get().done());
+
+    cell.set(21);
+    Assert.assertEquals("value is 42", described.get().done());
+  }
+
+  @Test
+  public void testUnchangedValueNotRecomputed() {
+    Cell<String> cell = cue.cell("same");
+    ComputedImpl<Integer> computed = (ComputedImpl<Integer>) cue.computed(cell, String::length);
+    computed.get().done();
+
+    cell.set("same");
+    Assert.assertEquals(Integer.valueOf(4), computed.get().done());
+    Assert.assertEquals(1, computed.computations());
+  }
+
+  @Test
+  public void testBurstMerged() {
+    ExecutorService single = Executors.newSingleThreadExecutor();
+    try {
+      Cue serial = new CueFactory(single).get();
+      Cell<Integer> cell = serial.cell(0);
+      ComputedImpl<Integer> computed = (ComputedImpl<Integer>) serial.computed(cell, value -> value + 1);
+      Assert.assertEquals(Integer.valueOf(1), computed.get().done());
+
+      // Holds the only thread until the burst is over
+      CountDownLatch burst = new CountDownLatch(1);
+      serial.when(null).then(() -> {
+        burst.await();
+      });
+      for (int i = 1; i <= 100; i++) {
+        cell.set(i);
+      }
+      Promise<Integer> latest = computed.get();
+      burst.countDown();
+
+      Assert.assertEquals(Integer.valueOf(101), latest.done());
+      Assert.assertEquals(2, computed.computations());
+    } finally {
+      single.shutdown();
+    }
+  }
+
+  @Test
+  public void testDiamondConsistent() {
+    Cell<Integer> cell = cue.cell(0);
+    Computed<Integer> plusOne = cue.computed(cell, value -> value + 1);
+    Computed<Integer> timesTwo = cue.computed(cell, value -> value * 2);
+    AtomicInteger glitches = new AtomicInteger();
+    Computed<Integer> sum = cue.computed(Arrays.asList(plusOne, timesTwo), values -> {
+      int a = (Integer) values.get(0);
+      int b = (Integer) values.get(1);
+      if ((a - 1) * 2 != b) {
+        glitches.incrementAndGet();
+      }
+      return a + b;
+    });
+
+    for (int i = 1; i <= 200; i++) {
+      cell.set(i);
+    }
+    Assert.assertEquals(Integer.valueOf(201 + 400), sum.get().done());
+    Assert.assertEquals(0, glitches.get());
+  }
+
+  @Test
+  public void testComputeThrows() {
+    Cell<Integer> divisor = cue.cell(0);
+    Computed<Integer> quotient = cue.computed(divisor, value -> 100 / value);
+    try {
+      quotient.get().done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof ArithmeticException);
+    }
+
+    divisor.set(4);
+    Assert.assertEquals(Integer.valueOf(25), quotient.get().done());
+  }
+
+  @Test
+  public void testDependencyRejectionPropagates() {
+    Cell<Integer> divisor = cue.cell(0);
+    Computed<Integer> quotient = cue.computed(divisor, value -> 100 / value);
+    Computed<Integer> doubled = cue.computed(quotient, value -> value * 2);
+    try {
+      doubled.get().done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof ArithmeticException);
+    }
+
+    divisor.set(5);
+    Assert.assertEquals(Integer.valueOf(40), doubled.get().done());
+  }
+}
@@ -30,4 +30,26 @@ public class CueFactoryTest {
     deferred.resolve("asdf");
     Assert.assertEquals(expected, promise.done());
   }
+
+  @Test
+  public void testVirtualThreads() {
+    // "1.8" on Java 8, "21" on Java 21
+    String version = System.getProperty("java.specification.version");
+    boolean java21 = !version.startsWith("1.") && Integer.parseInt(version) >= 21;
+    Assert.assertEquals(java21, CueFactory.virtualThreadsSupported());
+    if (!java21) {
+      try {
+        CueFactory.virtualThreads();
+        Assert.fail();
+      } catch (UnsupportedOperationException e) {
+        return;
+      }
+    }
+    Cue virtual = CueFactory.virtualThreads().get();
+    Promise<String> promise = virtual.when("value").then(value -> {
+      Assert.assertTrue(Thread.currentThread().getName().startsWith("cue-virtual-"));
+      return virtual.await(virtual.when(value));
+    });
+    Assert.assertEquals("value", promise.done());
+  }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+
+public class CueFilesTest {
+  private static final Cue cue = new CueFactory(ForkJoinPool.commonPool()).get();
+  private final CueFiles files = new CueFiles(cue);
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRead() throws IOException {
+    Path path = folder.newFile().toPath();
+    Files.write(path, "hello world".getBytes(StandardCharsets.US_ASCII));
+    ByteBuffer buffer = ByteBuffer.allocate(5);
+    Assert.assertEquals(Integer.valueOf(5), files.read(path, 6, buffer).done());
+    Assert.assertEquals("world", new String(buffer.array(), StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testReadPastEnd() throws IOException {
+    Path path = folder.newFile().toPath();
+    Assert.assertEquals(Integer.valueOf(-1), files.read(path, 0, ByteBuffer.allocate(5)).done());
+  }
+
+  @Test
+  public void testWrite() throws IOException {
+    Path path = folder.getRoot().toPath().resolve("written");
+    ByteBuffer buffer = ByteBuffer.wrap("hello world".getBytes(StandardCharsets.US_ASCII));
+    Assert.assertEquals(Integer.valueOf(11), files.write(path, 2, buffer).done());
+    Assert.assertFalse(buffer.hasRemaining());
+    byte[] written = Files.readAllBytes(path);
+    Assert.assertEquals("hello world", new String(written, 2, 11, StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testReadAllSpansChunks() throws IOException {
+    byte[] contents = new byte[CueFiles.CHUNK * 3 + 17];
+    new Random(42).nextBytes(contents);
+    Path path = folder.newFile().toPath();
+    Files.write(path, contents);
+    for (int i = 0; i < 3; i++) {
+      ByteBuffer result = files.readAll(path).done();
+      Assert.assertEquals(0, result.position());
+      Assert.assertEquals(ByteBuffer.wrap(contents), result);
+    }
+  }
+
+  @Test
+  public void testReadAllEmpty() throws IOException {
+    Path path = folder.newFile().toPath();
+    Assert.assertEquals(0, files.readAll(path).done().remaining());
+  }
+
+  @Test
+  public void testMissingFileRejected() {
+    Path path = folder.getRoot().toPath().resolve("missing");
+    try {
+      files.readAll(path).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof NoSuchFileException);
+    }
+  }
+}
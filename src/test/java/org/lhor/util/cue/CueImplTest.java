@@ -14,13 +14,21 @@ import org.junit.Assert;
 import org.junit.Test;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 
 public class CueImplTest {
@@ -597,4 +605,471 @@ public class CueImplTest {
     latch.countDown();
     result.done();
   }
+
+  @Test
+  public void testInCompletionOrder() {
+    ArrayList<Deferred<String>> deferreds = new ArrayList<>(3);
+    ArrayList<Promise<String>> promises = new ArrayList<>(3);
+    for (int i = 0; i < 3; i++) {
+      deferreds.add(cue.defer());
+      promises.add(deferreds.get(i).promise());
+    }
+    List<Promise<String>> result = cue.inCompletionOrder(promises);
+    Assert.assertEquals(3, result.size());
+
+    deferreds.get(2).resolve("c");
+    Assert.assertEquals("c", result.get(0).done());
+    Exception reason = new Exception();
+    deferreds.get(0).reject(reason);
+    try {
+      result.get(1).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertSame(reason, e.getReason());
+    }
+    deferreds.get(1).resolve("b");
+    Assert.assertEquals("b", result.get(2).done());
+  }
+
+  @Test
+  public void testReduce() {
+    ArrayList<Deferred<Long>> deferreds = new ArrayList<>(1000);
+    ArrayList<Promise<Long>> promises = new ArrayList<>(1000);
+    for (int i = 0; i < 1000; i++) {
+      deferreds.add(cue.defer());
+      promises.add(deferreds.get(i).promise());
+    }
+    Promise<Long> result = cue.reduce(promises, 0L, (sum, value) -> sum + value, Long::sum);
+    for (int i = 0; i < 1000; i++) {
+      long value = i;
+      executors.submit(() -> deferreds.get((int) value).resolve(value));
+    }
+    Assert.assertEquals(Long.valueOf(999L * 1000L / 2L), result.done());
+  }
+
+  @Test
+  public void testReduceEmpty() {
+    Promise<String> result = cue.reduce(new ArrayList<Promise<String>>(), "identity", (a, b) -> a + b, (a, b) -> a + b);
+    Assert.assertEquals("identity", result.done());
+  }
+
+  @Test
+  public void testReduceRejected() {
+    Exception reason = new Exception();
+    List<Promise<Integer>> promises = Arrays.asList(cue.when(1), cue.reject(reason), cue.when(3));
+    try {
+      cue.reduce(promises, 0, (a, b) -> a + b, (a, b) -> a + b).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertSame(reason, e.getReason());
+    }
+  }
+
+  @Test
+  public void testParallelMap() {
+    ArrayList<Integer> values = new ArrayList<>(10000);
+    for (int i = 0; i < 10000; i++) {
+      values.add(i);
+    }
+    List<String> result = cue.parallelMap(values, i -> "v" + i).done();
+    Assert.assertEquals(values.size(), result.size());
+    for (int i = 0; i < values.size(); i++) {
+      Assert.assertEquals("v" + i, result.get(i));
+    }
+  }
+
+  @Test
+  public void testParallelMapEmpty() {
+    Assert.assertTrue(cue.parallelMap(new ArrayList<String>(), s -> s).done().isEmpty());
+  }
+
+  @Test
+  public void testParallelMapRejected() {
+    IllegalStateException reason = new IllegalStateException();
+    List<Integer> values = Arrays.asList(1, 2, 3, 4, 5);
+    try {
+      cue.parallelMap(values, i -> {
+        if (i == 3) {
+          throw reason;
+        }
+        return i;
+      }).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertSame(reason, e.getReason());
+    }
+  }
+
+  @Test
+  public void testParallelMapRefused() {
+    ExecutorService single = Executors.newSingleThreadExecutor();
+    single.shutdown();
+    AtomicInteger called = new AtomicInteger();
+    try {
+      new CueFactory(single).get().parallelMap(Arrays.asList(1, 2, 3), i -> called.incrementAndGet()).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof RejectedExecutionException);
+    }
+    Assert.assertEquals(0, called.get());
+  }
+
+  @Test
+  public void testLinearChainRunsOnOneThread() {
+    List<Thread> threads = new ArrayList<>();
+    Deferred<Integer> deferred = cue.defer();
+    Promise<Integer> result = deferred.promise()
+        .then(i -> {
+          threads.add(Thread.currentThread());
+          return i + 1;
+        })
+        .then(i -> {
+          threads.add(Thread.currentThread());
+          return i + 1;
+        })
+        .then(i -> {
+          threads.add(Thread.currentThread());
+          return i + 1;
+        });
+    deferred.resolve(0);
+    Assert.assertEquals(Integer.valueOf(3), result.done());
+    Assert.assertEquals(3, threads.size());
+    Assert.assertSame(threads.get(0), threads.get(1));
+    Assert.assertSame(threads.get(0), threads.get(2));
+  }
+
+  @Test
+  public void testObservedStageNotFused() throws InterruptedException {
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    Deferred<Integer> deferred = cue.defer();
+    Promise<Integer> intermediate = deferred.promise().then(i -> i + 1);
+    // Neither can finish unless the other runs at the same time
+    Promise<Integer> first = intermediate.then(i -> {
+      bothStarted.countDown();
+      bothStarted.await();
+      return i;
+    });
+    Promise<Integer> second = intermediate.then(i -> {
+      bothStarted.countDown();
+      bothStarted.await();
+      return i * 10;
+    });
+    deferred.resolve(0);
+    Assert.assertEquals(Integer.valueOf(1), first.done());
+    Assert.assertEquals(Integer.valueOf(10), second.done());
+    Assert.assertEquals(Integer.valueOf(2), intermediate.then(i -> i + 1).done());
+  }
+
+  @Test
+  public void testLongFusedChain() {
+    Deferred<Integer> deferred = cue.defer();
+    Promise<Integer> result = deferred.promise();
+    for (int i = 0; i < 10 * CallbackRegistryImpl.MAX_FUSED; i++) {
+      result = result.then(v -> v + 1);
+    }
+    deferred.resolve(0);
+    Assert.assertEquals(Integer.valueOf(10 * CallbackRegistryImpl.MAX_FUSED), result.done());
+  }
+
+  @Test
+  public void testFusedChainRejection() {
+    Exception reason = new Exception();
+    Deferred<Integer> deferred = cue.defer();
+    Promise<Integer> result = deferred.promise()
+        .then(i -> i + 1)
+        .then((Callback<Integer, Integer>) i -> {
+          throw reason;
+        })
+        .then(i -> i + 1);
+    deferred.resolve(0);
+    try {
+      result.done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertSame(reason, e.getReason());
+    }
+  }
+
+  @Test
+  public void testSerialRunsInOrderOneAtATime() {
+    Cue serial = cue.serial("account");
+    AtomicInteger running = new AtomicInteger();
+    AtomicBoolean overlapped = new AtomicBoolean(false);
+    List<Integer> order = new ArrayList<>();
+    List<Promise<Integer>> results = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      // Every other callback comes from a separate view for the same key
+      Cue view = i % 2 == 0 ? serial : cue.serial("account");
+      results.add(view.when(i).then(v -> {
+        if (running.incrementAndGet() > 1) {
+          overlapped.set(true);
+        }
+        order.add(v);
+        running.decrementAndGet();
+        return v;
+      }));
+    }
+    results.forEach(Promise::done);
+    Assert.assertFalse(overlapped.get());
+    for (int i = 0; i < 500; i++) {
+      Assert.assertEquals(Integer.valueOf(i), order.get(i));
+    }
+  }
+
+  @Test
+  public void testSerialKeysRunInParallel() {
+    CountDownLatch bothRunning = new CountDownLatch(2);
+    Promise<String> first = cue.serial("a").when("a").then(s -> {
+      bothRunning.countDown();
+      bothRunning.await();
+      return s;
+    });
+    Promise<String> second = cue.serial("b").when("b").then(s -> {
+      bothRunning.countDown();
+      bothRunning.await();
+      return s;
+    });
+    Assert.assertEquals("a", first.done());
+    Assert.assertEquals("b", second.done());
+  }
+
+  @Test
+  public void testSerialChainKeepsKey() {
+    Cue serial = cue.serial("chain");
+    AtomicInteger running = new AtomicInteger();
+    AtomicBoolean overlapped = new AtomicBoolean(false);
+    List<Promise<Integer>> results = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      Deferred<Integer> deferred = serial.defer();
+      Promise<Integer> result = deferred.promise();
+      for (int stage = 0; stage < 5; stage++) {
+        result = result.then(v -> {
+          if (running.incrementAndGet() > 1) {
+            overlapped.set(true);
+          }
+          running.decrementAndGet();
+          return v + 1;
+        });
+      }
+      results.add(result);
+      deferred.resolve(i);
+    }
+    for (int i = 0; i < 50; i++) {
+      Assert.assertEquals(Integer.valueOf(i + 5), results.get(i).done());
+    }
+    Assert.assertFalse(overlapped.get());
+  }
+
+  @Test
+  public void testIdleMailboxesReclaimed() throws InterruptedException {
+    KeyedMailboxes mailboxes = new KeyedMailboxes(executors);
+    CountDownLatch ran = new CountDownLatch(100);
+    for (int i = 0; i < 100; i++) {
+      mailboxes.dispatcher(i % 10).dispatch(ran::countDown);
+    }
+    ran.await();
+    for (int i = 0; i < 100 && mailboxes.size() > 0; i++) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(0, mailboxes.size());
+  }
+
+  @Test
+  public void testMailboxSurvivesError() throws InterruptedException {
+    ExecutorService single = Executors.newSingleThreadExecutor(task -> {
+      Thread thread = new Thread(task);
+      thread.setUncaughtExceptionHandler((t, e) -> { });
+      return thread;
+    });
+    try {
+      KeyedMailboxes mailboxes = new KeyedMailboxes(single);
+      Dispatcher dispatcher = mailboxes.dispatcher("key");
+      dispatcher.dispatch(() -> {
+        throw new AssertionError("thrown by a task");
+      });
+      CountDownLatch ran = new CountDownLatch(1);
+      dispatcher.dispatch(ran::countDown);
+      Assert.assertTrue(ran.await(5, TimeUnit.SECONDS));
+    } finally {
+      single.shutdown();
+    }
+  }
+
+  @Test
+  public void testRefusedMailboxAbortsTasks() throws InterruptedException {
+    // Accepts the first mailbox it is given and refuses every resubmission
+    AtomicBoolean accepted = new AtomicBoolean();
+    ExecutorService refusing = new ScriptedExecutor(command -> {
+      if (accepted.getAndSet(true)) {
+        throw new RejectedExecutionException("full");
+      }
+      new Thread(command).start();
+    });
+    KeyedMailboxes mailboxes = new KeyedMailboxes(refusing);
+    Dispatcher dispatcher = mailboxes.dispatcher("key");
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger ran = new AtomicInteger();
+    CountDownLatch aborted = new CountDownLatch(10);
+    dispatcher.dispatch(() -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    for (int i = 0; i < KeyedMailboxes.BATCH + 9; i++) {
+      dispatcher.dispatch(new AbortableTask(ran, aborted));
+    }
+    release.countDown();
+
+    Assert.assertTrue(aborted.await(5, TimeUnit.SECONDS));
+    Assert.assertEquals(KeyedMailboxes.BATCH - 1, ran.get());
+    Assert.assertEquals(0, mailboxes.size());
+  }
+
+  @Test
+  public void testRefusedMailboxAbortsTasksDispatchedMeanwhile() throws InterruptedException {
+    // Holds the first submission until released, then refuses it
+    CountDownLatch submitting = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService refusing = new ScriptedExecutor(command -> {
+      submitting.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      throw new RejectedExecutionException("full");
+    });
+    KeyedMailboxes mailboxes = new KeyedMailboxes(refusing);
+    Dispatcher dispatcher = mailboxes.dispatcher("key");
+    AtomicInteger ran = new AtomicInteger();
+    CountDownLatch aborted = new CountDownLatch(1);
+    AtomicReference<RejectedExecutionException> thrown = new AtomicReference<>();
+    Thread first = new Thread(() -> {
+      try {
+        dispatcher.dispatch(new AbortableTask(ran, new CountDownLatch(1)));
+      } catch (RejectedExecutionException e) {
+        thrown.set(e);
+      }
+    });
+    first.start();
+    submitting.await();
+    // Sees the mailbox already scheduled, so is accepted
+    dispatcher.dispatch(new AbortableTask(ran, aborted));
+    release.countDown();
+    first.join();
+
+    Assert.assertNotNull(thrown.get());
+    Assert.assertTrue(aborted.await(5, TimeUnit.SECONDS));
+    Assert.assertEquals(0, ran.get());
+    Assert.assertEquals(0, mailboxes.size());
+  }
+
+  /** An ExecutorService whose execute is given by the test */
+  private static final class ScriptedExecutor extends AbstractExecutorService {
+    private final Consumer<Runnable> execute;
+
+    private ScriptedExecutor(Consumer<Runnable> execute) {
+      this.execute = execute;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      execute.accept(command);
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return false;
+    }
+  }
+
+  private static final class AbortableTask implements Runnable, Abortable {
+    private final AtomicInteger ran;
+    private final CountDownLatch aborted;
+
+    private AbortableTask(AtomicInteger ran, CountDownLatch aborted) {
+      this.ran = ran;
+      this.aborted = aborted;
+    }
+
+    @Override
+    public void run() {
+      ran.incrementAndGet();
+    }
+
+    @Override
+    public void abort(RejectedExecutionException reason) {
+      aborted.countDown();
+    }
+  }
+
+  @Test
+  public void testAwaitFulfilled() {
+    Deferred<String> deferred = cue.defer();
+    executors.submit(() -> deferred.resolve("value"));
+    Assert.assertEquals("value", cue.await(deferred.promise()));
+  }
+
+  @Test
+  public void testAwaitRejected() {
+    Exception reason = new Exception();
+    try {
+      cue.await(cue.reject(reason));
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertSame(reason, e.getReason());
+    }
+  }
+
+  @Test
+  public void testAwaitInCallbackCompensates() {
+    // With one worker, the callback resolving the awaited Promise could
+    // never run unless the pool starts a spare while the first one waits
+    ForkJoinPool single = new ForkJoinPool(1);
+    try {
+      Cue singleCue = new CueFactory(single).get();
+      Deferred<String> inner = singleCue.defer();
+      Deferred<Void> outer = singleCue.defer();
+      Promise<String> awaited = outer.promise().then(() -> singleCue.await(inner.promise()));
+      outer.resolve(null);
+      singleCue.when("value").then(inner::resolve);
+      Assert.assertEquals("value", awaited.done());
+    } finally {
+      single.shutdown();
+    }
+  }
+
+  @Test
+  public void testAwaitInterrupted() {
+    Deferred<String> deferred = cue.defer();
+    Thread.currentThread().interrupt();
+    try {
+      cue.await(deferred.promise());
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof InterruptedException);
+    }
+    Assert.assertTrue(Thread.interrupted());
+  }
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.NotYetConnectedException;
+import java.nio.channels.ReadPendingException;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+public class CueSocketsTest {
+  private static final Cue cue = new CueFactory(ForkJoinPool.commonPool()).get();
+  private final CueSockets sockets = new CueSockets(cue, 1024 * 1024);
+
+  private AsynchronousServerSocketChannel server;
+  private AsynchronousSocketChannel client;
+  private AsynchronousSocketChannel accepted;
+
+  @Before
+  public void connect() throws IOException, InterruptedException, ExecutionException {
+    server = AsynchronousServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    Future<AsynchronousSocketChannel> accepting = server.accept();
+    client = sockets.connect(server.getLocalAddress()).done();
+    accepted = accepting.get();
+  }
+
+  @After
+  public void close() throws IOException {
+    client.close();
+    accepted.close();
+    server.close();
+  }
+
+  @Test
+  public void testReadWrite() {
+    ByteBuffer buffer = ByteBuffer.allocate(3);
+    Promise<Integer> read = sockets.read(accepted, buffer);
+    Assert.assertEquals(Integer.valueOf(3), sockets.write(client, ByteBuffer.wrap(new byte[] {1, 2, 3})).done());
+    int total = read.done();
+    while (total < 3) {
+      total += sockets.read(accepted, buffer).done();
+    }
+    Assert.assertArrayEquals(new byte[] {1, 2, 3}, buffer.array());
+  }
+
+  @Test
+  public void testFrames() {
+    byte[] large = new byte[512 * 1024];
+    new Random(42).nextBytes(large);
+    Promise<Void> written = sockets.writeFrame(client, ByteBuffer.wrap(large))
+        .then(() -> sockets.writeFrame(client, ByteBuffer.allocate(0)).done())
+        .then(() -> sockets.writeFrame(client, ByteBuffer.wrap(new byte[] {7})).done());
+
+    Assert.assertEquals(ByteBuffer.wrap(large), sockets.readFrame(accepted).done());
+    Assert.assertEquals(0, sockets.readFrame(accepted).done().remaining());
+    Assert.assertEquals(ByteBuffer.wrap(new byte[] {7}), sockets.readFrame(accepted).done());
+    written.done();
+  }
+
+  @Test
+  public void testReadFrameAtEnd() throws IOException {
+    client.shutdownOutput();
+    Assert.assertNull(sockets.readFrame(accepted).done());
+  }
+
+  @Test
+  public void testReadFramePartial() throws IOException {
+    sockets.write(client, ByteBuffer.allocate(4).putInt(0, 10)).done();
+    client.shutdownOutput();
+    try {
+      sockets.readFrame(accepted).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof EOFException);
+    }
+  }
+
+  @Test
+  public void testReadFrameTooLarge() {
+    sockets.write(client, ByteBuffer.allocate(4).putInt(0, 1024 * 1024 + 1)).done();
+    try {
+      sockets.readFrame(accepted).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof IOException);
+    }
+  }
+
+  @Test
+  public void testReadPending() {
+    Promise<ByteBuffer> first = sockets.readFrame(accepted);
+    try {
+      sockets.readFrame(accepted).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof ReadPendingException);
+    }
+    sockets.writeFrame(client, ByteBuffer.wrap(new byte[] {7})).done();
+    Assert.assertEquals(ByteBuffer.wrap(new byte[] {7}), first.done());
+  }
+
+  @Test
+  public void testNotYetConnected() throws IOException {
+    try (AsynchronousSocketChannel unconnected = AsynchronousSocketChannel.open()) {
+      sockets.write(unconnected, ByteBuffer.wrap(new byte[] {1})).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof NotYetConnectedException);
+    }
+  }
+
+  @Test
+  public void testConnectRefused() throws IOException {
+    AsynchronousServerSocketChannel closed = AsynchronousServerSocketChannel.open()
+        .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    InetSocketAddress address = (InetSocketAddress) closed.getLocalAddress();
+    closed.close();
+    try {
+      sockets.connect(address).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof IOException);
+    }
+  }
+}
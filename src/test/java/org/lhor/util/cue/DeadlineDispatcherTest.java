@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+public class DeadlineDispatcherTest {
+  @Rule
+  public final SingleThreadFixture fixture = new SingleThreadFixture();
+  private final Cue cue = new CueFactory(fixture.executor(),
+      Dispatchers.earliestDeadlineFirst(fixture.executor(), 1, TimeUnit.HOURS)).get();
+
+  private Promise<String> chain(Deferred<String> deferred, String name) {
+    Promise<String> promise = deferred.promise().then(s -> {
+      fixture.order().add(s);
+      return s;
+    });
+    deferred.resolve(name);
+    return promise;
+  }
+
+  @Test
+  public void testEarliestDeadlineRunsFirst() {
+    fixture.block();
+    Promise<String> later = chain(cue.<String>defer().withDeadline(30, TimeUnit.MINUTES), "later");
+    Promise<String> none = chain(cue.defer(), "none");
+    Promise<String> sooner = chain(cue.<String>defer().withDeadline(10, TimeUnit.MINUTES), "sooner");
+    fixture.release();
+    later.done();
+    none.done();
+    sooner.done();
+    Assert.assertEquals(Arrays.asList("sooner", "later", "none"), fixture.order());
+  }
+
+  @Test
+  public void testChainStagesWaitTheirTurn() {
+    Deferred<String> deferred = cue.<String>defer().withDeadline(30, TimeUnit.MINUTES);
+    Promise<String> later = deferred.promise().then(s -> {
+      fixture.order().add("later1");
+      chain(cue.<String>defer().withDeadline(10, TimeUnit.MINUTES), "sooner");
+      return s;
+    });
+    for (int i = 2; i <= 3; i++) {
+      String stage = "later" + i;
+      later = later.then(s -> {
+        fixture.order().add(stage);
+        return s;
+      });
+    }
+    deferred.resolve("later");
+    later.done();
+    Assert.assertEquals(Arrays.asList("later1", "sooner", "later2", "later3"), fixture.order());
+  }
+
+  @Test
+  public void testExpiredStagesSkipped() throws InterruptedException {
+    CountDownLatch alwaysCalled = new CountDownLatch(1);
+    Deferred<String> deferred = cue.<String>defer().withDeadline(1, TimeUnit.MILLISECONDS);
+    Promise<String> result = deferred.promise()
+        .then(s -> {
+          fixture.order().add(s);
+          return s;
+        })
+        .fail(e -> "recovered")
+        .always(alwaysCalled::countDown);
+    Thread.sleep(10);
+    deferred.resolve("late");
+    try {
+      result.done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof DeadlineExceededException);
+    }
+    Assert.assertTrue(fixture.order().isEmpty());
+    Assert.assertTrue(alwaysCalled.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testDeadlineInherited() {
+    Deferred<String> deferred = cue.<String>defer().withDeadline(1, TimeUnit.MINUTES);
+    Promise<String> derived = deferred.promise().then(s -> s).fail(e -> "");
+    Schedule schedule = ((PromiseImpl<String>) derived).schedule();
+    Assert.assertTrue(schedule.hasDeadline());
+    Assert.assertTrue(schedule.overdue(System.nanoTime()) < 0);
+  }
+
+  @Test
+  public void testEarlierRejectionKept() throws InterruptedException {
+    Deferred<String> deferred = cue.<String>defer().withDeadline(1, TimeUnit.MILLISECONDS);
+    Promise<String> failed = deferred.promise().then(s -> s);
+    Thread.sleep(10);
+    deferred.reject(new IllegalStateException("real reason"));
+    try {
+      failed.done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof IllegalStateException);
+      Assert.assertEquals("real reason", e.getReason().getMessage());
+    }
+    Assert.assertEquals("recovered", failed.fail(e -> "recovered").done());
+  }
+
+  @Test
+  public void testCombinatorIgnoresDeadline() throws InterruptedException {
+    Deferred<String> deferred = cue.<String>defer().withDeadline(1, TimeUnit.MILLISECONDS);
+    deferred.resolve("on time");
+    Promise<String> onTime = deferred.promise();
+    onTime.done();
+    Thread.sleep(10);
+    Assert.assertEquals("on time", cue.inCompletionOrder(Collections.singletonList(onTime)).get(0).done());
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+
+public class DeferredBatchImplTest {
+  private static final ForkJoinPool executors = new ForkJoinPool(50);
+  private static final Cue cue = new CueFactory(executors).get();
+
+  @Test
+  public void testNothingResolvedBeforeCommit() {
+    Deferred<String> deferred = cue.defer();
+    DeferredBatch batch = cue.batch().resolve(deferred, "a");
+    Assert.assertEquals(1, batch.size());
+    Assert.assertFalse(((DeferredImpl<String>) deferred).state().isResolved());
+    batch.commit();
+    Assert.assertEquals(0, batch.size());
+    Assert.assertEquals("a", deferred.promise().done());
+  }
+
+  @Test
+  public void testManyResolvedWithCallbacks() {
+    int count = 10000;
+    ArrayList<Deferred<Integer>> deferreds = new ArrayList<>(count);
+    ArrayList<Promise<Integer>> promises = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Deferred<Integer> deferred = cue.defer();
+      deferreds.add(deferred);
+      promises.add(deferred.promise().then(v -> v * 2));
+    }
+
+    DeferredBatch batch = cue.batch();
+    for (int i = 0; i < count; i++) {
+      batch.resolve(deferreds.get(i), i);
+    }
+    batch.commit();
+
+    for (int i = 0; i < count; i++) {
+      Assert.assertEquals(Integer.valueOf(i * 2), promises.get(i).done());
+    }
+  }
+
+  @Test
+  public void testMixedResolveAndReject() {
+    Exception reason = new IllegalStateException();
+    Deferred<String> fulfilled = cue.defer();
+    Deferred<String> rejected = cue.defer();
+    Promise<String> recovered = rejected.promise().fail(ex -> ex == reason ? "recovered" : "wrong");
+
+    cue.batch()
+        .resolve(fulfilled, "a")
+        .reject(rejected, reason)
+        .commit();
+
+    Assert.assertEquals("a", fulfilled.promise().done());
+    Assert.assertEquals("recovered", recovered.done());
+  }
+
+  @Test
+  public void testFirstResolutionWins() {
+    Deferred<String> deferred = cue.defer();
+    cue.batch()
+        .resolve(deferred, "first")
+        .resolve(deferred, "second")
+        .reject(deferred, new Exception())
+        .commit();
+    Assert.assertEquals("first", deferred.promise().done());
+  }
+
+  @Test
+  public void testAlreadyResolvedUnaffected() {
+    Deferred<String> deferred = cue.defer();
+    deferred.resolve("original");
+    cue.batch().reject(deferred, new Exception()).commit();
+    Assert.assertEquals("original", deferred.promise().done());
+  }
+
+  @Test
+  public void testMultipleCues() {
+    Cue other = new CueFactory(executors).get();
+    Deferred<String> first = cue.defer();
+    Deferred<String> second = other.defer();
+    Promise<String> result = first.promise().then(s -> s + "1");
+    Promise<String> otherResult = second.promise().then(s -> s + "2");
+    cue.batch()
+        .resolve(first, "a")
+        .resolve(second, "b")
+        .commit();
+    Assert.assertEquals("a1", result.done());
+    Assert.assertEquals("b2", otherResult.done());
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Measures the time from resolving a Deferred to its callback starting, for
+ * each of the Dispatchers.
+ * <p>
+ * This is not run as part of the tests. Run it with the test classpath, e.g.
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.lhor.util.cue.DispatcherLatencyBenchmark</code>.
+ * Each sample waits for its callback before the next is resolved, so the
+ * numbers reflect hand-off latency on an otherwise idle Cue rather than
+ * throughput.
+ * </p>
+ */
+public final class DispatcherLatencyBenchmark {
+  private static final int WARMUP = 50_000;
+  private static final int SAMPLES = 200_000;
+
+  private DispatcherLatencyBenchmark() {
+  }
+
+  public static void main(String[] args) {
+    ForkJoinPool executorService = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    try {
+      run("executor (ForkJoinPool)", executorService, Dispatchers.executor(executorService));
+      run("work stealing", executorService, Dispatchers.workStealing(executorService));
+      for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+        run("ring buffer (" + waitStrategy + ")", executorService, Dispatchers.ringBuffer(1024, waitStrategy));
+      }
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
+  private static void run(String name, ExecutorService executorService, Dispatcher dispatcher) {
+    try (Dispatcher closing = dispatcher) {
+      Cue cue = new CueFactory(executorService, closing).get();
+      measure(cue, WARMUP);
+      long[] samples = measure(cue, SAMPLES);
+      Arrays.sort(samples);
+      System.out.printf("%-28s p50 %8.2fus  p99 %8.2fus  p99.9 %8.2fus  max %10.2fus%n", name,
+          percentile(samples, 0.50), percentile(samples, 0.99), percentile(samples, 0.999),
+          samples[samples.length - 1] / 1000.0);
+    }
+  }
+
+  private static long[] measure(Cue cue, int count) {
+    long[] samples = new long[count];
+    for (int i = 0; i < count; i++) {
+      int index = i;
+      Deferred<Long> deferred = cue.defer();
+      Promise<Long> measured = deferred.promise().then(started -> {
+        samples[index] = System.nanoTime() - started;
+      });
+      deferred.resolve(System.nanoTime());
+      measured.done();
+    }
+    return samples;
+  }
+
+  private static double percentile(long[] sorted, double fraction) {
+    return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)] / 1000.0;
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class DurableCueTest {
+  private static final Cue cue = new CueFactory(ForkJoinPool.commonPool()).get();
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path journal() {
+    return folder.getRoot().toPath().resolve("journal");
+  }
+
+  @Test
+  public void testCompletedStepsSkippedAfterReopen() throws IOException {
+    AtomicInteger runs = new AtomicInteger();
+    try (DurableCue durable = new DurableCue(cue, journal())) {
+      Promise<String> first = durable.step("fetch", ValueCodecs.utf8(), () -> {
+        runs.incrementAndGet();
+        return cue.when("fetched");
+      });
+      Assert.assertEquals("fetched", first.done());
+      Assert.assertTrue(durable.completed("fetch"));
+    }
+
+    try (DurableCue durable = new DurableCue(cue, journal())) {
+      Promise<String> again = durable.step("fetch", ValueCodecs.utf8(), () -> {
+        runs.incrementAndGet();
+        return cue.when("fetched again");
+      });
+      Assert.assertEquals("fetched", again.done());
+    }
+    Assert.assertEquals(1, runs.get());
+  }
+
+  @Test
+  public void testDeferRestored() throws IOException {
+    try (DurableCue durable = new DurableCue(cue, journal())) {
+      Deferred<ArrayList<Integer>> deferred = durable.defer("list", ValueCodecs.serialization());
+      deferred.resolve(new ArrayList<>(Arrays.asList(1, 2, 3)));
+      durable.<String>defer("nothing", ValueCodecs.utf8()).resolve(null);
+      Assert.assertEquals(Arrays.asList(1, 2, 3), deferred.promise().done());
+    }
+
+    try (DurableCue durable = new DurableCue(cue, journal())) {
+      Assert.assertEquals(Arrays.asList(1, 2, 3),
+          durable.<ArrayList<Integer>>defer("list", ValueCodecs.serialization()).promise().done());
+      Assert.assertTrue(durable.completed("nothing"));
+      Assert.assertNull(durable.defer("nothing", ValueCodecs.utf8()).promise().done());
+    }
+  }
+
+  @Test
+  public void testRejectionNotRecorded() throws IOException {
+    try (DurableCue durable = new DurableCue(cue, journal())) {
+      Promise<String> failed = durable.step("flaky", ValueCodecs.utf8(), () -> cue.reject(new IOException()));
+      try {
+        failed.done();
+        Assert.fail();
+      } catch (RejectedException e) {
+        Assert.assertTrue(e.getReason() instanceof IOException);
+      }
+      Assert.assertFalse(durable.completed("flaky"));
+    }
+  }
+
+  @Test
+  public void testForgetAndCompact() throws IOException {
+    try (DurableCue durable = new DurableCue(cue, journal())) {
+      for (int i = 0; i < 100; i++) {
+        durable.defer("step" + i, ValueCodecs.utf8()).resolve("value" + i);
+      }
+      long size = durable.journalSize();
+      for (int i = 0; i < 90; i++) {
+        durable.forget("step" + i);
+      }
+      Assert.assertFalse(durable.completed("step0"));
+      durable.compact();
+      Assert.assertTrue(durable.journalSize() < size / 5);
+      Assert.assertEquals("value95", durable.defer("step95", ValueCodecs.utf8()).promise().done());
+    }
+
+    try (DurableCue durable = new DurableCue(cue, journal())) {
+      Assert.assertFalse(durable.completed("step0"));
+      Assert.assertEquals("value99", durable.defer("step99", ValueCodecs.utf8()).promise().done());
+    }
+  }
+
+  @Test
+  public void testGrowsPastMapping() throws IOException {
+    char[] large = new char[Journal.MIN_SIZE / 4];
+    Arrays.fill(large, 'x');
+    try (DurableCue durable = new DurableCue(cue, journal())) {
+      for (int i = 0; i < 10; i++) {
+        durable.defer("large" + i, ValueCodecs.utf8()).resolve(new String(large));
+      }
+    }
+    try (DurableCue durable = new DurableCue(cue, journal())) {
+      for (int i = 0; i < 10; i++) {
+        Assert.assertEquals(large.length, durable.defer("large" + i, ValueCodecs.utf8()).promise().done().length());
+      }
+    }
+  }
+
+  @Test
+  public void testTornRecordDiscarded() throws IOException {
+    long end;
+    try (DurableCue durable = new DurableCue(cue, journal())) {
+      durable.defer("kept", ValueCodecs.utf8()).resolve("value");
+      end = durable.journalSize();
+    }
+    try (RandomAccessFile file = new RandomAccessFile(journal().toFile(), "rw")) {
+      file.seek(end);
+      file.writeInt(20);
+      file.writeInt(12345);
+      file.write(new byte[] {1, 2, 3});
+    }
+
+    try (DurableCue durable = new DurableCue(cue, journal())) {
+      Assert.assertEquals(end, durable.journalSize());
+      Assert.assertEquals("value", durable.defer("kept", ValueCodecs.utf8()).promise().done());
+      durable.defer("next", ValueCodecs.utf8()).resolve("after");
+    }
+    try (DurableCue durable = new DurableCue(cue, journal())) {
+      Assert.assertEquals("after", durable.defer("next", ValueCodecs.utf8()).promise().done());
+    }
+  }
+}
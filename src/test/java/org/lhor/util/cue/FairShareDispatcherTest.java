@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+
+public class FairShareDispatcherTest {
+  @Rule
+  public final SingleThreadFixture fixture = new SingleThreadFixture();
+  private final FairShareDispatcher dispatcher = Dispatchers.fairShare(fixture.executor(), tenant -> "a".equals(tenant) ? 2 : 1);
+  private final Cue cue = new CueFactory(fixture.executor(), dispatcher).get();
+
+  private Promise<String> chain(String tenant, String name) {
+    Deferred<String> deferred = cue.<String>defer().withTenant(tenant);
+    Promise<String> promise = deferred.promise().then(s -> {
+      fixture.order().add(s);
+      return s;
+    });
+    deferred.resolve(name);
+    return promise;
+  }
+
+  @Test
+  public void testTenantsShareByWeight() {
+    fixture.block();
+    List<Promise<String>> results = new ArrayList<>();
+    for (int i = 1; i <= 6; i++) {
+      results.add(chain("a", "a" + i));
+    }
+    for (int i = 1; i <= 3; i++) {
+      results.add(chain("b", "b" + i));
+    }
+    fixture.release();
+    results.forEach(Promise::done);
+    Assert.assertEquals(Arrays.asList("a1", "a2", "b1", "a3", "a4", "b2", "a5", "a6", "b3"), fixture.order());
+  }
+
+  @Test
+  public void testBurstDoesNotDelayOtherTenant() {
+    fixture.block();
+    List<Promise<String>> burst = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      burst.add(chain("a", "a"));
+    }
+    Promise<String> other = chain("b", "b");
+    fixture.release();
+    other.done();
+    burst.forEach(Promise::done);
+    Assert.assertEquals(2, fixture.order().indexOf("b"));
+  }
+
+  @Test
+  public void testChainStagesTakeTurns() {
+    fixture.block();
+    Deferred<String> deferred = cue.<String>defer().withTenant("b");
+    Promise<String> stages = deferred.promise();
+    for (int i = 1; i <= 3; i++) {
+      String stage = "b" + i;
+      stages = stages.then(s -> {
+        fixture.order().add(stage);
+        return s;
+      });
+    }
+    deferred.resolve("b");
+    Promise<String> other = chain("a", "a");
+    fixture.release();
+    stages.done();
+    other.done();
+    Assert.assertEquals(Arrays.asList("b1", "a", "b2", "b3"), fixture.order());
+  }
+
+  @Test
+  public void testQueueDepths() {
+    fixture.block();
+    Promise<String> first = chain("a", "a1");
+    Promise<String> second = chain("a", "a2");
+    Promise<String> untagged = cue.when("c").then(s -> s);
+    Map<Object, Integer> depths = dispatcher.queueDepths();
+    Assert.assertEquals(Integer.valueOf(2), depths.get("a"));
+    Assert.assertEquals(Integer.valueOf(1), depths.get(null));
+    fixture.release();
+    first.done();
+    second.done();
+    untagged.done();
+    Assert.assertTrue(dispatcher.queueDepths().isEmpty());
+  }
+
+  @Test
+  public void testTenantInherited() {
+    Deferred<String> deferred = cue.<String>defer().withTenant("a");
+    Promise<String> derived = deferred.promise().then(s -> s).fail(e -> "");
+    Assert.assertEquals("a", ((PromiseImpl<String>) derived).schedule().tenant());
+  }
+}
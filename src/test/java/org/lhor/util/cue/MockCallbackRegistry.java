@@ -9,6 +9,7 @@ package org.lhor.util.cue;
 
 
 import java.util.ArrayList;
+import java.util.Collection;
 
 
 class MockCallbackRegistry implements CallbackRegistry {
@@ -19,6 +20,11 @@ class MockCallbackRegistry implements CallbackRegistry {
     runnables.add(runnable);
   }
 
+  @Override
+  public void registerStage(ResolvedState<?> state, ResolvedState<?> derived, Runnable runnable) {
+    runnables.add(runnable);
+  }
+
   public ArrayList<Runnable> drainRunnables() {
     ArrayList<Runnable> result = new ArrayList<>(runnables);
     runnables.clear();
@@ -28,4 +34,8 @@ class MockCallbackRegistry implements CallbackRegistry {
   @Override
   public void stateResolved(ResolvedState<?> state) {
   }
+
+  @Override
+  public void statesResolved(Collection<? extends ResolvedState<?>> states) {
+  }
 }
@@ -11,7 +11,15 @@ package org.lhor.util.cue;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import org.junit.Test;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 
 public class PreconditionsTests {
@@ -43,6 +51,51 @@ public class PreconditionsTests {
     cue.all(null);
   }
 
+  @Test(expected = NullPointerException.class)
+  public void testCueImplInCompletionOrderNpe() {
+    cue.inCompletionOrder(null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testCueImplReducePromisesNpe() {
+    cue.reduce(null, 0, (a, b) -> a, (a, b) -> a);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testCueImplReduceAccumulatorNpe() {
+    cue.reduce(new ArrayList<Promise<Integer>>(), 0, null, (a, b) -> a);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testCueImplReduceCombinerNpe() {
+    cue.reduce(new ArrayList<Promise<Integer>>(), 0, (a, b) -> a, null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testCueImplParallelMapValuesNpe() {
+    cue.parallelMap(null, o -> o);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testCueImplParallelMapCallbackNpe() {
+    cue.parallelMap(new ArrayList<>(), null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testCueImplMapConcurrentIteratorNpe() {
+    cue.mapConcurrent(null, o -> cue.when(o), 1);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testCueImplMapConcurrentCallbackNpe() {
+    cue.mapConcurrent(new ArrayList<>().iterator(), null, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCueImplMapConcurrentIae() {
+    cue.mapConcurrentUnordered(new ArrayList<>().iterator(), o -> cue.when(o), 0);
+  }
+
   @Test(expected = NullPointerException.class)
   public void testCueImplAllFuturesNpe() {
     cue.allFutures(null);
@@ -81,7 +134,12 @@ public class PreconditionsTests {
 
   @Test(expected = NullPointerException.class)
   public void testEventSinkExecutorsNpe() {
-    new CallbackRegistryImpl(null);
+    new CallbackRegistryImpl((ExecutorService) null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testEventSinkDispatcherNpe() {
+    new CallbackRegistryImpl((Dispatcher) null);
   }
 
   @Test(expected = NullPointerException.class)
@@ -94,11 +152,91 @@ public class PreconditionsTests {
     callbackRegistry.register(resolvedState, null);
   }
 
+  @Test(expected = NullPointerException.class)
+  public void testEventSinkRegisterStageStateNpe() {
+    callbackRegistry.registerStage(null, resolvedState, () -> {});
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testEventSinkRegisterStageDerivedNpe() {
+    callbackRegistry.registerStage(resolvedState, null, () -> {});
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testEventSinkRegisterStageCallbackNpe() {
+    callbackRegistry.registerStage(resolvedState, resolvedState, null);
+  }
+
   @Test(expected = NullPointerException.class)
   public void testEventSinkResolvedNpe() {
     callbackRegistry.stateResolved(null);
   }
 
+  @Test(expected = NullPointerException.class)
+  public void testEventSinkStatesResolvedNpe() {
+    callbackRegistry.statesResolved(null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testDeferredBatchResolveNpe() {
+    cue.batch().resolve(null, "");
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testDeferredBatchRejectNpe() {
+    cue.batch().reject(null, new Exception());
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testCueImplStreamNpe() {
+    cue.stream(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCueImplEmitterCapacityIae() {
+    cue.emitter(0);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testEmitterEmitNpe() {
+    cue.emitter(1).emit(null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testAsyncStreamMapNpe() {
+    cue.emitter(1).stream().map(null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testAsyncStreamFilterNpe() {
+    cue.emitter(1).stream().filter(null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testAsyncStreamFlatMapConcurrentNpe() {
+    cue.emitter(1).stream().flatMapConcurrent(null, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAsyncStreamFlatMapConcurrentIae() {
+    cue.emitter(1).stream().flatMapConcurrent(o -> null, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAsyncStreamBufferIae() {
+    cue.emitter(1).stream().buffer(0);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testAsyncStreamReduceNpe() {
+    cue.emitter(1).stream().reduce(null, null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testAsyncStreamForEachNpe() {
+    cue.emitter(1).stream().forEach(null);
+  }
+
   @Test(expected = NullPointerException.class)
   public void testPromiseImplCueNpe() {
     new PromiseImpl<>(null, callbackRegistry, resolvedState);
@@ -153,4 +291,224 @@ public class PreconditionsTests {
   public void testCueFactoryNpe() {
     new CueFactory(null);
   }
+
+  @Test(expected = NullPointerException.class)
+  public void testWorkStealingPoolNpe() {
+    Dispatchers.workStealing(null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testPriorityExecutorNpe() {
+    Dispatchers.priority(null, 1, TimeUnit.SECONDS);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testPriorityUnitNpe() {
+    Dispatchers.priority(executorService, 1, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPriorityAgingIae() {
+    Dispatchers.priority(executorService, 0, TimeUnit.SECONDS);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testEarliestDeadlineFirstUnitNpe() {
+    Dispatchers.earliestDeadlineFirst(executorService, 1, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEarliestDeadlineFirstHorizonIae() {
+    Dispatchers.earliestDeadlineFirst(executorService, -1, TimeUnit.SECONDS);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testDeferredDeadlineUnitNpe() {
+    deferred.withDeadline(1, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDeferredDeadlineIae() {
+    deferred.withDeadline(-1, TimeUnit.SECONDS);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testFairShareExecutorNpe() {
+    Dispatchers.fairShare(null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testFairShareWeightsNpe() {
+    Dispatchers.fairShare(executorService, null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testDeferredTenantNpe() {
+    deferred.withTenant(null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testBulkheadNameNpe() {
+    new CueFactory(executorService).bulkheads().create(null, 1, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBulkheadThreadsIae() {
+    new CueFactory(executorService).bulkheads().create("a", 0, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBulkheadQueueLimitIae() {
+    new CueFactory(executorService).bulkheads().create("a", 1, -1);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testSerialKeyNpe() {
+    cue.serial(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testChannelCapacityIae() {
+    cue.channel(0);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testChannelSendNpe() {
+    cue.channel(1).send(null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testAwaitNpe() {
+    cue.await(null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testCueFilesNpe() {
+    new CueFiles(null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testCueFilesReadBufferNpe() {
+    new CueFiles(cue).read(Paths.get("file"), 0, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCueFilesWritePositionIae() {
+    new CueFiles(cue).write(Paths.get("file"), -1, ByteBuffer.allocate(1));
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testCueFilesReadAllNpe() {
+    new CueFiles(cue).readAll(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCueSocketsMaxFrameIae() {
+    new CueSockets(cue, 0);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testCueSocketsConnectNpe() {
+    new CueSockets(cue).connect(null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testCueSocketsReadFrameNpe() {
+    new CueSockets(cue).readFrame(null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testAsyncAppenderPathNpe() throws IOException {
+    new AsyncAppender(cue, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBufferPoolMaxFreeIae() {
+    new BufferPool(-1, false);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBufferPoolAcquireIae() {
+    new BufferPool(1, false).acquire(-1);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testPooledBufferReleaseAfterNpe() {
+    new BufferPool(1, false).acquire(1).releaseAfter(null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testDurableCueJournalNpe() throws IOException {
+    new DurableCue(cue, null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testRemoteDeferredsExportNpe() throws IOException {
+    try (RemoteDeferreds exporter = new RemoteDeferreds(cue)) {
+      exporter.export("id", null, ValueCodecs.utf8());
+    }
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testRemoteResolverConnectNpe() {
+    RemoteResolver.connect(cue, null, "token");
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testRemoteResolverConnectTokenNpe() throws IOException {
+    try (RemoteDeferreds exporter = new RemoteDeferreds(cue)) {
+      RemoteResolver.connect(cue, exporter.address(), null);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testProcessPoolProcessesIae() throws IOException {
+    new ProcessPool(cue, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testProcessPoolMaxInFlightIae() throws IOException {
+    new ProcessPool(cue, 1, 0, Collections.emptyList());
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testAsyncEventBusSubscribeNpe() {
+    new AsyncEventBus<String>(cue).subscribe("topic", null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testAsyncEventBusPublishNpe() {
+    new AsyncEventBus<String>(cue).publish(null, "event");
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testComputedDependenciesNpe() {
+    cue.computed((List<Computed<?>>) null, values -> values);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testComputedForeignDependencyIae() {
+    Computed<String> foreign = () -> cue.when("value");
+    cue.computed(foreign, value -> value);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testCueFactoryDispatcherNpe() {
+    new CueFactory(executorService, null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testCueModuleDispatcherNpe() {
+    new CueModule(executorService, null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testRingBufferWaitStrategyNpe() {
+    Dispatchers.ringBuffer(8, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRingBufferCapacityIae() {
+    Dispatchers.ringBuffer(12, WaitStrategy.SLEEPING);
+  }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+
+public class PriorityDispatcherTest {
+  @Rule
+  public final SingleThreadFixture fixture = new SingleThreadFixture();
+
+  private Cue cue(long aging, TimeUnit unit) {
+    return new CueFactory(fixture.executor(), Dispatchers.priority(fixture.executor(), aging, unit)).get();
+  }
+
+  private Promise<String> chain(Cue cue, String name, int priority) {
+    Deferred<String> deferred = cue.<String>defer().withPriority(priority);
+    Promise<String> promise = deferred.promise().then(s -> {
+      fixture.order().add(s);
+      return s;
+    });
+    deferred.resolve(name);
+    return promise;
+  }
+
+  @Test
+  public void testHigherPriorityRunsFirst() {
+    Cue cue = cue(1, TimeUnit.HOURS);
+    fixture.block();
+    Promise<String> low = chain(cue, "low", 0);
+    Promise<String> background = chain(cue, "background", -5);
+    Promise<String> high = chain(cue, "high", 10);
+    fixture.release();
+    low.done();
+    background.done();
+    high.done();
+    Assert.assertEquals(Arrays.asList("high", "low", "background"), fixture.order());
+  }
+
+  @Test
+  public void testWaitingCallbackAges() throws InterruptedException {
+    Cue cue = cue(1, TimeUnit.MICROSECONDS);
+    fixture.block();
+    Promise<String> low = chain(cue, "low", 0);
+    Thread.sleep(20);
+    Promise<String> high = chain(cue, "high", 10);
+    fixture.release();
+    low.done();
+    high.done();
+    Assert.assertEquals(Arrays.asList("low", "high"), fixture.order());
+  }
+
+  @Test
+  public void testChainStagesWaitTheirTurn() {
+    Cue cue = cue(1, TimeUnit.HOURS);
+    Deferred<String> deferred = cue.<String>defer().withPriority(0);
+    Promise<String> low = deferred.promise().then(s -> {
+      fixture.order().add("low1");
+      chain(cue, "high", 10);
+      return s;
+    });
+    for (int i = 2; i <= 3; i++) {
+      String stage = "low" + i;
+      low = low.then(s -> {
+        fixture.order().add(stage);
+        return s;
+      });
+    }
+    deferred.resolve("low");
+    low.done();
+    Assert.assertEquals(Arrays.asList("low1", "high", "low2", "low3"), fixture.order());
+  }
+
+  @Test
+  public void testPriorityInherited() {
+    Cue cue = cue(1, TimeUnit.SECONDS);
+    Deferred<String> deferred = cue.<String>defer().withPriority(7);
+    Promise<String> derived = deferred.promise()
+        .then(s -> s + "a")
+        .fail((VoidErrback) e -> {})
+        .then(() -> {});
+    Assert.assertEquals(7, ((PromiseImpl<String>) derived).schedule().priority());
+    Assert.assertEquals(0, ((PromiseImpl<String>) cue.when("a").then(s -> s)).schedule().priority());
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+
+public class ProcessPoolTest {
+  private static final Cue cue = new CueFactory(ForkJoinPool.commonPool()).get();
+
+  private ProcessPool pool;
+
+  @Before
+  public void start() throws IOException {
+    pool = new ProcessPool(cue, 2, 4, Collections.singletonList("-Xmx64m"));
+  }
+
+  @After
+  public void close() {
+    pool.close();
+  }
+
+  @Test
+  public void testSubmit() {
+    Assert.assertEquals(Integer.valueOf(42), pool.submit(() -> 6 * 7).done());
+  }
+
+  @Test
+  public void testRunsInAnotherProcess() {
+    String here = ManagementFactory.getRuntimeMXBean().getName();
+    String there = pool.submit(() -> ManagementFactory.getRuntimeMXBean().getName()).done();
+    Assert.assertNotEquals(here, there);
+  }
+
+  @Test
+  public void testManyTasks() {
+    int count = 200;
+    List<Promise<Integer>> results = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      int n = i;
+      results.add(pool.submit(() -> n * n));
+    }
+    for (int i = 0; i < count; i++) {
+      Assert.assertEquals(Integer.valueOf(i * i), results.get(i).done());
+    }
+    Assert.assertTrue("writes: " + pool.writes(), pool.writes() < count);
+  }
+
+  @Test
+  public void testTaskThrows() {
+    try {
+      pool.submit(() -> {
+        throw new IllegalArgumentException("bad input");
+      }).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof IllegalArgumentException);
+      Assert.assertEquals("bad input", e.getReason().getMessage());
+    }
+  }
+
+  @Test
+  public void testTaskThrowsError() {
+    try {
+      pool.submit(() -> {
+        throw new AssertionError("broken");
+      }).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof ExecutionException);
+      Assert.assertTrue(e.getReason().getCause() instanceof AssertionError);
+    }
+  }
+
+  @Test
+  public void testValueNotSerializable() {
+    try {
+      pool.submit(Object::new).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof NotSerializableException);
+    }
+  }
+
+  @Test
+  public void testTaskNotSerializable() {
+    Object captured = new Object();
+    try {
+      pool.submit(() -> captured.hashCode()).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof NotSerializableException);
+    }
+  }
+
+  @Test
+  public void testWorkerRestarted() {
+    try {
+      pool.submit(() -> {
+        System.exit(3);
+        return null;
+      }).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof IOException);
+    }
+    for (int i = 0; i < 4; i++) {
+      Assert.assertEquals("still working", pool.submit(() -> "still working").done());
+    }
+    Assert.assertEquals(1, pool.restarts());
+  }
+
+  @Test
+  public void testStopsRestartingCrashingWorkers() throws IOException {
+    // Every worker JVM exits as soon as it starts
+    ProcessPool crashing = new ProcessPool(cue, 1, 4, Collections.singletonList("-XX:+NoSuchOption"));
+    try {
+      // Tasks are lost with each worker until the pool stops replacing them
+      String reason = "";
+      long deadline = System.currentTimeMillis() + 10_000;
+      while (!reason.startsWith("Workers kept exiting") && System.currentTimeMillis() < deadline) {
+        try {
+          crashing.submit(() -> 1).done();
+          Assert.fail();
+        } catch (RejectedException e) {
+          Assert.assertTrue(e.getReason() instanceof IOException);
+          reason = e.getReason().getMessage();
+        }
+      }
+      Assert.assertTrue(reason, reason.startsWith("Workers kept exiting"));
+      Assert.assertEquals(ProcessPool.MAX_RESTARTS, crashing.restarts());
+    } finally {
+      crashing.close();
+    }
+  }
+
+  @Test
+  public void testClosed() {
+    pool.close();
+    try {
+      pool.submit(() -> 1).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof IllegalStateException);
+    }
+  }
+}
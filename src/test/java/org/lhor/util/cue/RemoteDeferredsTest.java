@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+
+public class RemoteDeferredsTest {
+  private static final Cue cue = new CueFactory(ForkJoinPool.commonPool()).get();
+
+  private RemoteDeferreds exporter;
+  private RemoteResolver resolver;
+
+  @Before
+  public void connect() throws IOException {
+    exporter = new RemoteDeferreds(cue);
+    resolver = RemoteResolver.connect(cue, exporter.address(), exporter.token()).done();
+  }
+
+  @After
+  public void close() {
+    resolver.close();
+    exporter.close();
+  }
+
+  @Test
+  public void testResolve() {
+    Deferred<String> deferred = cue.defer();
+    exporter.export("greeting", deferred, ValueCodecs.utf8());
+    resolver.resolve("greeting", "hello", ValueCodecs.utf8()).done();
+    Assert.assertEquals("hello", deferred.promise().done());
+  }
+
+  @Test
+  public void testResolveNull() {
+    Deferred<String> deferred = cue.defer();
+    exporter.export("nothing", deferred, ValueCodecs.utf8());
+    resolver.resolve("nothing", null, ValueCodecs.utf8()).done();
+    Assert.assertNull(deferred.promise().done());
+  }
+
+  @Test
+  public void testReject() {
+    Deferred<String> deferred = cue.defer();
+    exporter.export("doomed", deferred, ValueCodecs.utf8());
+    resolver.reject("doomed", new IllegalArgumentException("bad input")).done();
+    try {
+      deferred.promise().done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      RemoteRejectedException reason = (RemoteRejectedException) e.getReason();
+      Assert.assertEquals(IllegalArgumentException.class.getName(), reason.getRemoteType());
+      Assert.assertTrue(reason.getMessage().endsWith("bad input"));
+    }
+  }
+
+  @Test
+  public void testResolvedOnlyOnce() {
+    Deferred<String> deferred = cue.defer();
+    exporter.export("once", deferred, ValueCodecs.utf8());
+    resolver.resolve("once", "first", ValueCodecs.utf8()).done();
+    try {
+      resolver.resolve("once", "second", ValueCodecs.utf8()).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof IllegalStateException);
+    }
+    Assert.assertEquals("first", deferred.promise().done());
+  }
+
+  @Test
+  public void testUndecodable() {
+    Deferred<Integer> deferred = cue.defer();
+    exporter.export("corrupt", deferred, ValueCodecs.serialization());
+    try {
+      resolver.resolve("corrupt", "not serialized", ValueCodecs.utf8()).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof IOException);
+    }
+    try {
+      deferred.promise().done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof IOException);
+    }
+  }
+
+  @Test
+  public void testWrongToken() {
+    Deferred<String> deferred = cue.defer();
+    exporter.export("guarded", deferred, ValueCodecs.utf8());
+    RemoteResolver intruder = RemoteResolver.connect(cue, exporter.address(), "guess").done();
+    try {
+      intruder.resolve("guarded", "forged", ValueCodecs.utf8()).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof IOException);
+    } finally {
+      intruder.close();
+    }
+    resolver.resolve("guarded", "genuine", ValueCodecs.utf8()).done();
+    Assert.assertEquals("genuine", deferred.promise().done());
+  }
+
+  @Test
+  public void testTokensDiffer() throws IOException {
+    try (RemoteDeferreds other = new RemoteDeferreds(cue)) {
+      Assert.assertNotEquals(exporter.token(), other.token());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testExportTwice() {
+    exporter.export("twice", cue.defer(), ValueCodecs.utf8());
+    exporter.export("twice", cue.defer(), ValueCodecs.utf8());
+  }
+
+  @Test
+  public void testBatched() {
+    int count = 1000;
+    List<Deferred<String>> deferreds = new ArrayList<>();
+    List<Promise<Void>> sent = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Deferred<String> deferred = cue.defer();
+      exporter.export("batch-" + i, deferred, ValueCodecs.utf8());
+      deferreds.add(deferred);
+    }
+    for (int i = 0; i < count; i++) {
+      sent.add(resolver.resolve("batch-" + i, "value-" + i, ValueCodecs.utf8()));
+    }
+    for (int i = 0; i < count; i++) {
+      sent.get(i).done();
+      Assert.assertEquals("value-" + i, deferreds.get(i).promise().done());
+    }
+    Assert.assertTrue("frames: " + resolver.frames(), resolver.frames() < count);
+  }
+
+  @Test
+  public void testClosed() {
+    resolver.close();
+    try {
+      resolver.resolve("gone", "value", ValueCodecs.utf8()).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof IOException);
+    }
+  }
+
+  @Test
+  public void testExporterClosed() {
+    Deferred<String> deferred = cue.defer();
+    exporter.export("first", deferred, ValueCodecs.utf8());
+    resolver.resolve("first", "value", ValueCodecs.utf8()).done();
+    exporter.close();
+    try {
+      resolver.resolve("second", "value", ValueCodecs.utf8()).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getReason() instanceof IOException);
+    }
+  }
+}
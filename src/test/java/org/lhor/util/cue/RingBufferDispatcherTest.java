@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class RingBufferDispatcherTest {
+  private static final ForkJoinPool executors = new ForkJoinPool(8);
+  private final Dispatcher dispatcher = Dispatchers.ringBuffer(4, WaitStrategy.YIELDING);
+  private final Cue cue = new CueFactory(executors, dispatcher).get();
+
+  @After
+  public void closeDispatcher() {
+    dispatcher.close();
+  }
+
+  @Test
+  public void testChain() {
+    Deferred<String> deferred = cue.defer();
+    Promise<String> result = deferred.promise()
+        .then(s -> s + "b")
+        .then(s -> s + "c");
+    deferred.resolve("a");
+    Assert.assertEquals("abc", result.done());
+  }
+
+  @Test
+  public void testManyProducersThroughSmallBuffer() throws InterruptedException {
+    int producers = 8;
+    int perProducer = 2000;
+    AtomicInteger count = new AtomicInteger();
+    CountDownLatch finished = new CountDownLatch(producers * perProducer);
+    for (int p = 0; p < producers; p++) {
+      executors.submit(() -> {
+        for (int i = 0; i < perProducer; i++) {
+          dispatcher.dispatch(() -> {
+            count.incrementAndGet();
+            finished.countDown();
+          });
+        }
+      });
+    }
+    finished.await();
+    Assert.assertEquals(producers * perProducer, count.get());
+  }
+
+  @Test
+  public void testDispatchFromConsumerWhileFull() throws InterruptedException {
+    CountDownLatch finished = new CountDownLatch(100);
+    dispatcher.dispatch(() -> {
+      for (int i = 0; i < 100; i++) {
+        dispatcher.dispatch(finished::countDown);
+      }
+    });
+    finished.await();
+  }
+
+  @Test
+  public void testManyCallbacksOnOnePromise() {
+    Deferred<Integer> deferred = cue.defer();
+    ArrayList<Promise<Integer>> results = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      int offset = i;
+      results.add(deferred.promise().then(v -> v + offset));
+    }
+    deferred.resolve(1);
+    for (int i = 0; i < 100; i++) {
+      Assert.assertEquals(Integer.valueOf(i + 1), results.get(i).done());
+    }
+  }
+
+  @Test
+  public void testCloseRunsDispatchedTasks() {
+    AtomicInteger count = new AtomicInteger();
+    for (int i = 0; i < 10; i++) {
+      dispatcher.dispatch(count::incrementAndGet);
+    }
+    dispatcher.close();
+    Assert.assertEquals(10, count.get());
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void testDispatchAfterClose() {
+    dispatcher.close();
+    dispatcher.dispatch(() -> {});
+  }
+}
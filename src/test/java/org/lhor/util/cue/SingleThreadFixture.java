@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.rules.ExternalResource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * A single thread for Dispatcher tests to run callbacks on, which can be
+ * blocked so callbacks queue up, and a list for them to record the order
+ * they ran in.
+ */
+final class SingleThreadFixture extends ExternalResource {
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final CountDownLatch blocked = new CountDownLatch(1);
+  private final List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+  @Override
+  protected void after() {
+    executor.shutdownNow();
+  }
+
+  ExecutorService executor() {
+    return executor;
+  }
+
+  List<String> order() {
+    return order;
+  }
+
+  /** Occupies the only thread so callbacks queue up until {@link #release()} */
+  void block() {
+    executor.execute(() -> {
+      try {
+        blocked.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+  }
+
+  void release() {
+    blocked.countDown();
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures request/response throughput over loopback: several connections
+ * each send a framed request and wait for the echoed response before sending
+ * the next, first through {@link CueSockets} with an asynchronous echo server,
+ * then through blocking sockets with a thread per connection on both sides.
+ * <p>
+ * This is not run as part of the tests. Run it with the test classpath, e.g.
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.lhor.util.cue.SocketRoundTripBenchmark</code>.
+ * </p>
+ */
+public final class SocketRoundTripBenchmark {
+  private static final int CONNECTIONS = 32;
+  private static final int REQUESTS = 20_000;
+  private static final int PAYLOAD = 128;
+
+  private SocketRoundTripBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    ForkJoinPool executorService = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    try {
+      Cue cue = new CueFactory(executorService).get();
+      runAsync(cue, REQUESTS / 10);
+      report("CueSockets", runAsync(cue, REQUESTS));
+    } finally {
+      executorService.shutdown();
+    }
+    runBlocking(REQUESTS / 10);
+    report("blocking sockets", runBlocking(REQUESTS));
+  }
+
+  private static void report(String name, double seconds) {
+    System.out.printf("%-18s %10.0f round trips/s%n", name, CONNECTIONS * (double) REQUESTS / seconds);
+  }
+
+  /**
+   * @return seconds taken for every connection to make its requests
+   */
+  private static double runAsync(Cue cue, int requests) throws IOException {
+    CueSockets sockets = new CueSockets(cue);
+    try (AsynchronousServerSocketChannel server = AsynchronousServerSocketChannel.open()
+        .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+      server.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+        @Override
+        public void completed(AsynchronousSocketChannel channel, Void attachment) {
+          server.accept(null, this);
+          echo(sockets, channel);
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+        }
+      });
+
+      List<AsynchronousSocketChannel> clients = new ArrayList<>();
+      for (int i = 0; i < CONNECTIONS; i++) {
+        clients.add(sockets.connect(server.getLocalAddress()).done());
+      }
+      long started = System.nanoTime();
+      List<Promise<Void>> finished = new ArrayList<>();
+      for (AsynchronousSocketChannel client : clients) {
+        Deferred<Void> deferred = cue.defer();
+        request(sockets, client, requests, deferred);
+        finished.add(deferred.promise());
+      }
+      finished.forEach(Promise::done);
+      double seconds = (System.nanoTime() - started) / (double) TimeUnit.SECONDS.toNanos(1);
+      for (AsynchronousSocketChannel client : clients) {
+        client.close();
+      }
+      return seconds;
+    }
+  }
+
+  private static void echo(CueSockets sockets, AsynchronousSocketChannel channel) {
+    sockets.readFrame(channel).then(frame -> {
+      if (frame != null) {
+        sockets.writeFrame(channel, frame).then(() -> echo(sockets, channel));
+      }
+    });
+  }
+
+  private static void request(CueSockets sockets, AsynchronousSocketChannel channel, int remaining,
+                              Deferred<Void> finished) {
+    if (remaining == 0) {
+      finished.resolve(null);
+      return;
+    }
+    sockets.writeFrame(channel, ByteBuffer.allocate(PAYLOAD)).then(() -> {
+      sockets.readFrame(channel).then(frame -> {
+        request(sockets, channel, remaining - 1, finished);
+      }).fail(reason -> {
+        finished.reject(reason);
+      });
+    }).fail(reason -> {
+      finished.reject(reason);
+    });
+  }
+
+  /**
+   * @return seconds taken for every connection to make its requests
+   */
+  private static double runBlocking(int requests) throws Exception {
+    ExecutorService threads = Executors.newCachedThreadPool();
+    try (ServerSocket server = new ServerSocket(0, CONNECTIONS, InetAddress.getLoopbackAddress())) {
+      for (int i = 0; i < CONNECTIONS; i++) {
+        threads.submit(() -> {
+          try (Socket socket = server.accept()) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            byte[] frame = new byte[PAYLOAD];
+            for (int r = 0; r < requests; r++) {
+              in.readFully(frame, 0, in.readInt());
+              out.writeInt(PAYLOAD);
+              out.write(frame);
+              out.flush();
+            }
+          }
+          return null;
+        });
+      }
+
+      long started = System.nanoTime();
+      List<Future<?>> clients = new ArrayList<>();
+      for (int i = 0; i < CONNECTIONS; i++) {
+        clients.add(threads.submit(() -> {
+          try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            byte[] frame = new byte[PAYLOAD];
+            for (int r = 0; r < requests; r++) {
+              out.writeInt(PAYLOAD);
+              out.write(frame);
+              out.flush();
+              in.readFully(frame, 0, in.readInt());
+            }
+          }
+          return null;
+        }));
+      }
+      for (Future<?> client : clients) {
+        client.get();
+      }
+      return (System.nanoTime() - started) / (double) TimeUnit.SECONDS.toNanos(1);
+    } finally {
+      threads.shutdown();
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Runs a million concurrent Promise chains on a Cue backed by a ForkJoinPool
+ * and on one backed by virtual threads, first with callbacks which only
+ * compute and then with one callback per chain which blocks for a
+ * millisecond, as a callback waiting on I/O would.
+ * <p>
+ * This is not run as part of the tests. Virtual threads are only used from
+ * the multi-release jar, so build it on Java 21 or later with
+ * <code>mvn package</code> and run it with
+ * <code>java -cp "target/cue-1.0.jar:target/lib/*:target/test-classes"
+ * org.lhor.util.cue.VirtualThreadBenchmark [chains]</code>. On older JVMs
+ * only the ForkJoinPool is measured. Expect the blocking run on the
+ * ForkJoinPool to take roughly <code>chains / processors</code>
+ * milliseconds.
+ * </p>
+ */
+public final class VirtualThreadBenchmark {
+  private static final int CHAINS = 1_000_000;
+  private static final int WARMUP = 20_000;
+
+  private VirtualThreadBenchmark() {
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int chains = args.length > 0 ? Integer.parseInt(args[0]) : CHAINS;
+
+    ForkJoinPool forkJoinPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    try {
+      run("ForkJoinPool", new CueFactory(forkJoinPool).get(), chains);
+    } finally {
+      forkJoinPool.shutdown();
+    }
+
+    if (!CueFactory.virtualThreadsSupported()) {
+      System.out.println("Virtual threads are not supported by this JVM, or the classes were not loaded from the jar");
+      return;
+    }
+    run("virtual threads", CueFactory.virtualThreads().get(), chains);
+  }
+
+  private static void run(String name, Cue cue, int chains) throws InterruptedException {
+    measure(cue, WARMUP, false);
+    measure(cue, WARMUP, true);
+    System.out.printf("%-16s compute  %8d chains in %8.1fms%n", name, chains, measure(cue, chains, false));
+    System.out.printf("%-16s blocking %8d chains in %8.1fms%n", name, chains, measure(cue, chains, true));
+  }
+
+  private static double measure(Cue cue, int chains, boolean blocking) throws InterruptedException {
+    CountDownLatch finished = new CountDownLatch(chains);
+    long started = System.nanoTime();
+    for (int i = 0; i < chains; i++) {
+      Deferred<Integer> deferred = cue.defer();
+      deferred.promise()
+          .then(value -> value + 1)
+          .then(value -> {
+            if (blocking) {
+              Thread.sleep(1);
+            }
+            return value * 2;
+          })
+          .then(value -> {
+            finished.countDown();
+          });
+      deferred.resolve(i);
+    }
+    finished.await();
+    return (System.nanoTime() - started) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class WorkStealingDispatcherTest {
+  private static final ForkJoinPool executors = new ForkJoinPool(8);
+  private static final Cue cue = new CueFactory(executors, Dispatchers.workStealing(executors)).get();
+
+  @Test
+  public void testChain() {
+    Deferred<String> deferred = cue.defer();
+    Promise<String> result = deferred.promise()
+        .then(s -> s + "b")
+        .then(s -> s + "c");
+    deferred.resolve("a");
+    Assert.assertEquals("abc", result.done());
+  }
+
+  @Test
+  public void testDispatchFromWorkerUsesLocalQueue() throws Exception {
+    ForkJoinPool single = new ForkJoinPool(1);
+    try {
+      Dispatcher dispatcher = Dispatchers.workStealing(single);
+      AtomicInteger ran = new AtomicInteger();
+      int queued = single.submit(() -> {
+        for (int i = 0; i < 5; i++) {
+          dispatcher.dispatch(ran::incrementAndGet);
+        }
+        return ForkJoinTask.getQueuedTaskCount();
+      }).get();
+      Assert.assertEquals(5, queued);
+      single.awaitQuiescence(1, TimeUnit.SECONDS);
+      Assert.assertEquals(5, ran.get());
+    } finally {
+      single.shutdown();
+    }
+  }
+
+  @Test
+  public void testDispatchAllFromOutsidePool() throws InterruptedException {
+    CountDownLatch finished = new CountDownLatch(1000);
+    List<Runnable> tasks = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      tasks.add(finished::countDown);
+    }
+    Dispatchers.workStealing(executors).dispatchAll(tasks);
+    finished.await();
+  }
+
+  @Test
+  public void testBatchResolution() {
+    List<Promise<Integer>> results = new ArrayList<>();
+    DeferredBatch batch = cue.batch();
+    for (int i = 0; i < 100; i++) {
+      Deferred<Integer> deferred = cue.defer();
+      results.add(deferred.promise().then(v -> v * 2));
+      batch.resolve(deferred, i);
+    }
+    batch.commit();
+    for (int i = 0; i < 100; i++) {
+      Assert.assertEquals(Integer.valueOf(i * 2), results.get(i).done());
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2015, Kevin L'Huillier <klhuillier@gmail.com>
+ *
+ * Released under the zlib license. See LICENSE or
+ * http://spdx.org/licenses/Zlib for the full license text.
+ */
+
+package org.lhor.util.cue;
+
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+
+public class FlowAdaptersTest {
+  private static final ForkJoinPool executors = new ForkJoinPool(10);
+  private static final Cue cue = new CueFactory(executors).get();
+
+  /** Records what a publisher signals */
+  private static final class Recorder<T> implements Flow.Subscriber<T> {
+    private final long initial;
+    private final List<T> values = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch ended = new CountDownLatch(1);
+    private volatile Flow.Subscription subscription;
+    private volatile Throwable error;
+
+    private Recorder(long initial) {
+      this.initial = initial;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(initial);
+    }
+
+    @Override
+    public void onNext(T item) {
+      values.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+      ended.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      ended.countDown();
+    }
+
+    private void await() throws InterruptedException {
+      Assert.assertTrue(ended.await(5, TimeUnit.SECONDS));
+    }
+  }
+
+  private static List<Integer> range(int end) {
+    return IntStream.range(0, end).boxed().collect(Collectors.toList());
+  }
+
+  @Test
+  public void testPublisherDeliversStream() throws InterruptedException {
+    Recorder<Integer> recorder = new Recorder<>(Long.MAX_VALUE);
+    FlowAdapters.toPublisher(cue.stream(range(100).iterator())).subscribe(recorder);
+    recorder.await();
+    Assert.assertNull(recorder.error);
+    Assert.assertEquals(range(100), recorder.values);
+  }
+
+  @Test
+  public void testPublisherPullsOnlyDemand() throws InterruptedException {
+    AtomicInteger pulled = new AtomicInteger();
+    Iterator<Integer> source = range(100).iterator();
+    Iterator<Integer> counting = new Iterator<Integer>() {
+      @Override
+      public boolean hasNext() {
+        return source.hasNext();
+      }
+
+      @Override
+      public Integer next() {
+        pulled.incrementAndGet();
+        return source.next();
+      }
+    };
+    Recorder<Integer> recorder = new Recorder<>(3);
+    FlowAdapters.toPublisher(cue.stream(counting)).subscribe(recorder);
+    Thread.sleep(100);
+    Assert.assertEquals(range(3), recorder.values);
+    Assert.assertEquals(3, pulled.get());
+
+    recorder.subscription.request(97);
+    Thread.sleep(100);
+    Assert.assertEquals(range(100), recorder.values);
+    recorder.subscription.request(1);
+    recorder.await();
+    Assert.assertNull(recorder.error);
+  }
+
+  @Test
+  public void testPublisherStopsOnCancel() throws InterruptedException {
+    Recorder<Integer> recorder = new Recorder<>(2);
+    FlowAdapters.toPublisher(cue.stream(range(100).iterator())).subscribe(recorder);
+    Thread.sleep(100);
+    recorder.subscription.cancel();
+    recorder.subscription.request(10);
+    Thread.sleep(100);
+    Assert.assertEquals(range(2), recorder.values);
+    Assert.assertEquals(1, recorder.ended.getCount());
+  }
+
+  @Test
+  public void testPublisherRejectsSecondSubscriber() throws InterruptedException {
+    Flow.Publisher<Integer> publisher = FlowAdapters.toPublisher(cue.stream(range(1).iterator()));
+    publisher.subscribe(new Recorder<>(1));
+    Recorder<Integer> second = new Recorder<>(1);
+    publisher.subscribe(second);
+    second.await();
+    Assert.assertTrue(second.error instanceof IllegalStateException);
+  }
+
+  @Test
+  public void testPublisherRejectsNonPositiveRequest() throws InterruptedException {
+    Recorder<Integer> recorder = new Recorder<>(0);
+    FlowAdapters.toPublisher(cue.stream(range(10).iterator())).subscribe(recorder);
+    recorder.await();
+    Assert.assertTrue(recorder.error instanceof IllegalArgumentException);
+    Assert.assertEquals(Collections.emptyList(), recorder.values);
+  }
+
+  @Test
+  public void testPublisherPassesStreamFailure() throws InterruptedException {
+    Emitter<Integer> emitter = cue.emitter(4);
+    emitter.emit(1);
+    emitter.fail(new IOException("broken"));
+    Recorder<Integer> recorder = new Recorder<>(10);
+    FlowAdapters.toPublisher(emitter.stream()).subscribe(recorder);
+    recorder.await();
+    Assert.assertEquals(Collections.singletonList(1), recorder.values);
+    Assert.assertEquals("broken", recorder.error.getMessage());
+  }
+
+  @Test
+  public void testStreamFromPublisher() {
+    SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>(executors, 4);
+    AsyncStream<Integer> stream = FlowAdapters.toStream(cue, publisher, 4);
+    new Thread(() -> {
+      for (int i = 0; i < 1000; i++) {
+        publisher.submit(i);
+      }
+      publisher.close();
+    }).start();
+
+    List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+    stream.forEach(values::add).done();
+    Assert.assertEquals(range(1000), values);
+  }
+
+  @Test
+  public void testStreamFromFailedPublisher() {
+    SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>(executors, 4);
+    AsyncStream<Integer> stream = FlowAdapters.toStream(cue, publisher, 4);
+    publisher.submit(1);
+    publisher.closeExceptionally(new IOException("broken"));
+    try {
+      stream.forEach(value -> {
+      }).done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+
+  @Test
+  public void testStreamWrapsErrors() {
+    SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>(executors, 4);
+    AsyncStream<Integer> stream = FlowAdapters.toStream(cue, publisher, 4);
+    publisher.closeExceptionally(new AssertionError("broken"));
+    try {
+      stream.next().done();
+      Assert.fail();
+    } catch (RejectedException e) {
+      Assert.assertTrue(e.getCause() instanceof ExecutionException);
+      Assert.assertTrue(e.getCause().getCause() instanceof AssertionError);
+    }
+  }
+
+  @Test
+  public void testRoundTrip() {
+    AsyncStream<Integer> stream = FlowAdapters.toStream(cue,
+        FlowAdapters.toPublisher(cue.stream(range(500).iterator())), 8);
+    Assert.assertEquals(Integer.valueOf(range(500).stream().mapToInt(i -> i).sum()),
+        stream.reduce(0, (sum, i) -> sum + i).done());
+  }
+}